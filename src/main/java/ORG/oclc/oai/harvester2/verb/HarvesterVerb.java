@@ -17,9 +17,6 @@
 
 package ORG.oclc.oai.harvester2.verb;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.xpath.XPathAPI;
@@ -34,7 +31,6 @@ import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
@@ -45,15 +41,24 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipInputStream;
 import javax.xml.stream.XMLStreamException;
+import nl.mpi.oai.harvester.utils.ConnectionLimiter;
 import nl.mpi.oai.harvester.utils.DocumentSource;
-import nl.mpi.oai.harvester.utils.MarkableFileInputStream;
+import nl.mpi.oai.harvester.utils.HttpTransport;
+import nl.mpi.oai.harvester.utils.RequestGuard;
+import nl.mpi.oai.harvester.utils.ResponseSpool;
+import nl.mpi.oai.harvester.utils.ResponseSummary;
+import nl.mpi.oai.harvester.utils.RetryScheduler;
+import nl.mpi.oai.harvester.utils.TransportFactory;
 import org.codehaus.stax2.XMLInputFactory2;
 import org.codehaus.stax2.XMLStreamReader2;
 import org.codehaus.stax2.evt.XMLEvent2;
@@ -78,10 +83,21 @@ public abstract class HarvesterVerb {
     private Document doc = null;
     private String schemaLocation = null;
     private String requestURL = null;
+    private ResponseSummary summary = null;
     private static HashMap builderMap = new HashMap();
     private static Element namespaceElement = null;
     private static DocumentBuilderFactory factory = null;
     private static TransformerFactory xformFactory = TransformerFactory.newInstance();
+    private static final NodeList EMPTY_NODE_LIST = new NodeList() {
+        public Node item(int index) {
+            return null;
+        }
+        public int getLength() {
+            return 0;
+        }
+    };
+    private static final Map<String, String> requestProperties = Collections.singletonMap(
+            "Accept-Encoding", "compress, gzip, identify");
     
     static {
     	try {
@@ -190,7 +206,11 @@ public abstract class HarvesterVerb {
      */
     public String getSchemaLocation() throws TransformerException, ParserConfigurationException, SAXException, IOException, XMLStreamException {
         if (this.schemaLocation == null) {
-            if (hasDocument()) {
+            if (summary != null && summary.getSchemaLocation() != null) {
+                // found while harvesting, already normalized
+                this.schemaLocation = summary.getSchemaLocation();
+                return schemaLocation;
+            } else if (hasDocument()) {
                 this.schemaLocation = getSingleString("/*/@xsi:schemaLocation");
                 logger.debug("found schemaLocation["+schemaLocation+"] in the XML tree");
             } else {
@@ -230,12 +250,52 @@ public abstract class HarvesterVerb {
      */
     public NodeList getErrors() throws TransformerException, ParserConfigurationException, SAXException, IOException, XMLStreamException {
         if (SCHEMA_LOCATION_V2_0.equals(getSchemaLocation())) {
+            if (isSummarized() && summary.getErrorCodes().isEmpty()) {
+                // no need to build the tree, there are no errors
+                return EMPTY_NODE_LIST;
+            }
             return getNodeList("/oai20:OAI-PMH/oai20:error");
         } else {
             return null;
         }
     }
     
+    /**
+     * Get the codes of the OAI errors, without building the DOM if the
+     * response was summarized while harvesting
+     * 
+     * @return the error codes, empty if there are none
+     */
+    public List<String> getErrorCodes() throws TransformerException, ParserConfigurationException, SAXException, IOException, XMLStreamException {
+        if (isSummarized())
+            return summary.getErrorCodes();
+        List<String> codes = new ArrayList<String>();
+        NodeList errors = getErrors();
+        for (int i = 0; errors != null && i < errors.getLength(); i++)
+            codes.add(((Element) errors.item(i)).getAttribute("code"));
+        return codes;
+    }
+    
+    /**
+     * Get the facts collected from the response while harvesting
+     * 
+     * @return the summary, or null if the response was not harvested
+     */
+    public ResponseSummary getSummary() {
+        return summary;
+    }
+    
+    /**
+     * Check if the summary covers the whole response, and the response is
+     * an OAI-PMH 2.0 one
+     * 
+     * @return true if the verbs can rely on the summary
+     */
+    protected boolean isSummarized() {
+        return summary != null && summary.isComplete()
+                && SCHEMA_LOCATION_V2_0.equals(summary.getSchemaLocation());
+    }
+    
     /**
      * Get the OAI request URL for this response
      * @return the OAI request URL as a String
@@ -288,81 +348,96 @@ public abstract class HarvesterVerb {
     public void harvest(String requestURL, int timeout, Path temp) throws MalformedURLException, IOException {
         this.requestURL = requestURL;
         logger.debug("requestURL=" + this.requestURL);
-        InputStream in = null;
-        URL url = new URL(this.requestURL);
-        HttpURLConnection con = null;
-        int responseCode = 0;
-        do {
-            con = (HttpURLConnection) url.openConnection();
-            con.setRequestProperty("User-Agent", "OAIHarvester/2.0");
-            con.setRequestProperty("Accept-Encoding",
-            "compress, gzip, identify");
-            if (timeout > 0) {
-                logger.debug("timeout=" + timeout);
-                con.setConnectTimeout(timeout*1000);
-                con.setReadTimeout(timeout*1000);
-            }
-            try {
-                responseCode = con.getResponseCode();
-                logger.debug("responseCode=" + responseCode);
-            } catch (FileNotFoundException e) {
-                // assume it's a 503 response
-                logger.info(requestURL, e);
-                responseCode = HttpURLConnection.HTTP_UNAVAILABLE;
-            } catch(Exception e) {
-                logger.error("couldn't connect to '"+requestURL+"': "+e.getMessage());
-                throw e;
-            }
-            if (responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == HttpURLConnection.HTTP_MOVED_TEMP || responseCode == HttpURLConnection.HTTP_SEE_OTHER) {
-                this.requestURL = con.getHeaderField("Location");
-                logger.debug("redirect to requestURL=" + this.requestURL);
-                url = new URL(this.requestURL);
-                responseCode = HttpURLConnection.HTTP_UNAVAILABLE;
-            } else if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
-                long retrySeconds = con.getHeaderFieldInt("Retry-After", -1);
-                if (retrySeconds == -1) {
-                    long now = (new Date()).getTime();
-                    long retryDate = con.getHeaderFieldDate("Retry-After", now);
-                    retrySeconds = retryDate - now;
-                }
-                if (retrySeconds == 0) { // Apparently, it's a bad URL
+        // wait until the host and the endpoint accept another request
+        ConnectionLimiter.Permit permit = ConnectionLimiter.acquire(this.requestURL);
+        // the deadline and the minimum rate of the request are enforced by the guard
+        RequestGuard.Request request = null;
+        try {
+            HttpTransport transport = TransportFactory.getTransport();
+            InputStream in = null;
+            HttpURLConnection con = null;
+            int responseCode = 0;
+            do {
+                request = RequestGuard.start(this.requestURL);
+                try {
+                    // the transport follows redirects, and remembers permanent ones
+                    con = transport.open(this.requestURL, timeout, requestProperties);
+                    request.attach(con);
+                    responseCode = con.getResponseCode();
+                    logger.debug("responseCode=" + responseCode);
+                } catch (FileNotFoundException e) {
+                    // nothing to retry, there is no response to read a Retry-After from
+                    logger.info(requestURL, e);
                     throw new FileNotFoundException("Bad URL?");
+                } catch(Exception e) {
+                    logger.error("couldn't connect to '"+requestURL+"': "+e.getMessage());
+                    throw e;
+                }
+                if (!con.getURL().toString().equals(this.requestURL)) {
+                    this.requestURL = con.getURL().toString();
+                    logger.debug("redirect to requestURL=" + this.requestURL);
                 }
-                logger.debug("Retry-After=" + retrySeconds);
-                if (retrySeconds > 0) {
-                    try {
-                        Thread.sleep(retrySeconds * 1000);
-                    } catch (InterruptedException ex) {
-                        logger.error(ex);
+                if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+                    long retrySeconds = con.getHeaderFieldInt("Retry-After", -1);
+                    if (retrySeconds == -1) {
+                        long now = (new Date()).getTime();
+                        long retryDate = con.getHeaderFieldDate("Retry-After", now);
+                        // the date is in milliseconds, round up to whole seconds
+                        retrySeconds = (retryDate - now + 999) / 1000;
+                    }
+                    transport.release(con, null);
+                    // waiting is not part of the request
+                    request.finish();
+                    if (retrySeconds == 0) { // Apparently, it's a bad URL
+                        throw new FileNotFoundException("Bad URL?");
+                    }
+                    logger.debug("Retry-After=" + retrySeconds);
+                    if (retrySeconds > 0) {
+                        // give the host and the worker slot to others while waiting
+                        permit.release();
+                        RetryScheduler.await(retrySeconds * 1000);
+                        permit = ConnectionLimiter.acquire(this.requestURL);
                     }
                 }
+            } while (responseCode == HttpURLConnection.HTTP_UNAVAILABLE);
+            try {
+                String contentEncoding = con.getHeaderField("Content-Encoding");
+                logger.debug("Content-Encoding=" + contentEncoding);
+                // the rate is measured on the bytes as they arrive
+                InputStream body = request.wrap(con.getInputStream());
+                if ("compress".equals(contentEncoding)) {
+                    ZipInputStream zis = new ZipInputStream(body);
+                    zis.getNextEntry();
+                    in = zis;
+                } else if ("gzip".equals(contentEncoding)) {
+                    in = new GZIPInputStream(body);
+                } else if ("deflate".equals(contentEncoding)) {
+                    in = new InflaterInputStream(body);
+                } else {
+                    in = body;
+                }
+
+                // copy the response, and summarise it on the fly; a large
+                // response moves to the temp file, if there is one
+                ResponseSpool spool = new ResponseSpool(temp);
+                try {
+                    summary = ResponseSummary.scan(in, spool);
+                } finally {
+                    spool.close();
+                }
+                logger.debug("spooled ["+spool.size()+"] bytes "
+                        +(spool.isOnDisk()?"in temp["+temp+"]":"in memory")+" for URL["+requestURL+"]");
+                str = spool.getInputStream();
+                logger.debug("summary "+summary+" for URL["+requestURL+"]");
+            } finally {
+                // hand the connection back, so it can be reused
+                transport.release(con, in);
             }
-        } while (responseCode == HttpURLConnection.HTTP_UNAVAILABLE);
-        String contentEncoding = con.getHeaderField("Content-Encoding");
-        logger.debug("Content-Encoding=" + contentEncoding);
-        if ("compress".equals(contentEncoding)) {
-            ZipInputStream zis = new ZipInputStream(con.getInputStream());
-            zis.getNextEntry();
-            in = zis;
-        } else if ("gzip".equals(contentEncoding)) {
-            in = new GZIPInputStream(con.getInputStream());
-        } else if ("deflate".equals(contentEncoding)) {
-            in = new InflaterInputStream(con.getInputStream());
-        } else {
-            in = con.getInputStream();
-        }
-        
-        if (temp!=null) {
-            FileOutputStream out = new FileOutputStream(temp.toFile());
-            org.apache.commons.io.IOUtils.copy(in,out,1000000);
-            out.close();
-            logger.debug("temp["+temp+"] for URL["+requestURL+"]");
-            str = new MarkableFileInputStream(new FileInputStream(temp.toFile()));
-        } else {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            int size = org.apache.commons.io.IOUtils.copy(in, baos);
-            logger.debug("buffered ["+size+"] bytes for URL["+requestURL+"]");
-            str = new ByteArrayInputStream(baos.toByteArray());
+        } finally {
+            if (request != null) {
+                request.finish();
+            }
+            permit.release();
         }
     }
     
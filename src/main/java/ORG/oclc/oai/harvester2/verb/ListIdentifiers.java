@@ -91,6 +91,9 @@ public class ListIdentifiers extends HarvesterVerb {
      */
     public String getResumptionToken()
     throws TransformerException, NoSuchFieldException, ParserConfigurationException, SAXException, IOException, XMLStreamException {
+        // the token was found while harvesting, no need to parse again
+        if (isSummarized())
+            return getSummary().getResumptionToken();
         if (SCHEMA_LOCATION_V2_0.equals(getSchemaLocation())) {
             return getSingleString("/oai20:OAI-PMH/oai20:ListIdentifiers/oai20:resumptionToken");
         } else if (SCHEMA_LOCATION_V1_1_LIST_IDENTIFIERS.equals(getSchemaLocation())) {
@@ -26,7 +26,6 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URLEncoder;
 import java.nio.file.Path;
-import java.util.concurrent.Semaphore;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import org.apache.logging.log4j.LogManager;
@@ -44,8 +43,6 @@ import org.codehaus.stax2.evt.XMLEvent2;
 public class ListRecords extends HarvesterVerb {
     private static Logger logger = LogManager.getLogger(ListRecords.class);
     
-    private static Semaphore semaphore = new Semaphore(1);
-    
     /**
      * Mock object constructor (for unit testing purposes)
      */
@@ -109,27 +106,6 @@ public class ListRecords extends HarvesterVerb {
         super(getRequestURL(baseURL, resumptionToken), timeout, temp);
     }
     
-    public void harvest(String requestURL, int timeout, Path temp) throws MalformedURLException, IOException {
-        if (semaphore!=null) {
-            for (;;) {
-                try {
-                    logger.debug("request ListRecords verb");
-                    semaphore.acquire();
-                    logger.debug("acquired ListRecords verb");
-                    break;
-                } catch (InterruptedException e) { }
-            }
-        }
-        try {
-            super.harvest(requestURL, timeout, temp);
-        } finally {
-            if (semaphore!=null) {
-                semaphore.release();
-                logger.debug("released ListRecords verb");
-            }
-        }
-    }
-    
     /**
      * Get the oai:resumptionToken from the response
      * 
@@ -139,6 +115,9 @@ public class ListRecords extends HarvesterVerb {
      */
     public String getResumptionToken()
     throws TransformerException, NoSuchFieldException, ParserConfigurationException, SAXException, IOException, XMLStreamException {
+        // the token was found while harvesting, no need to parse again
+        if (isSummarized())
+            return getSummary().getResumptionToken();
         String schemaLocation = getSchemaLocation();
         if (schemaLocation.indexOf(SCHEMA_LOCATION_V2_0) != -1) {
             if (hasDocument())
@@ -93,6 +93,9 @@ public class ListSets extends HarvesterVerb {
 	 */
 	public String getResumptionToken()
 	throws TransformerException, NoSuchFieldException, ParserConfigurationException, SAXException, IOException, XMLStreamException {
+		// the token was found while harvesting, no need to parse again
+		if (isSummarized())
+			return getSummary().getResumptionToken();
 		if (SCHEMA_LOCATION_V2_0.equals(getSchemaLocation())) {
 			return getSingleString("/oai20:OAI-PMH/oai20:ListSets/oai20:resumptionToken");
 		} else if (SCHEMA_LOCATION_V1_1_LIST_SETS.equals(getSchemaLocation())) {
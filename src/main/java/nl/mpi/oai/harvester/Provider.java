@@ -24,10 +24,14 @@ import ORG.oclc.oai.harvester2.verb.ListIdentifiers;
 import ORG.oclc.oai.harvester2.verb.ListMetadataFormats;
 import nl.mpi.oai.harvester.action.ActionSequence;
 import nl.mpi.oai.harvester.control.Util;
+import nl.mpi.oai.harvester.cycle.Endpoint;
+import nl.mpi.oai.harvester.cycle.Preamble;
 import nl.mpi.oai.harvester.harvesting.Harvesting;
+import nl.mpi.oai.harvester.harvesting.PreambleCache;
 import nl.mpi.oai.harvester.metadata.Metadata;
 import nl.mpi.oai.harvester.metadata.MetadataFormat;
 import nl.mpi.oai.harvester.metadata.NSContext;
+import nl.mpi.oai.harvester.utils.RetryScheduler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.w3c.dom.Document;
@@ -48,6 +52,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class represents a single OAI-PMH provider.
@@ -57,6 +62,9 @@ import java.util.*;
 public class Provider {
     private static final Logger logger = LogManager.getLogger(Provider.class);
 
+    /** Upper bound of the delay before a retry, in milliseconds. */
+    public static final int MAX_RETRY_DELAY = 60 * 60 * 1000;
+
     /** Name of the provider. */
     public String name;
     
@@ -78,8 +86,26 @@ public class Provider {
     /** Maximum timeout for a connection */
     public int timeout = 0;
     
-    /** Do I need some time on my own? */
+    /** Do I need some time on my own? That is: the host to myself. */
     public boolean exclusive = false;
+
+    /** Maximum number of concurrent requests to the host, 0 for the default */
+    public int maxHostJobs = 0;
+
+    /** Maximum number of concurrent requests to the endpoint, 0 for no limit */
+    public int maxEndpointJobs = 0;
+
+    /** Maximum number of sets harvested at the same time */
+    public int maxSetJobs = 1;
+
+    /** Maximum number of date windows harvested at the same time */
+    public int maxWindowJobs = 1;
+
+    /** Maximum number of GetRecord requests in flight at the same time */
+    public int maxRecordJobs = 1;
+
+    /** Should records obtained or processed at the same time keep the order of the list? */
+    public boolean keepRecordOrder = false;
     
     /** Type of prefix harvesting that applies to the provider */
     public Harvesting prefixHarvesting;
@@ -96,13 +122,21 @@ public class Provider {
     // document builder factory
     public final DocumentBuilder db;
     
-    public Path temp;
+    // files responses are spooled to, until they have been processed
+    private final Set<Path> spools = Collections.newSetFromMap(
+            new ConcurrentHashMap<Path, Boolean>());
 
 	/**
 	 * Provider deletion mode
 	 */
 	public DeletionMode deletionMode;
 
+    /** Facts obtained by the Identify and ListMetadataFormats verbs. */
+    private Preamble preamble = null;
+
+    // the Identify response, requested once
+    private Document identifyResponse = null;
+
     /**
      * Provider constructor
      * <br><br>
@@ -142,13 +176,6 @@ public class Provider {
 	nsContext.add("oai", "http://www.openarchives.org/OAI/2.0/");
 	nsContext.add("os", "http://www.openarchives.org/OAI/2.0/static-repository");
 	xpath.setNamespaceContext(nsContext);
-        
-        try {
-            temp = Files.createTempFile("oai-",null);
-        } catch (IOException ex) {
-            temp = null;
-        }
-
     }
 
     /**
@@ -159,13 +186,86 @@ public class Provider {
 		if(deletionMode == null) fetchDeletionMode();
     }
 
-    public void close() {
-	if (temp != null) {
-	    try {
-                Files.deleteIfExists(temp);
-            } catch (IOException ex) {
+    /**
+     * Prepare this object for use, reusing the facts about the provider the
+     * harvest cycle obtained before.
+     *
+     * @param endpoint the endpoint in the harvest cycle
+     * @param ttl time in milliseconds the facts remain valid
+     */
+    public void init(Endpoint endpoint, long ttl) {
+        Preamble known = endpoint.getPreamble();
+        preamble = PreambleCache.refresh(this, known, ttl);
+        if (preamble != null) {
+            if (preamble != known)
+                endpoint.setPreamble(preamble);
+            if (name == null)
+                name = preamble.getName();
+            if (deletionMode == null && preamble.getDeletedRecord() != null) {
+                try {
+                    deletionMode = DeletionMode.valueOf(preamble.getDeletedRecord().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    logger.warn("unknown deletion mode[" + preamble.getDeletedRecord() + "]");
+                    deletionMode = DeletionMode.NO;
+                }
             }
         }
+        init();
+    }
+
+    /**
+     * Get the facts obtained by the Identify and ListMetadataFormats verbs.
+     *
+     * @return the preamble, or null if it was not obtained
+     */
+    public Preamble getPreamble() {
+        return preamble;
+    }
+
+    public void close() {
+        for (Path spool : new ArrayList<>(spools)) {
+            deleteSpool(spool);
+        }
+    }
+
+    /**
+     * <br> Create a file to spool a single response to <br><br>
+     *
+     * Every request gets a file of its own, so that a response can be
+     * received while the previous one is still being processed. The file
+     * remains until it is deleted explicitly, or until the provider is
+     * closed.
+     *
+     * @return the file, or null if none could be created, in that case the
+     *         response should be kept in memory
+     */
+    public Path createSpool() {
+        try {
+            Path spool = Files.createTempFile("oai-", null);
+            spools.add(spool);
+            return spool;
+        } catch (IOException e) {
+            logger.warn("could not create spool file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * <br> Delete a file created by the createSpool method
+     *
+     * @param spool the file, null is ignored
+     */
+    public void deleteSpool(Path spool) {
+        if (spool == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spool);
+            spools.remove(spool);
+        } catch (IOException e) {
+            // still open somewhere, try again when the provider is closed
+            logger.debug("could not delete spool[" + spool + "]: " + e.getMessage());
+        }
     }
 
     /**
@@ -227,8 +327,7 @@ public class Provider {
      */
     public String getProviderName() {
 		try {
-			Identify ident = new Identify(oaiUrl, timeout);
-			return parseProviderName(ident.getDocument());
+			return parseProviderName(getIdentifyResponse());
 		} catch (IOException | ParserConfigurationException | SAXException
 				| TransformerException e) {
 			logger.error(e.getMessage(), e);
@@ -238,8 +337,7 @@ public class Provider {
 
 	public DeletionMode getProviderDeletionMode() {
 		try {
-			Identify ident = new Identify(oaiUrl, timeout);
-			return parseDeletionMode(ident.getDocument());
+			return parseDeletionMode(getIdentifyResponse());
 		} catch (IOException | ParserConfigurationException | SAXException
 				| TransformerException e) {
 			logger.error(e.getMessage(), e);
@@ -247,6 +345,21 @@ public class Provider {
 		return null;
 	}
 
+    /**
+     * Get the Identify response of the provider. The name and the deletion
+     * mode both come from this response, so it is requested only once.
+     *
+     * @return the response
+     */
+    private synchronized Document getIdentifyResponse() throws IOException,
+            ParserConfigurationException, SAXException, TransformerException {
+        if (identifyResponse == null) {
+            Identify ident = new Identify(oaiUrl, timeout);
+            identifyResponse = ident.getDocument();
+        }
+        return identifyResponse;
+    }
+
     /**
      * Parse provider's name from an Identify response.
      *
@@ -315,9 +428,33 @@ public class Provider {
         return this.retryDelays;
     }
 
+    /**
+     * Get the delay before a retry. Beyond the delays configured, the last
+     * delay doubles with every retry, up to an hour.
+     *
+     * @param retry the number of the retry, starting at zero
+     * @return the delay in milliseconds
+     */
     public int getRetryDelay(int retry) {
-        retry = (this.retryDelays.length<=retry?this.retryDelays.length-1:retry);
-        return this.retryDelays[retry];
+        int last = this.retryDelays.length - 1;
+        if (retry <= last)
+            return this.retryDelays[retry];
+        long delay = this.retryDelays[last];
+        for (int i = last; i < retry && delay < MAX_RETRY_DELAY; i++)
+            delay *= 2;
+        return (int) Math.min(delay, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Wait before a retry. While waiting, the worker harvesting this provider
+     * gives its slot to other providers.
+     *
+     * @param retry the number of the retry, starting at zero
+     */
+    public void awaitRetry(int retry) {
+        int retryDelay = getRetryDelay(retry);
+        if (retryDelay > 0)
+            RetryScheduler.retry(retryDelay);
     }
 
     public void setExclusive(boolean exclusive) {
@@ -328,6 +465,54 @@ public class Provider {
         return this.exclusive;
     }
 
+    public void setMaxHostJobs(int maxHostJobs) {
+        this.maxHostJobs = maxHostJobs;
+    }
+
+    public int getMaxHostJobs() {
+        return this.maxHostJobs;
+    }
+
+    public void setMaxEndpointJobs(int maxEndpointJobs) {
+        this.maxEndpointJobs = maxEndpointJobs;
+    }
+
+    public int getMaxEndpointJobs() {
+        return this.maxEndpointJobs;
+    }
+
+    public void setMaxSetJobs(int maxSetJobs) {
+        this.maxSetJobs = maxSetJobs;
+    }
+
+    public int getMaxSetJobs() {
+        return this.maxSetJobs;
+    }
+
+    public void setMaxWindowJobs(int maxWindowJobs) {
+        this.maxWindowJobs = maxWindowJobs;
+    }
+
+    public int getMaxWindowJobs() {
+        return this.maxWindowJobs;
+    }
+
+    public void setMaxRecordJobs(int maxRecordJobs) {
+        this.maxRecordJobs = maxRecordJobs;
+    }
+
+    public int getMaxRecordJobs() {
+        return this.maxRecordJobs;
+    }
+
+    public void setKeepRecordOrder(boolean keepRecordOrder) {
+        this.keepRecordOrder = keepRecordOrder;
+    }
+
+    public boolean isKeepRecordOrder() {
+        return this.keepRecordOrder;
+    }
+
     /**
      * Attempt to perform the specified sequence of actions on metadata from
      * this provider (which, of course, is only possible if this provider
@@ -397,14 +582,7 @@ public class Provider {
 		logger.error(e);
 	    }
             // retry the request once more
-            int retryDelay = getRetryDelay(i);
-            if (retryDelay > 0) {
-                try {
-                    Thread.sleep(retryDelay);
-                } catch(InterruptedException e) {
-                    logger.error(e.getMessage(), e);
-                }
-            }                
+            awaitRetry(i);
 	}
 	return null;
     }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.metadata.Metadata;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <br> Apply action sequences on threads of their own <br><br>
+ *
+ * Without a pipeline, the worker that downloads a page also applies the
+ * actions to it, so that the network is idle while the records are being
+ * transformed, and the processor is idle while the next page is being
+ * downloaded. With a pipeline, the worker hands the records over to a pool
+ * of action threads, shared by all workers, and continues harvesting.
+ * <br><br>
+ *
+ * The number of records handed over but not yet processed is bounded. A
+ * worker handing over a record while the pipeline is full, waits until a
+ * record has been processed. In this way, the harvest cannot run ahead of
+ * the actions indefinitely. <br><br>
+ *
+ * A worker hands over records through a feed. A feed either applies the
+ * actions in the order in which the records were handed over, or as soon as
+ * an action thread is available. In both cases, the tasks to be run after a
+ * record has been processed, like journaling the progress of harvesting,
+ * run in the order in which the records were handed over.
+ *
+ * Note: the pipeline is optional. If none was set up, the workers apply the
+ * actions themselves.
+ */
+public final class ActionPipeline {
+
+    private static final Logger logger = LogManager.getLogger(ActionPipeline.class);
+
+    // the pipeline shared by all workers, null if there is none
+    private static volatile ActionPipeline shared = null;
+
+    // the action threads
+    private final ExecutorService pool;
+
+    // the records handed over but not yet processed
+    private final Semaphore capacity;
+
+    private ActionPipeline(int threads, int capacity) {
+        final AtomicInteger count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "action-" + count.incrementAndGet());
+                // the workers wait for their records, not the JVM
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.capacity = new Semaphore(capacity, true);
+    }
+
+    /**
+     * <br> Set up the pipeline shared by the workers, replacing the one set
+     * up before
+     *
+     * @param threads the number of action threads, zero or less for no
+     *                pipeline
+     * @param capacity the maximum number of records handed over but not yet
+     *                 processed, zero or less for twice the number of threads
+     */
+    public static synchronized void setup(int threads, int capacity) {
+        if (shared != null) {
+            shared.pool.shutdown();
+        }
+        if (threads <= 0) {
+            shared = null;
+        } else {
+            shared = new ActionPipeline(threads, capacity > 0 ? capacity : 2 * threads);
+            logger.info("applying actions on " + threads + " threads, with up to "
+                    + shared.capacity.availablePermits() + " records waiting");
+        }
+    }
+
+    /**
+     * @return the pipeline shared by the workers, null if there is none
+     */
+    public static ActionPipeline getShared() {
+        return shared;
+    }
+
+    /**
+     * <br> Open a feed for handing over records
+     *
+     * Note: the records are processed with the logging context of the
+     * current thread.
+     *
+     * @param ordered true if the actions should be applied in the order in
+     *                which the records are handed over
+     * @return the feed
+     */
+    public Feed open(boolean ordered) {
+        return new Feed(ordered, ThreadContext.getImmutableContext());
+    }
+
+    /**
+     * <br> Records handed over by a single worker
+     */
+    public final class Feed {
+
+        private final boolean ordered;
+
+        private final Map<String, String> context;
+
+        // the record handed over last, true if it was processed successfully
+        private CompletableFuture<Boolean> last = CompletableFuture.completedFuture(true);
+
+        // the tasks run after the records, true if all of them succeeded
+        private CompletableFuture<Boolean> after = CompletableFuture.completedFuture(true);
+
+        // the first failure in applying the actions
+        private volatile Throwable failure = null;
+
+        private Feed(boolean ordered, Map<String, String> context) {
+            this.ordered = ordered;
+            this.context = context;
+        }
+
+        /**
+         * <br> Hand over a record <br><br>
+         *
+         * The method blocks while the pipeline is full. If applying the
+         * actions to a record handed over before failed, the method throws
+         * the failure, so that the worker stops harvesting. If the worker is
+         * interrupted while waiting, the record is not handed over, and the
+         * interrupt status of the thread is kept.
+         *
+         * @param sequence the actions to apply
+         * @param record the record
+         * @param task to be run after the record has been processed, or null
+         * @return true if the record was handed over, false if the worker
+         *         was interrupted and should stop handing over records
+         */
+        public synchronized boolean submit(final ActionSequence sequence,
+                                           final Metadata record, final Runnable task) {
+            rethrow();
+            try {
+                capacity.acquire();
+            } catch (InterruptedException e) {
+                logger.error(e.getMessage(), e);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            CompletableFuture<Boolean> done;
+            if (ordered) {
+                done = last.thenApplyAsync(ok -> apply(sequence, record), pool);
+            } else {
+                done = CompletableFuture.supplyAsync(() -> apply(sequence, record), pool);
+            }
+            last = done;
+
+            // the task runs only if this record, and all records before it, succeeded
+            after = after.thenCombine(done, (before, ok) -> {
+                if (before && ok && task != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        fail(e);
+                        return false;
+                    }
+                }
+                return before && ok;
+            });
+            return true;
+        }
+
+        /**
+         * <br> Wait until all records handed over have been processed
+         *
+         * If applying the actions failed, the method throws the first
+         * failure.
+         */
+        public void await() {
+            CompletableFuture<Boolean> tail;
+            synchronized (this) {
+                tail = after;
+            }
+            tail.join();
+            rethrow();
+        }
+
+        private boolean apply(ActionSequence sequence, Metadata record) {
+            for (Map.Entry<String, String> entry : context.entrySet()) {
+                ThreadContext.put(entry.getKey(), entry.getValue());
+            }
+            try {
+                sequence.runActions(record);
+                return true;
+            } catch (Throwable e) {
+                fail(e);
+                return false;
+            } finally {
+                ThreadContext.clearAll();
+                capacity.release();
+            }
+        }
+
+        private void fail(Throwable e) {
+            logger.error(e.getMessage(), e);
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        private void rethrow() {
+            Throwable e = failure;
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class represents a sequence (or pipeline) of actions on metadata,
@@ -45,6 +46,12 @@ public class ActionSequence {
     private static final Map<Action, ResourcePool<Action>> pooledActions =
 			new HashMap<>();
 
+    /**
+     * The time to wait for an action to become available in seconds, 0 for
+     * as long as it takes.
+     */
+    private static volatile int acquireTimeout = 0;
+
     /**
      * The input format that must be available for this sequence
      * to be applicable.
@@ -54,6 +61,9 @@ public class ActionSequence {
     /* The actions, in order. */
     private final List<ResourcePool<Action>> actions;
 
+    /* The actions as configured, for display. */
+    private final Action[] configured;
+
     /**
      * Create a new action sequence.
      * 
@@ -67,8 +77,10 @@ public class ActionSequence {
 	this.inputFormat = inputFormat;
 
 	actions = new ArrayList<>();
+	configured = theActions.clone();
 
-	for (Action act : theActions) {
+	// runs of transformations are applied in a single pass
+	for (Action act : TransformChain.fuse(theActions)) {
 	    actions.add(getPool(act, resourcePoolSize));
 	}
     }
@@ -90,6 +102,40 @@ public class ActionSequence {
 	return pooledActions.get(action);
     }
 
+    /**
+     * Set the time to wait for an action to become available. A record
+     * waiting longer is not processed by the sequence.
+     *
+     * @param seconds the timeout, 0 to wait as long as it takes
+     */
+    public static void setAcquireTimeout(int seconds) {
+	acquireTimeout = Math.max(0, seconds);
+    }
+
+    /**
+     * Log how the pools of actions were used. If records often had to wait
+     * for an action, the pool is too small.
+     */
+    public static synchronized void logPoolStatistics() {
+	for (Map.Entry<Action, ResourcePool<Action>> entry : pooledActions.entrySet()) {
+	    ResourcePool<Action> pool = entry.getValue();
+	    if (pool.getUses() == 0) {
+		continue;
+	    }
+	    long waits = pool.getWaits();
+	    logger.info("Action " + entry.getKey() + ": pool of " + pool.getSize()
+		    + " used " + pool.getUses() + " times, waited " + waits
+		    + " times for " + pool.getWaitTime() + " ms in total, "
+		    + pool.getMaxWait() + " ms at most, " + pool.getTimeouts()
+		    + " timed out");
+	    if (waits * 10 > pool.getUses()) {
+		logger.warn("Action " + entry.getKey() + " was not available for "
+			+ waits + " of " + pool.getUses()
+			+ " records, consider a larger resource-pool-size");
+	    }
+	}
+    }
+
     /**
      * Get the input format used in this sequence <br><br>
      *
@@ -128,18 +174,27 @@ public class ActionSequence {
 
         for (ResourcePool<Action> actPool : actions) {
                 // claim an action in the pool
-                Action action = actPool.get();
-
-                boolean done = action.perform(metadata);
-                actPool.release(action);
+                int timeout = acquireTimeout;
+                Action action = timeout > 0
+                        ? actPool.get(timeout, TimeUnit.SECONDS) : actPool.get();
+                if (action == null) {
+                        logger.error("No action available within " + timeout
+                                        + " s, terminating sequence");
+                        return;
+                }
+
+                boolean done;
+                try {
+                        done = action.perform(metadata);
+                } finally {
+                        actPool.release(action);
+                }
                 if (!done) {
                         logger.error("Action " + action + " failed, terminating" +
                                         " sequence");
                         return;
                 } else
                         logger.debug("Action " + action + " was performed");
-                            
-                actPool.release(action);
                 
                 if (firstAction)
                     firstAction = false;
@@ -151,12 +206,8 @@ public class ActionSequence {
 	StringBuilder sb = new StringBuilder("read input (");
 	sb.append(inputFormat);
 	sb.append(")");
-	if (actions != null) {
-	    for (ResourcePool<Action> actPool : actions) {
-		Action act = actPool.get();
-		sb.append(" --> ").append(act);
-		actPool.release(act);
-	    }
+	for (Action act : configured) {
+	    sb.append(" --> ").append(act);
 	}
 	return sb.toString();
     }
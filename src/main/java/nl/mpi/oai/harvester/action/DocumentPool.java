@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.DocumentInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.xml.transform.TransformerException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <br> Keep the documents stylesheets look up in memory <br><br>
+ *
+ * Stylesheets look things up in documents like language code tables, for
+ * every record again. The documents are cached on disk, but parsing them
+ * for every record still takes time. This pool keeps the parsed documents,
+ * so that every document is parsed once, and shared by all stylesheets and
+ * threads; parsed documents are never changed. <br><br>
+ *
+ * The pool holds a limited number of documents, and drops the one used
+ * least recently when it is full. It counts, for every document, how often
+ * it was found in the pool, and how often it had to be parsed. Beyond a
+ * limited number of documents, the counts are only kept in total, and at
+ * the end of a cycle, only the documents parsed most often are logged.
+ * <br><br>
+ *
+ * Note: Saxon only lets a stylesheet use a document parsed by its own
+ * configuration. Stylesheets caching resources in the same directory share
+ * a configuration, see {@link StylesheetRegistry}, so the pool keeps a
+ * document for every cache directory it is looked up from.
+ */
+public final class DocumentPool {
+
+    private static final Logger logger = LogManager.getLogger(DocumentPool.class);
+
+    /** The number of documents the pool holds by default. */
+    static final int DEFAULT_CAPACITY = 64;
+
+    /** The number of documents counted one by one. */
+    static final int TRACKED = 1024;
+
+    /** The number of documents logged at the end of a cycle. */
+    static final int LOGGED = 10;
+
+    /**
+     * <br> Parse a document that is not in the pool
+     */
+    interface Loader {
+        DocumentInfo load() throws TransformerException;
+    }
+
+    /**
+     * <br> How often a document was found, and parsed
+     */
+    private static final class Usage {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+    }
+
+    /**
+     * <br> A document, as parsed for a configuration
+     */
+    private static final class Key {
+        final Configuration config;
+        final String uri;
+
+        Key(Configuration config, String uri) {
+            this.config = config;
+            this.uri = uri;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(config) + 29 * uri.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key k = (Key) o;
+                return config == k.config && uri.equals(k.uri);
+            }
+            return false;
+        }
+    }
+
+    // the documents, parsed or being parsed, least recently used first
+    private static final LinkedHashMap<Key, CompletableFuture<DocumentInfo>> documents =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // the usage of the documents asked for first, also when they were dropped
+    private static final Map<String, Usage> usage = new HashMap<>();
+
+    // the usage of the documents asked for after those
+    private static final Usage others = new Usage();
+
+    private static int capacity = DEFAULT_CAPACITY;
+
+    private DocumentPool() {
+    }
+
+    /**
+     * <br> Set the number of documents the pool holds
+     *
+     * @param documents the number of documents, 0 to keep none
+     */
+    public static synchronized void setCapacity(int documents) {
+        capacity = Math.max(0, documents);
+        evict();
+    }
+
+    /**
+     * <br> Get a document, parsing it if it is not in the pool <br><br>
+     *
+     * When several threads ask for the same document at the same time, one
+     * of them parses it and the others wait for the result.
+     *
+     * @param config the configuration the document is parsed by
+     * @param uri the absolute URI of the document
+     * @param loader parses the document
+     * @return the parsed document
+     * @throws TransformerException the document cannot be parsed
+     */
+    static DocumentInfo get(Configuration config, String uri, Loader loader) throws TransformerException {
+        Key key = new Key(config, uri);
+        CompletableFuture<DocumentInfo> entry;
+        CompletableFuture<DocumentInfo> mine = null;
+        synchronized (DocumentPool.class) {
+            Usage use = usage.get(uri);
+            if (use == null) {
+                if (usage.size() < TRACKED) {
+                    use = new Usage();
+                    usage.put(uri, use);
+                } else {
+                    use = others;
+                }
+            }
+            entry = documents.get(key);
+            if (entry == null) {
+                use.misses.incrementAndGet();
+                mine = new CompletableFuture<>();
+                entry = mine;
+                if (capacity > 0) {
+                    documents.put(key, mine);
+                    evict();
+                }
+            } else {
+                use.hits.incrementAndGet();
+            }
+        }
+
+        if (mine != null) {
+            // this thread parses the document
+            try {
+                mine.complete(loader.load());
+                logger.debug("parsed " + uri + " into the document pool");
+            } catch (TransformerException | RuntimeException e) {
+                // let a next attempt try again
+                synchronized (DocumentPool.class) {
+                    documents.remove(key, mine);
+                }
+                mine.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return entry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TransformerException) {
+                throw (TransformerException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * <br> Drop the least recently used documents the pool has no room for
+     */
+    private static void evict() {
+        Iterator<Map.Entry<Key, CompletableFuture<DocumentInfo>>> i =
+                documents.entrySet().iterator();
+        while (documents.size() > capacity && i.hasNext()) {
+            String uri = i.next().getKey().uri;
+            i.remove();
+            logger.debug("dropped " + uri + " from the document pool");
+        }
+    }
+
+    /**
+     * @param uri the absolute URI of a document
+     * @return the number of times the document was found in the pool
+     */
+    static synchronized long getHits(String uri) {
+        Usage use = usage.get(uri);
+        return use == null ? 0 : use.hits.get();
+    }
+
+    /**
+     * @param uri the absolute URI of a document
+     * @return the number of times the document had to be parsed, for
+     *         every configuration
+     */
+    static synchronized long getMisses(String uri) {
+        Usage use = usage.get(uri);
+        return use == null ? 0 : use.misses.get();
+    }
+
+    /**
+     * <br> Log how often the documents were found in the pool, and parsed,
+     * in total and for the documents parsed most often
+     */
+    public static synchronized void logStatistics() {
+        if (usage.isEmpty()) {
+            return;
+        }
+        long hits = others.hits.get();
+        long misses = others.misses.get();
+        boolean reparsed = false;
+        List<Map.Entry<String, Usage>> entries = new ArrayList<>(usage.entrySet());
+        for (Map.Entry<String, Usage> entry : entries) {
+            hits += entry.getValue().hits.get();
+            misses += entry.getValue().misses.get();
+            reparsed |= entry.getValue().misses.get() > 1;
+        }
+        logger.info("Document pool: documents found " + hits + " times, parsed "
+                + misses + " times" + (others.misses.get() > 0
+                ? ", of which " + others.misses.get() + " times beyond the first "
+                + TRACKED + " documents" : ""));
+
+        // the documents parsed most often first
+        entries.sort((a, b) -> {
+            int c = Long.compare(b.getValue().misses.get(), a.getValue().misses.get());
+            return c != 0 ? c : Long.compare(b.getValue().hits.get(), a.getValue().hits.get());
+        });
+        for (Map.Entry<String, Usage> entry : entries.subList(0, Math.min(LOGGED, entries.size()))) {
+            Usage use = entry.getValue();
+            logger.info("Document " + entry.getKey() + ": found " + use.hits.get()
+                    + " times, parsed " + use.misses.get() + " times");
+        }
+        if (reparsed && documents.size() >= capacity) {
+            logger.warn("Documents were parsed more than once, the document pool of "
+                    + capacity + " is too small, consider a larger document-pool");
+        }
+    }
+}
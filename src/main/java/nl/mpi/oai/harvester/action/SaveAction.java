@@ -86,10 +86,7 @@ public class SaveAction implements Action {
             XMLEventWriter writer = null;
             try {
                 Path path = chooseLocation(record);
-                if(history){
-                    FileSynchronization.saveToHistoryFile(record.getOrigin(), path, FileSynchronization.Operation.INSERT);
-                    FileSynchronization.getProviderStatistic(record.getOrigin()).incRecordCount();
-                }
+                account(record, path);
                 os = Files.newOutputStream(path);
                 if (record.hasDoc()) {
                     TransformerFactory transformerFactory = TransformerFactory.newInstance();
@@ -113,10 +110,7 @@ public class SaveAction implements Action {
 
                     writer.add(reader);
                     writer.close();
-                    if (offload) {
-                        record.setStream(new MarkableFileInputStream(new FileInputStream(path.toFile())));
-                        logger.debug("offloaded XML stream[" + path + "]");
-                    }
+                    offload(record, path);
 
                     logger.debug("saved XML stream[" + path + "]");
                 }
@@ -139,6 +133,35 @@ public class SaveAction implements Action {
         return true;
     }
 
+    /**
+     * Account for a record saved, in the history of the provider if asked
+     * for.
+     *
+     * @param metadata metadata record
+     * @param path the file the record is saved in
+     */
+    void account(Metadata metadata, Path path) {
+        if (history) {
+            FileSynchronization.saveToHistoryFile(metadata.getOrigin(), path, FileSynchronization.Operation.INSERT);
+            FileSynchronization.getProviderStatistic(metadata.getOrigin()).incRecordCount();
+        }
+    }
+
+    /**
+     * Let the record read its content from the file saved, if asked for, so
+     * that it does not have to be kept in memory.
+     *
+     * @param metadata metadata record
+     * @param path the file the record was saved in
+     * @throws IOException the file cannot be opened
+     */
+    void offload(Metadata metadata, Path path) throws IOException {
+        if (offload) {
+            metadata.setStream(new MarkableFileInputStream(new FileInputStream(path.toFile())));
+            logger.debug("offloaded XML stream[" + path + "]");
+        }
+    }
+
     /**
      * Simply choose location to save in.
      *
@@ -20,31 +20,20 @@ package nl.mpi.oai.harvester.action;
 
 import nl.mpi.oai.harvester.control.FileSynchronization;
 import nl.mpi.oai.harvester.control.Util;
+import nl.mpi.oai.harvester.harvesting.RecordStream;
 import nl.mpi.oai.harvester.metadata.Metadata;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.codehaus.stax2.XMLInputFactory2;
-import org.codehaus.stax2.evt.XMLEvent2;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
-import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLEventWriter;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.XMLEvent;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -59,14 +48,7 @@ public class SplitAction implements Action {
 
     private final Logger logger = LogManager.getLogger(SplitAction.class);
 
-    private final XPath xpath;
-    private final DocumentBuilder db;
-
     public SplitAction() throws ParserConfigurationException {
-	XPathFactory xpf = XPathFactory.newInstance();
-	xpath = xpf.newXPath();	
-	DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-	db = dbf.newDocumentBuilder();
     }
 
     @Override
@@ -76,207 +58,42 @@ public class SplitAction implements Action {
         while (!records.isEmpty()) {
             Metadata record = records.remove(0);
 
-            if (record.hasDoc()) {
-
-                // Get the child nodes of the "metadata" tag;
-                // that's the content of the response without the
-                // OAI-PMH envelope.
-
-                NodeList content = null;
-                try {
-                    content = (NodeList) xpath.evaluate("//*[local-name()='record']",
-                            record.getDoc(), XPathConstants.NODESET);
-                } catch (XPathExpressionException ex) {
-                    logger.error(ex);
-                }
-
-                if ((content != null) && (content.getLength()>0)) {
-                    for (int i=0;i<content.getLength();i++) {
-                        Document doc = db.newDocument();
-                        Node copy = doc.importNode(content.item(i), true);
-                        doc.appendChild(copy);
-                        String id = "";
-                        try {
-                            String status = (String) xpath.evaluate(
-                                "./*[local-name()='header']/@status",
-                                content.item(i),XPathConstants.STRING);
-                            id = (String) xpath.evaluate(
-                                "./*[local-name()='header']/*[local-name()='identifier']",
-                                content.item(i),XPathConstants.STRING);
-                            if (!status.equals("deleted")) {
-                                logger.debug("split off XML doc["+i+"]["+id+"] with ["+xpath.evaluate("count(//*)", doc)+"] nodes");
-                                newRecords.add( new Metadata(
-                                        id, record.getPrefix(),
-                                        doc, record.getOrigin(), false, false));
-
-                            } else {
-                                logger.warn("record[" + id + "] is marked as deleted");
-                                FileSynchronization.saveFilesToRemove(Util.toFileFormat(id) + ".xml", record.getOrigin());
-                            }
-                        } catch (XPathExpressionException ex) {
-                            logger.error(ex);
-                        }
-                    }
-                } else
-                    logger.warn("No content was found in this envelope["+record.getId()+"]");
-            } else {
-                XMLEventReader reader = null;
-                XMLEventWriter writer = null;
-                try {
-                    XMLInputFactory2 xmlInputFactory = (XMLInputFactory2) XMLInputFactory2.newInstance();
-                    xmlInputFactory.configureForConvenience();
-                    XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
-                    xmlOutputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
-                    
-                    ByteArrayOutputStream baos = null;
-                    int i = 0;
-                    
-                    reader = xmlInputFactory.createXMLEventReader(record.getStream());
-                    writer = null;
-                    
-                    if (reader.hasNext()) {
-                        XMLEvent event = reader.nextEvent();
-
-                        State state = State.START; // 1:START 2:RECORD 3:HEADER 4:ID 0:STOP -1:ERROR
-                        int depth = 0;
-                        String status = null;
-                        String id = null;
-                        while (!state.equals(state.STOP) && !state.equals(state.ERROR)) {
-                            //logger.debug("BEGIN loop: state["+state+"] event["+event+"]["+event.getEventType()+"]");
-                            int eventType = event.getEventType();
-                            switch (state) {
-                                case START:
-                                    //logger.debug("state[START]");
-                                    switch (eventType) {
-                                        case XMLEvent2.START_ELEMENT:
-                                            QName qn = event.asStartElement().getName();
-                                            if (qn.getLocalPart().equals("record")) {
-                                                state = State.RECORD;
-                                                i++;
-                                                baos = new ByteArrayOutputStream();
-                                                writer = xmlOutputFactory.createXMLEventWriter(baos);
-                                                writer.add(event);
-                                                status = null;
-                                                id = null;
-                                                depth = 1;
-                                            }
-                                            break;
-                                    }
-                                    break;
-                                case RECORD://RECORD
-                                    //logger.debug("state[RECORD] depth["+depth+"]");
-                                    switch (eventType) {
-                                        case XMLEvent2.START_ELEMENT:
-                                            depth++;
-                                            //logger.debug("start["+event.asStartElement().getName()+"] depth["+depth+"]");
-                                            if (depth==2 && event.asStartElement().getName().getLocalPart().equals("header")) { //record/header
-                                                Attribute attr = event.asStartElement().getAttributeByName(new QName("status"));
-                                                if (attr!=null) {
-                                                    status = attr.getValue();//record/header/@status
-                                                    //logger.debug("status["+status+"]");
-                                                }
-                                                state = State.HEADER;
-                                            }
-                                            break;
-                                        case XMLEvent2.END_ELEMENT:
-                                            //logger.debug("end["+event.asEndElement().getName()+"] depth["+depth+"]");
-                                            if (depth==1) { 
-                                                if (event.asEndElement().getName().getLocalPart().equals("record")) {
-                                                    state = State.START;
-                                                } else {
-                                                    logger.error("record XML element out of sync! Expected record got ["+event.asEndElement().getName()+"]");
-                                                    state = State.ERROR;
-                                                }
-                                            }
-                                            depth--;
-                                            break;
-                                    }
-                                    writer.add(event);
-                                    if (state==State.START) {
-                                        writer.close();
-                                        if (status == null || !status.equals("deleted")) {
-                                            logger.debug("split off XML stream["+i+"]["+id+"] with ["+baos.size()+"] bytes");
-                                            newRecords.add(new Metadata(
-                                                id, record.getPrefix(),
-                                                new ByteArrayInputStream(baos.toByteArray()),
-                                                record.getOrigin(),
-                                                false, false)
-                                            );
-                                        }
-                                        if("deleted".equals(status)){
-                                            FileSynchronization.saveFilesToRemove(Util.toFileFormat(id) + ".xml", record.getOrigin());
-                                        }
-
-                                        writer = null;
-                                        baos = null;
-                                        status = null;
-                                        id = null;
-                                    }
-                                    break;
-                                case HEADER:
-                                    //logger.debug("state[HEADER] depth["+depth+"]");
-                                    switch (eventType) {
-                                        case XMLEvent2.START_ELEMENT:
-                                            depth++;
-                                            //logger.debug("start["+event.asStartElement().getName()+"] depth["+depth+"]");
-                                            if (event.asStartElement().getName().getLocalPart().equals("identifier")) {//record/header/identifier
-                                                state = State.ID;
-                                            }
-                                            break;
-                                        case XMLEvent2.END_ELEMENT:
-                                            //logger.debug("end["+event.asEndElement().getName()+"] depth["+depth+"]");
-                                            if (depth==2) { 
-                                                if (event.asEndElement().getName().getLocalPart().equals("header")) {
-                                                    state = State.RECORD;
-                                                } else {
-                                                    logger.error("header XML element out of sync! Expected header got ["+event.asEndElement().getName()+"]");
-                                                    state = State.ERROR;
-                                                }
-                                            }
-                                            depth--;
-                                            break;
-                                    }
-                                    writer.add(event);
-                                    break;
-                                case ID:
-                                    //logger.debug("state[ID] depth["+depth+"]");
-                                    switch (eventType) {
-                                        case XMLEvent2.CHARACTERS:
-                                            id = event.asCharacters().getData();//record/header/identifier/text()
-                                            //logger.debug("id["+id+"]");
-                                            state = State.HEADER;
-                                            break;
-                                        default:
-                                            state = State.ERROR;
-                                            logger.error("identifier XML element out of sync!");
-                                            break;
-                                    }
-                                    writer.add(event);
-                                    break;
-                            }
-                            if (reader.hasNext())
-                                event = reader.nextEvent();
-                            else
-                                state = state == State.START? State.STOP: State.ERROR;// if START then STOP else ERROR
-                            //logger.debug("END loop: state["+state+"] event["+event+"]["+event.getEventType()+"]");
-                        }
-                        if (state.equals(State.ERROR))
-                            logger.error("the XML was not properly processed!");
-                    }
-                    if (i==0) {
-                        logger.error("No content was found in this envelope["+record.getId()+"]");
-                    }                                       
-                } catch (XMLStreamException ex) {
-                    logger.error("",ex);
-                } finally {
-                    try {
-                        if (reader != null)
-                            reader.close();
-                        if (writer != null)
-                            writer.close();
-                    } catch (XMLStreamException ex) {
+            /* Read the envelope once, and copy every record in it as it
+               passes. A tree is written out first, so that it is split in
+               the same way.
+             */
+            InputStream in = record.hasStream() ? record.getStream() : serialize(record);
+            if (in == null) {
+                continue;
+            }
+            RecordStream stream = null;
+            int i = 0;
+            try {
+                stream = new RecordStream(in);
+                for (RecordStream.Record split = stream.next(); split != null; split = stream.next()) {
+                    i++;
+                    String id = split.getIdentifier();
+                    if (split.isDeleted()) {
+                        logger.warn("record[" + id + "] is marked as deleted");
+                        FileSynchronization.saveFilesToRemove(Util.toFileFormat(id) + ".xml", record.getOrigin());
+                    } else {
+                        byte[] content = split.getContent();
+                        logger.debug("split off XML stream[" + i + "][" + id + "] with [" + content.length + "] bytes");
+                        newRecords.add(new Metadata(
+                                id, record.getPrefix(),
+                                new ByteArrayInputStream(content),
+                                record.getOrigin(), false, false));
                     }
                 }
+            } catch (XMLStreamException ex) {
+                logger.error("the XML was not properly processed!", ex);
+            } finally {
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+            if (i == 0) {
+                logger.warn("No content was found in this envelope[" + record.getId() + "]");
             }
         }
         records.clear();
@@ -284,6 +101,24 @@ public class SplitAction implements Action {
         return true;
     }
 
+    /**
+     * Write the tree of a record, so that it can be read as a stream.
+     *
+     * @param record the record
+     * @return the tree as a stream, or null if it cannot be written
+     */
+    private InputStream serialize(Metadata record) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TransformerFactory.newInstance().newTransformer()
+                    .transform(new DOMSource(record.getDoc()), new StreamResult(out));
+            return new ByteArrayInputStream(out.toByteArray());
+        } catch (TransformerException ex) {
+            logger.error("cannot split envelope[" + record.getId() + "]", ex);
+            return null;
+        }
+    }
+
     @Override
     public String toString() {
 	return "split";
@@ -302,8 +137,7 @@ public class SplitAction implements Action {
     @Override
     public Action clone() {
 	try {
-	    // All split actions are the same. This is effectively a "deep"
-	    // copy since it has its own XPath object.
+	    // All split actions are the same, and have no state of their own.
 	    return new SplitAction();
 	} catch (ParserConfigurationException ex) {
 	    logger.error(ex);
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.TransformerFactoryImpl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <br> Compile every stylesheet once <br><br>
+ *
+ * Compiling a stylesheet takes far longer than applying it to a record.
+ * Every transform action in the resource pool, and every action sequence
+ * referring to the same stylesheet, shares the compiled stylesheet kept
+ * here. A compiled stylesheet is thread safe; a transformer is created from
+ * it for every record. <br><br>
+ *
+ * Stylesheets are told apart by their location, the time they were last
+ * modified and the directory resources they request are cached in, so that
+ * a stylesheet changed on disk is compiled again. When several threads ask
+ * for the same stylesheet at the same time, one of them compiles it and the
+ * others wait for the result. Stylesheets caching resources in the same
+ * directory are compiled by the same factory, so that they can share the
+ * documents they look up, see {@link DocumentPool}. <br><br>
+ *
+ * The configuration compiles all stylesheets it refers to in parallel,
+ * before it creates the actions.
+ */
+public final class StylesheetRegistry {
+
+    private static final Logger logger = LogManager.getLogger(StylesheetRegistry.class);
+
+    /**
+     * <br> A compiled stylesheet, and the factory it was compiled by
+     */
+    static final class Compiled {
+
+        final TransformerFactory factory;
+        final Templates templates;
+
+        Compiled(TransformerFactory factory, Templates templates) {
+            this.factory = factory;
+            this.templates = templates;
+        }
+    }
+
+    // the stylesheets compiled, or being compiled
+    private static final Map<String, CompletableFuture<Compiled>> registry =
+            new ConcurrentHashMap<>();
+
+    // the factories, by the directory their stylesheets cache resources in
+    private static final Map<String, TransformerFactory> factories =
+            new ConcurrentHashMap<>();
+
+    // the number of stylesheets compiled
+    private static final AtomicInteger compilations = new AtomicInteger();
+
+    private StylesheetRegistry() {
+    }
+
+    /**
+     * <br> Get a compiled stylesheet, compiling it if it was not before
+     *
+     * @param xsltFile the location of the stylesheet, a file or a URL
+     * @param cacheDir the directory to cache results of resource requests,
+     *                 or null
+     * @return the compiled stylesheet
+     * @throws FileNotFoundException stylesheet couldn't be found
+     * @throws TransformerConfigurationException there is a problem with the stylesheet
+     */
+    static Compiled get(String xsltFile, Path cacheDir)
+            throws FileNotFoundException, TransformerConfigurationException {
+
+        String key = key(xsltFile, cacheDir);
+        CompletableFuture<Compiled> entry = registry.get(key);
+        if (entry == null) {
+            CompletableFuture<Compiled> mine = new CompletableFuture<>();
+            entry = registry.putIfAbsent(key, mine);
+            if (entry == null) {
+                // this thread compiles the stylesheet
+                entry = mine;
+                try {
+                    mine.complete(compile(xsltFile, cacheDir));
+                } catch (FileNotFoundException | TransformerConfigurationException
+                        | RuntimeException e) {
+                    // let a next attempt try again
+                    registry.remove(key, mine);
+                    mine.completeExceptionally(e);
+                }
+            }
+        }
+
+        try {
+            return entry.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) {
+                throw (FileNotFoundException) cause;
+            }
+            if (cause instanceof TransformerConfigurationException) {
+                throw (TransformerConfigurationException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * <br> Compile stylesheets in parallel <br><br>
+     *
+     * A stylesheet that cannot be compiled is reported here, and again when
+     * an action asks for it.
+     *
+     * @param stylesheets the locations of the stylesheets, with the
+     *                    directory to cache resources in, or null
+     */
+    public static void compileAll(Collection<Map.Entry<String, Path>> stylesheets) {
+
+        if (stylesheets.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int threads = Math.min(stylesheets.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService compilers = Executors.newFixedThreadPool(threads);
+        try {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (final Map.Entry<String, Path> stylesheet : stylesheets) {
+                tasks.add(CompletableFuture.runAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            get(stylesheet.getKey(), stylesheet.getValue());
+                        } catch (FileNotFoundException | TransformerConfigurationException e) {
+                            logger.error("cannot compile " + stylesheet.getKey() + ": " + e.getMessage());
+                        }
+                    }
+                }, compilers));
+            }
+            for (CompletableFuture<Void> task : tasks) {
+                try {
+                    task.join();
+                } catch (CompletionException e) {
+                    logger.error(e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            compilers.shutdown();
+        }
+        logger.info("compiled " + stylesheets.size() + " stylesheets on " + threads
+                + " threads in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * @return the number of stylesheets compiled so far
+     */
+    public static int getCompilations() {
+        return compilations.get();
+    }
+
+    /**
+     * <br> Tell stylesheets apart
+     */
+    private static String key(String xsltFile, Path cacheDir) {
+        String location = xsltFile;
+        long modified = 0;
+        if (!isURL(xsltFile)) {
+            Path path = Paths.get(xsltFile).toAbsolutePath().normalize();
+            location = path.toString();
+            try {
+                modified = Files.getLastModifiedTime(path).toMillis();
+            } catch (IOException e) {
+                // compiling will tell what is wrong
+                modified = -1;
+            }
+        }
+        return location + "|" + modified + "|" + (cacheDir == null ? "" : cacheDir.toAbsolutePath());
+    }
+
+    private static boolean isURL(String xsltFile) {
+        return xsltFile.startsWith("http:") || xsltFile.startsWith("https:");
+    }
+
+    /**
+     * <br> Get the factory for stylesheets caching in a directory <br><br>
+     *
+     * Stylesheets sharing a factory share its configuration, and so the
+     * documents they look up. The factory is thread safe once set up.
+     */
+    private static TransformerFactory factory(final Path cacheDir) {
+        String key = (cacheDir == null) ? "" : cacheDir.toAbsolutePath().toString();
+        return factories.computeIfAbsent(key, k -> newFactory(cacheDir));
+    }
+
+    private static TransformerFactory newFactory(Path cacheDir) {
+        TransformerFactory factory = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null);
+        if (factory instanceof TransformerFactoryImpl) {
+            TransformerFactoryImpl transformerFactoryImpl = ((TransformerFactoryImpl) factory);
+            logger.debug("Telling Saxon to send messages as warnings to logger");
+            final Configuration tfConfig = transformerFactoryImpl.getConfiguration();
+            tfConfig.setMessageEmitterClass("net.sf.saxon.serialize.MessageWarner");
+            if (cacheDir != null) {
+                logger.debug("Setting the URLResolve to cache in " + cacheDir);
+                transformerFactoryImpl.setURIResolver(new TransformAction.TransformActionURLResolver(
+                        transformerFactoryImpl.getURIResolver(), factory, cacheDir));
+            }
+        }
+        factory.setErrorListener(new TransformAction.TransformActionErrorListener());
+        return factory;
+    }
+
+    /**
+     * <br> Compile a stylesheet
+     */
+    private static Compiled compile(String xsltFile, Path cacheDir)
+            throws FileNotFoundException, TransformerConfigurationException {
+
+        long start = System.currentTimeMillis();
+        TransformerFactory factory = factory(cacheDir);
+
+        Templates templates;
+        if (isURL(xsltFile)) {
+            templates = factory.newTemplates(new StreamSource(xsltFile));
+        } else {
+            try (InputStream in = new FileInputStream(xsltFile)) {
+                templates = factory.newTemplates(new StreamSource(in, xsltFile));
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                // closing the stylesheet failed, it was compiled nevertheless
+                throw new TransformerConfigurationException(e);
+            }
+        }
+
+        compilations.incrementAndGet();
+        logger.info("compiled " + xsltFile + " in " + (System.currentTimeMillis() - start) + " ms");
+        return new Compiled(factory, templates);
+    }
+}
@@ -18,8 +18,8 @@
 
 package nl.mpi.oai.harvester.action;
 
-import net.sf.saxon.Configuration;
 import net.sf.saxon.TransformerFactoryImpl;
+import net.sf.saxon.om.DocumentInfo;
 import nl.mpi.oai.harvester.metadata.Metadata;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -29,20 +29,28 @@ import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class represents the application of an XSL transformation to the
@@ -68,6 +76,14 @@ public class TransformAction implements Action {
     /** A standard semaphore is used to track the number of running transforms. */
     private Semaphore semaphore;
 
+    /** The number of the semaphore, unique among all semaphores, or -1. */
+    private long semaphoreNumber;
+
+    /** The numbers given to the semaphores so far, and the last one given. */
+    private static final Map<Semaphore, Long> semaphoreNumbers =
+            Collections.synchronizedMap(new WeakHashMap<Semaphore, Long>());
+    private static final AtomicLong lastSemaphoreNumber = new AtomicLong();
+
     /** 
      * Create a new transform action using the specified XSLT. 
      * 
@@ -94,24 +110,27 @@ public class TransformAction implements Action {
 	this.xsltFile = xsltFile;
         this.cacheDir = cacheDir;
         this.semaphore = semaphore;
-	factory = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null);
-        if(factory instanceof TransformerFactoryImpl) {
-            TransformerFactoryImpl transformerFactoryImpl = ((TransformerFactoryImpl)factory);
-            logger.debug("Telling Saxon to send messages as warnings to logger");
-            final Configuration tfConfig = transformerFactoryImpl.getConfiguration();
-            tfConfig.setMessageEmitterClass("net.sf.saxon.serialize.MessageWarner");
-            if (cacheDir != null) {
-                logger.debug("Setting the URLResolve to cache in "+cacheDir);
-                transformerFactoryImpl.setURIResolver(new TransformActionURLResolver(transformerFactoryImpl.getURIResolver()));
-            }
-        }
-        factory.setErrorListener(new TransformActionErrorListener());
-        Source xslSource = null;
-        if (xsltFile.startsWith("http:") || xsltFile.startsWith("https:"))
-            xslSource = new StreamSource(xsltFile);
-        else
-            xslSource = new StreamSource(new FileInputStream(xsltFile),xsltFile);
-	templates = factory.newTemplates(xslSource);
+        // actions sharing a semaphore share its number
+        this.semaphoreNumber = (semaphore == null) ? -1 : semaphoreNumbers.computeIfAbsent(
+                semaphore, k -> lastSemaphoreNumber.incrementAndGet());
+        // compiled once, and shared by all actions using the stylesheet
+        StylesheetRegistry.Compiled compiled = StylesheetRegistry.get(xsltFile, cacheDir);
+        factory = compiled.factory;
+        templates = compiled.templates;
+    }
+
+    /**
+     * Create a copy of a transform action, sharing its compiled stylesheet.
+     *
+     * @param action the action to copy
+     */
+    private TransformAction(TransformAction action) {
+        this.xsltFile = action.xsltFile;
+        this.cacheDir = action.cacheDir;
+        this.semaphore = action.semaphore;
+        this.semaphoreNumber = action.semaphoreNumber;
+        this.factory = action.factory;
+        this.templates = action.templates;
     }
 
     @Override
@@ -128,7 +147,7 @@ public class TransformAction implements Action {
                         } catch (InterruptedException e) { }
                     }
                 }
-                Transformer transformer = templates.newTransformer();
+                Transformer transformer = newTransformer(record);
                 Source source = null;
                 Result output = null;
                 if (record.hasStream()) {
@@ -138,8 +157,6 @@ public class TransformAction implements Action {
                     source = new DOMSource(record.getDoc());
                     output = new DOMResult();
                 }
-                transformer.setParameter("provider_name",record.getOrigin().getName());
-                transformer.setParameter("record_identifier",record.getId());
                 transformer.transform(source, output);
                 if (record.hasStream()) {                 
                     byte[] bytes = ((ByteArrayOutputStream)((StreamResult)output).getOutputStream()).toByteArray();
@@ -162,6 +179,55 @@ public class TransformAction implements Action {
         return true;
     }
 
+    /**
+     * Get a transformer for a record, with the parameters the stylesheet can
+     * refer to set.
+     *
+     * @param record the record to transform
+     * @return the transformer
+     * @throws TransformerConfigurationException the transformer cannot be created
+     */
+    Transformer newTransformer(Metadata record) throws TransformerConfigurationException {
+        Transformer transformer = templates.newTransformer();
+        setParameters(transformer, record);
+        return transformer;
+    }
+
+    /**
+     * Get a handler transforming a record that is passed to it as SAX
+     * events, with the parameters the stylesheet can refer to set.
+     *
+     * @param record the record to transform
+     * @return the handler, its result still has to be set
+     * @throws TransformerConfigurationException the handler cannot be created
+     */
+    TransformerHandler newTransformerHandler(Metadata record) throws TransformerConfigurationException {
+        TransformerHandler handler = ((SAXTransformerFactory) factory).newTransformerHandler(templates);
+        setParameters(handler.getTransformer(), record);
+        return handler;
+    }
+
+    private static void setParameters(Transformer transformer, Metadata record) {
+        transformer.setParameter("provider_name",record.getOrigin().getName());
+        transformer.setParameter("record_identifier",record.getId());
+    }
+
+    /**
+     * @return the semaphore limiting the number of concurrent transforms,
+     *         null if there is no limit
+     */
+    Semaphore getSemaphore() {
+        return semaphore;
+    }
+
+    /**
+     * @return the number of the semaphore, unique among all semaphores and
+     *         fixed for the lifetime of the semaphore, -1 if there is none
+     */
+    long getSemaphoreNumber() {
+        return semaphoreNumber;
+    }
+
     @Override
     public String toString() {
 	return "transform using " + xsltFile;
@@ -183,16 +249,12 @@ public class TransformAction implements Action {
 
     @Override
     public Action clone() {
-	try {
-	    // This is a deep copy. The new object has its own Transform object.
-	    return new TransformAction(xsltFile,cacheDir,semaphore);
-	} catch (FileNotFoundException | TransformerConfigurationException ex) {
-	    logger.error(ex);
-	}
-	return null;
+	// The compiled stylesheet is thread safe, so the copy shares it; every
+	// transformation gets a transformer of its own.
+	return new TransformAction(this);
     }
     
-    class TransformActionErrorListener implements ErrorListener {
+    static class TransformActionErrorListener implements ErrorListener {
 
         public TransformActionErrorListener() {
             logger.debug("Redirecting XSLT warnings and errors to this logger");
@@ -217,15 +279,26 @@ public class TransformAction implements Action {
         }
     }
     
-    class TransformActionURLResolver implements URIResolver {
+    /**
+     * Resolves the documents a stylesheet includes or looks up through a
+     * cache on disk, and keeps them parsed in the shared document pool, so
+     * that every document is fetched once, and parsed once per process.
+     */
+    static class TransformActionURLResolver implements URIResolver {
         
         private URIResolver resolver;
+
+        private TransformerFactory factory;
+
+        private Path cacheDir;
         
-        public TransformActionURLResolver(URIResolver resolver) {
+        public TransformActionURLResolver(URIResolver resolver, TransformerFactory factory, Path cacheDir) {
             this.resolver = resolver;
+            this.factory = factory;
+            this.cacheDir = cacheDir;
         }
         
-        public Source resolve(String href, String base) throws TransformerException {
+        public Source resolve(final String href, final String base) throws TransformerException {
             logger.debug("Transformer resolver: resolve("+href+","+base+")");
             String uri = href;
             if (base != null && !base.equals("")) {
@@ -235,20 +308,62 @@ public class TransformAction implements Action {
                     logger.error("Transformer resolver: couldn't resolve("+href+","+base+") continuing with just "+href,ex);
                 }
             }
-            String cacheFile = uri.replaceAll("[^a-zA-Z0-9]", "_");
-            logger.debug("Transformer resolver: check cache for "+cacheFile);
-            Source res = null;
-            if (Files.exists(cacheDir.resolve(cacheFile))) {
-                res = new StreamSource(cacheDir.resolve(cacheFile).toFile());
-                logger.debug("Transformer resolver: loaded "+cacheFile+" from cache");
+            final String location = uri;
+            return DocumentPool.get(((TransformerFactoryImpl) factory).getConfiguration(), location, new DocumentPool.Loader() {
+                @Override
+                public DocumentInfo load() throws TransformerException {
+                    return parse(href, base, location);
+                }
+            });
+        }
+
+        /**
+         * Parse a document from the cache, storing it in the cache first if
+         * it is not there yet.
+         */
+        private DocumentInfo parse(String href, String base, String uri) throws TransformerException {
+            Path cacheFile = cacheDir.resolve(uri.replaceAll("[^a-zA-Z0-9]", "_"));
+            logger.debug("Transformer resolver: check cache for "+cacheFile.getFileName());
+            if (Files.exists(cacheFile)) {
+                logger.debug("Transformer resolver: loaded "+cacheFile.getFileName()+" from cache");
             } else {
-                res = resolver.resolve(href, base);
-                Result result = new StreamResult(cacheDir.resolve(cacheFile).toFile());
-                Transformer xformer = factory.newTransformer();
-                xformer.transform(res, result);
-                logger.debug("Transformer resolver: stored "+cacheFile+" in cache");
+                store(resolver.resolve(href, base), cacheFile);
+                logger.debug("Transformer resolver: stored "+cacheFile.getFileName()+" in cache");
+            }
+
+            // relative references in the document are resolved against its origin
+            try (InputStream in = Files.newInputStream(cacheFile)) {
+                return ((TransformerFactoryImpl) factory).getConfiguration()
+                        .buildDocument(new StreamSource(in, uri));
+            } catch (IOException ex) {
+                throw new TransformerException("Transformer resolver: couldn't read "+cacheFile, ex);
+            }
+        }
+
+        /**
+         * Store a document in the cache. The document is written next to
+         * the cache file and then moved in place, so that other threads, or
+         * other harvesters sharing the cache, never read a partial file.
+         */
+        private void store(Source source, Path cacheFile) throws TransformerException {
+            Path part = null;
+            try {
+                part = Files.createTempFile(cacheDir, "fill-", ".part");
+                factory.newTransformer().transform(source, new StreamResult(part.toFile()));
+                Files.move(part, cacheFile, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                part = null;
+            } catch (IOException ex) {
+                throw new TransformerException("Transformer resolver: couldn't store "+cacheFile, ex);
+            } finally {
+                if (part != null) {
+                    try {
+                        Files.deleteIfExists(part);
+                    } catch (IOException ex) {
+                        logger.warn("Transformer resolver: couldn't remove "+part+": "+ex.getMessage());
+                    }
+                }
             }
-            return res;
         }
     }
 
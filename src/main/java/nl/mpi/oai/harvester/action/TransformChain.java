@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.metadata.Metadata;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Document;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This class represents a run of transformations, optionally followed by
+ * saving the result, applied to a record in a single pass. <br><br>
+ *
+ * Applied one by one, every transformation serializes its result, and the
+ * next one parses it again, as does the save action. In the chain, the
+ * transformations pass their results on to the next one as SAX events, and
+ * only the last one serializes, either into the file the record is saved
+ * in, or back into the record. So the record is parsed once and serialized
+ * once, however long the chain is. <br><br>
+ *
+ * The action sequence replaces runs of transform actions by a chain. It
+ * only takes in a save action that ends the sequence, since the record does
+ * not hold the result of the transformations after the chain saved it,
+ * unless the save action offloads the record.
+ *
+ * Note: the result is serialized as the output settings of the last
+ * stylesheet in the chain ask for.
+ */
+final class TransformChain implements Action {
+    private static final Logger logger = LogManager.getLogger(TransformChain.class);
+
+    /** The transformations, in order. */
+    private final TransformAction[] transforms;
+
+    /** The action saving the result, null if the result stays in the record. */
+    private final SaveAction save;
+
+    /** The semaphores limiting the transforms, each once, in a fixed order. */
+    private final List<Semaphore> semaphores;
+
+    /**
+     * Create a chain of transformations.
+     *
+     * @param transforms the transformations, in order
+     * @param save the action to save the result with, or null
+     */
+    TransformChain(TransformAction[] transforms, SaveAction save) {
+        this.transforms = transforms;
+        this.save = save;
+
+        /* Every thread takes the semaphores in the same order, that of
+           their numbers, so that chains sharing a stylesheet do not wait
+           for each other forever.
+         */
+        SortedMap<Long, Semaphore> ordered = new TreeMap<>();
+        for (TransformAction transform : transforms) {
+            if (transform.getSemaphore() != null) {
+                ordered.put(transform.getSemaphoreNumber(), transform.getSemaphore());
+            }
+        }
+        this.semaphores = new ArrayList<>(ordered.values());
+    }
+
+    /**
+     * Replace the runs of transformations in a sequence of actions by
+     * chains. A run gets a chain if it consists of at least two actions,
+     * counting a save action ending the sequence.
+     *
+     * @param actions the sequence of actions
+     * @return the sequence with the runs replaced
+     */
+    static List<Action> fuse(Action[] actions) {
+        List<Action> fused = new ArrayList<>();
+        int n = actions.length;
+        int i = 0;
+        while (i < n) {
+            int j = i;
+            while (j < n && actions[j] instanceof TransformAction) {
+                j++;
+            }
+            if (j == i) {
+                // not a transformation
+                fused.add(actions[i]);
+                i++;
+                continue;
+            }
+
+            SaveAction last = (j == n - 1 && actions[j] instanceof SaveAction)
+                    ? (SaveAction) actions[j] : null;
+            if (j - i + (last == null ? 0 : 1) < 2) {
+                // a single transformation gains nothing from a chain
+                fused.add(actions[i]);
+                i = j;
+                continue;
+            }
+
+            TransformAction[] run = new TransformAction[j - i];
+            for (int k = i; k < j; k++) {
+                run[k - i] = (TransformAction) actions[k];
+            }
+            TransformChain chain = new TransformChain(run, last);
+            logger.debug("applying " + chain + " in a single pass");
+            fused.add(chain);
+            i = (last == null) ? j : n;
+        }
+        return fused;
+    }
+
+    @Override
+    public boolean perform(List<Metadata> records) {
+        for (Metadata record : records) {
+            for (Semaphore semaphore : semaphores) {
+                semaphore.acquireUninterruptibly();
+            }
+            try {
+                if (!perform(record)) {
+                    return false;
+                }
+            } finally {
+                for (Semaphore semaphore : semaphores) {
+                    semaphore.release();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply the chain to a single record.
+     *
+     * @param record the record
+     * @return false if an error occurred, true otherwise
+     */
+    private boolean perform(Metadata record) {
+        boolean stream = record.hasStream();
+        Source source = stream ? new SAXSource(record.getSource())
+                : new DOMSource(record.getDoc());
+
+        Path path = null;
+        OutputStream os = null;
+        boolean done = false;
+        try {
+            // the end of the chain
+            Result result;
+            ByteArrayOutputStream bytes = null;
+            DOMResult dom = null;
+            if (save != null) {
+                path = save.chooseLocation(record);
+                os = Files.newOutputStream(path);
+                result = new StreamResult(os);
+            } else if (stream) {
+                bytes = new ByteArrayOutputStream();
+                result = new StreamResult(bytes);
+            } else {
+                dom = new DOMResult();
+                result = dom;
+            }
+
+            // link the transformations, from the last one to the first
+            for (int i = transforms.length - 1; i > 0; i--) {
+                TransformerHandler handler = transforms[i].newTransformerHandler(record);
+                handler.setResult(result);
+                SAXResult events = new SAXResult(handler);
+                events.setLexicalHandler(handler);
+                result = events;
+            }
+            transforms[0].newTransformer(record).transform(source, result);
+
+            if (save != null) {
+                os.close();
+                os = null;
+                save.account(record, path);
+                save.offload(record, path);
+                logger.debug("transformed and saved XML[" + path + "]");
+            } else if (stream) {
+                byte[] content = bytes.toByteArray();
+                record.setStream(new ByteArrayInputStream(content));
+                logger.debug("transformed to XML stream with [" + content.length + "] bytes");
+            } else {
+                record.setDoc((Document) dom.getNode());
+                logger.debug("transformed to XML doc");
+            }
+            done = true;
+        } catch (TransformerException | IOException ex) {
+            logger.error("Transformation error: ", ex);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    logger.debug(e);
+                }
+            }
+            if (!done && path != null) {
+                // do not leave part of a record behind
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("cannot remove " + path + ": " + e.getMessage());
+                }
+            }
+        }
+        return done;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (TransformAction transform : transforms) {
+            if (sb.length() > 0) {
+                sb.append(" --> ");
+            }
+            sb.append(transform);
+        }
+        if (save != null) {
+            sb.append(" --> ").append(save);
+        }
+        return sb.toString();
+    }
+
+    // Chains are equal iff their actions are.
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(transforms) + 29 * Objects.hashCode(save);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof TransformChain) {
+            TransformChain c = (TransformChain) o;
+            return Arrays.equals(transforms, c.transforms) && Objects.equals(save, c.save);
+        }
+        return false;
+    }
+
+    @Override
+    public Action clone() {
+        // Every copy has its own transformations, like a transform action.
+        TransformAction[] copies = new TransformAction[transforms.length];
+        for (int i = 0; i < transforms.length; i++) {
+            copies[i] = (TransformAction) transforms[i].clone();
+            if (copies[i] == null) {
+                return null;
+            }
+        }
+        return new TransformChain(copies, save == null ? null : (SaveAction) save.clone());
+    }
+}
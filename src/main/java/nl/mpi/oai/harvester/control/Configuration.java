@@ -43,6 +43,7 @@ import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -88,7 +89,14 @@ public class Configuration {
         RETRYDELAY("retry-delay"), MAXJOBS("max-jobs"),
         POOLSIZE("resource-pool-size"), TIMEOUT("timeout"),
         OVERVIEWFILE("overview-file"),
-        SAVERESPONSE("save-response"), SCENARIO("scenario"), INCREMENTAL("incremental");
+        SAVERESPONSE("save-response"), SCENARIO("scenario"), INCREMENTAL("incremental"),
+        MAXHOSTJOBS("max-host-jobs"), PREFETCHDEPTH("prefetch-depth"),
+        PREAMBLETTL("preamble-ttl"), SPOOLTHRESHOLD("spool-threshold"),
+        TARGETSPILL("target-spill"), CHECKPOINTDIR("checkpoint-dir"),
+        ACTIONJOBS("action-jobs"), ACTIONQUEUE("action-queue"),
+        REQUESTDEADLINE("request-deadline"), MINTRANSFERRATE("min-transfer-rate"),
+        STALLTIMEOUT("stall-timeout"), ACTIONTIMEOUT("action-timeout"),
+        DOCUMENTPOOL("document-pool");
         private final String val;
 
         KnownOptions(final String s) {
@@ -214,6 +222,25 @@ public class Configuration {
      * @param base top node of the actions section
      */
     private void parseActions(Node base) throws XPathExpressionException {
+        // compile all stylesheets at once, the actions share them
+        NodeList transforms = (NodeList) xpath.evaluate("./format/action[@type='transform']",
+                base, XPathConstants.NODESET);
+        List<Map.Entry<String, Path>> stylesheets = new ArrayList<>();
+        for (int i = 0; i < transforms.getLength(); i++) {
+            Node s = transforms.item(i);
+            String xslFile = Util.getNodeText(xpath, "./@file", s);
+            if (xslFile == null) {
+                continue;
+            }
+            try {
+                stylesheets.add(new AbstractMap.SimpleImmutableEntry<>(xslFile, getCacheDir(s)));
+            } catch (IOException ex) {
+                // reported when the action is created
+                logger.debug(ex);
+            }
+        }
+        StylesheetRegistry.compileAll(stylesheets);
+
         NodeList nodeList = (NodeList) xpath.evaluate("./format", base,
                 XPathConstants.NODESET);
         for (int i = 0; i < nodeList.getLength(); i++) {
@@ -268,13 +295,7 @@ public class Configuration {
                     } else if ("transform".equals(actionType)) {
                         try {
                             String xslFile = Util.getNodeText(xpath, "./@file", s);
-                            Path cache = null;
-                            String cacheDir = Util.getNodeText(xpath, "./@cache", s);
-                            if (cacheDir != null) {
-                                Path workDir = Paths.get(getWorkingDirectory());
-                                cache = workDir.resolve(cacheDir);
-                                Util.ensureDirExists(cache);
-                            }
+                            Path cache = getCacheDir(s);
                             int jobs = 0;
                             String jobsStr = Util.getNodeText(xpath, "./@max-jobs", s);
                             if (jobsStr != null) {
@@ -304,6 +325,23 @@ public class Configuration {
         }
     }
 
+    /**
+     * Get the directory a transform action caches resources in.
+     *
+     * @param action the node of the transform action
+     * @return the directory, or null if the action does not cache
+     * @throws IOException the directory cannot be created
+     */
+    private Path getCacheDir(Node action) throws XPathExpressionException, IOException {
+        String cacheDir = Util.getNodeText(xpath, "./@cache", action);
+        if (cacheDir == null) {
+            return null;
+        }
+        Path cache = Paths.get(getWorkingDirectory()).resolve(cacheDir);
+        Util.ensureDirExists(cache);
+        return cache;
+    }
+
     /**
      * Parse the providers section only. Included reading from the registry
      * if required.
@@ -391,6 +429,11 @@ public class Configuration {
                                 String pMaxRetryCount = Util.getNodeText(xpath, "./@max-retry-count", configNode);
                                 String pRetryDelays = Util.getNodeText(xpath, "./@retry-delay", configNode);
                                 String pExclusive = Util.getNodeText(xpath, "./@exclusive", configNode);
+                                String pMaxHostJobs = Util.getNodeText(xpath, "./@max-host-jobs", configNode);
+                                String pMaxEndpointJobs = Util.getNodeText(xpath, "./@max-endpoint-jobs", configNode);
+                                String pMaxWindowJobs = Util.getNodeText(xpath, "./@max-window-jobs", configNode);
+                                String pMaxRecordJobs = Util.getNodeText(xpath, "./@max-record-jobs", configNode);
+                                String pKeepRecordOrder = Util.getNodeText(xpath, "./@keep-record-order", configNode);
 
                                 int timeout = (pTimeout != null) ? Integer.valueOf(pTimeout) : getTimeout();
                                 int maxRetryCount = (pMaxRetryCount != null) ? Integer.valueOf(pMaxRetryCount) : getMaxRetryCount();
@@ -403,6 +446,15 @@ public class Configuration {
                                 provider.setMaxRetryCount(maxRetryCount);
                                 provider.setRetryDelays(retryDelays);
                                 provider.setExclusive(exclusive);
+                                if (pMaxHostJobs != null)
+                                    provider.setMaxHostJobs(Integer.valueOf(pMaxHostJobs));
+                                if (pMaxEndpointJobs != null)
+                                    provider.setMaxEndpointJobs(Integer.valueOf(pMaxEndpointJobs));
+                                if (pMaxWindowJobs != null)
+                                    provider.setMaxWindowJobs(Integer.valueOf(pMaxWindowJobs));
+                                if (pMaxRecordJobs != null)
+                                    provider.setMaxRecordJobs(Integer.valueOf(pMaxRecordJobs));
+                                provider.setKeepRecordOrder(Boolean.parseBoolean(pKeepRecordOrder));
                             }
                             providers.add(provider);
                         }
@@ -423,6 +475,12 @@ public class Configuration {
             String pMaxRetryCount = Util.getNodeText(xpath, "./@max-retry-count", cur);
             String pRetryDelays = Util.getNodeText(xpath, "./@retry-delay", cur);
             String pExclusive = Util.getNodeText(xpath, "./@exclusive", cur);
+            String pMaxHostJobs = Util.getNodeText(xpath, "./@max-host-jobs", cur);
+            String pMaxEndpointJobs = Util.getNodeText(xpath, "./@max-endpoint-jobs", cur);
+            String pMaxSetJobs = Util.getNodeText(xpath, "./@max-set-jobs", cur);
+            String pMaxWindowJobs = Util.getNodeText(xpath, "./@max-window-jobs", cur);
+            String pMaxRecordJobs = Util.getNodeText(xpath, "./@max-record-jobs", cur);
+            String pKeepRecordOrder = Util.getNodeText(xpath, "./@keep-record-order", cur);
 
             int timeout = (pTimeout != null) ? Integer.valueOf(pTimeout) : getTimeout();
             int maxRetryCount = (pMaxRetryCount != null) ? Integer.valueOf(pMaxRetryCount) : getMaxRetryCount();
@@ -447,9 +505,26 @@ public class Configuration {
 
             provider.setExclusive(exclusive);
 
+            if (pMaxHostJobs != null)
+                provider.setMaxHostJobs(Integer.valueOf(pMaxHostJobs));
+
+            if (pMaxEndpointJobs != null)
+                provider.setMaxEndpointJobs(Integer.valueOf(pMaxEndpointJobs));
+
+            if (pMaxWindowJobs != null)
+                provider.setMaxWindowJobs(Integer.valueOf(pMaxWindowJobs));
+
+            if (pMaxRecordJobs != null)
+                provider.setMaxRecordJobs(Integer.valueOf(pMaxRecordJobs));
+
+            provider.setKeepRecordOrder(Boolean.parseBoolean(pKeepRecordOrder));
+
             if (!Boolean.valueOf(pStatic)) {
                 // Note: static providers do not support sets, so this only
                 // needs to be done here.
+                if (pMaxSetJobs != null)
+                    provider.setMaxSetJobs(Integer.valueOf(pMaxSetJobs));
+
                 NodeList sets = (NodeList) xpath.evaluate("./set", cur,
                         XPathConstants.NODESET);
                 if (sets != null && sets.getLength() > 0) {
@@ -525,6 +600,161 @@ public class Configuration {
         return Integer.valueOf(s);
     }
 
+    /**
+     * Get the maximum number of concurrent requests to a single host. Providers
+     * can override this value for their host.
+     *
+     * @return the limit, zero or less means no limit
+     */
+    public int getMaxHostJobs() {
+        String s = settings.get(KnownOptions.MAXHOSTJOBS.toString());
+        if (s == null) return 1;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the number of ListRecords pages a worker may request ahead of the
+     * page it is processing.
+     *
+     * @return the number of pages, zero disables requesting ahead
+     */
+    public int getPrefetchDepth() {
+        String s = settings.get(KnownOptions.PREFETCHDEPTH.toString());
+        if (s == null) return 1;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the number of hours the Identify and ListMetadataFormats facts
+     * kept in the overview remain valid. After that, the endpoint is asked
+     * if they changed.
+     *
+     * @return the number of hours, zero to always ask the endpoint
+     */
+    public int getPreambleTTL() {
+        String s = settings.get(KnownOptions.PREAMBLETTL.toString());
+        if (s == null) return 24;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the size up to which a response is kept in memory. A larger
+     * ListRecords response is kept in a temporary file instead.
+     *
+     * @return the size in megabytes
+     */
+    public int getSpoolThreshold() {
+        String s = settings.get(KnownOptions.SPOOLTHRESHOLD.toString());
+        if (s == null) return 8;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the number of identifiers kept in memory per provider in the
+     * ListIdentifiers scenario. Beyond it, the identifiers are sorted and
+     * moved to temporary files.
+     *
+     * @return the number of identifiers, 0 or less for no limit
+     */
+    public int getTargetSpill() {
+        String s = settings.get(KnownOptions.TARGETSPILL.toString());
+        if (s == null) return 500000;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the directory to journal the progress of harvesting in. A relative
+     * directory is taken to be relative to the working directory.
+     *
+     * @return the directory, or null if progress is not journaled
+     */
+    public String getCheckpointDirectory() {
+        return settings.get(KnownOptions.CHECKPOINTDIR.toString());
+    }
+
+    /**
+     * Get the number of threads applying the action sequences, separate from
+     * the workers harvesting the providers.
+     *
+     * @return the number of threads, 0 if the workers apply the actions
+     *         themselves
+     */
+    public int getActionJobs() {
+        String s = settings.get(KnownOptions.ACTIONJOBS.toString());
+        if (s == null) return 0;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the number of records the workers may hand over to the action
+     * threads before they have to wait for the actions to catch up.
+     *
+     * @return the number of records, 0 for twice the number of action threads
+     */
+    public int getActionQueue() {
+        String s = settings.get(KnownOptions.ACTIONQUEUE.toString());
+        if (s == null) return 0;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the time a single request may take, from sending it to receiving
+     * the end of the response.
+     *
+     * @return the deadline in seconds, 0 if there is none
+     */
+    public int getRequestDeadline() {
+        String s = settings.get(KnownOptions.REQUESTDEADLINE.toString());
+        if (s == null) return 0;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the rate below which a response is given up on.
+     *
+     * @return the rate in bytes per second, 0 if any rate will do
+     */
+    public int getMinTransferRate() {
+        String s = settings.get(KnownOptions.MINTRANSFERRATE.toString());
+        if (s == null) return 0;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the time the harvest of a provider may go without progress before
+     * it is cancelled.
+     *
+     * @return the timeout in seconds, 0 if a harvest is never cancelled
+     */
+    public int getStallTimeout() {
+        String s = settings.get(KnownOptions.STALLTIMEOUT.toString());
+        if (s == null) return 0;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the time a record may wait for an action in the resource pool.
+     *
+     * @return the timeout in seconds, 0 to wait as long as it takes
+     */
+    public int getActionTimeout() {
+        String s = settings.get(KnownOptions.ACTIONTIMEOUT.toString());
+        if (s == null) return 0;
+        return Integer.valueOf(s);
+    }
+
+    /**
+     * Get the number of documents looked up by stylesheets that are kept
+     * parsed in memory.
+     *
+     * @return the number of documents, 0 to keep none
+     */
+    public int getDocumentPoolSize() {
+        String s = settings.get(KnownOptions.DOCUMENTPOOL.toString());
+        if (s == null) return 64;
+        return Integer.valueOf(s);
+    }
+
     public int getResourcePoolSize() {
         String s = settings.get(KnownOptions.POOLSIZE.toString());
         // Note that the default value is not fixed; instead, it is equal
@@ -35,6 +35,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
@@ -99,14 +101,7 @@ public final class FileSynchronization {
                 if (counter == provider.maxRetryCount) {
                     break;
                 } else {
-                    int retryDelay = provider.getRetryDelay(counter);
-                    if (retryDelay > 0) {
-                        try {
-                            Thread.sleep(retryDelay);
-                        } catch (InterruptedException e) {
-                            logger.error(e.getMessage(), e);
-                        }
-                    }
+                    provider.awaitRetry(counter);
                 }
                 try {
                     ListIdentifiers listIdentifiers = null;
@@ -231,19 +226,49 @@ public final class FileSynchronization {
         }
     }
 
+    /**
+     * Get the file the history of harvesting a provider is kept in.
+     *
+     * @param name the name of the provider
+     * @return the file
+     */
+    static File getHistoryFile(String name) {
+        return new File(Main.config.getWorkingDirectory() + CMDI + Util.toFileFormat(name) + "_history.xml");
+    }
+
     public static void saveStatistics(final Provider provider){
-        String dir = Main.config.getWorkingDirectory()+ CMDI;
-        File file = new File(dir + Util.toFileFormat(provider.getName())+"_history.xml");
+        File file = getHistoryFile(provider.getName());
         Statistic stats = statistic.get(provider);
         StringBuffer sb = new StringBuffer();
           sb.append("<harvest date=\"").append(currentDate).append("\" ")
              .append("operationTime=\"" + stats.getHarvestTime() + "s\" ")
              .append("requestsToServer=\"" + stats.getRequests() + "\" ")
-             .append("collectedRecords=\"" + stats.getHarvestedRecords() + "\" ")
-             .append("/>\n");
+             .append("collectedRecords=\"" + stats.getHarvestedRecords() + "\"");
+        List<Statistic.Progress> lists = stats.getProgress();
+        if (lists.isEmpty()) {
+            sb.append(" />\n");
+        } else {
+            sb.append(">\n");
+            for (Statistic.Progress progress : lists) {
+                sb.append("  <list name=\"").append(escape(progress.getName())).append("\" ")
+                  .append("pages=\"" + progress.getPages() + "\" ")
+                  .append("records=\"" + progress.getDone() + "\" ");
+                if (progress.getExpected() >= 0)
+                    sb.append("expectedRecords=\"" + progress.getExpected() + "\" ");
+                sb.append("operationTime=\"" + progress.getElapsed() / 1000 + "s\" ");
+                if (progress.getThroughput() >= 0)
+                    sb.append("recordsPerSecond=\"" + String.format(Locale.ROOT, "%.1f", progress.getThroughput()) + "\" ");
+                sb.append("/>\n");
+            }
+            sb.append("</harvest>\n");
+        }
         writeToHistoryFile(file, sb.toString());
     }
 
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
     private static void writeToHistoryFile(final File file, String toSave){
         try(FileWriter deltaWriter = new FileWriter(file, true)) {
             deltaWriter.write(toSave);
@@ -261,8 +286,7 @@ public final class FileSynchronization {
         statistic.put(provider, new Statistic());
     }
     public static void saveToHistoryFile(final Provider provider, final Path filePath, final Operation operation){
-        String dir = Main.config.getWorkingDirectory()+ CMDI;
-        File file = new File(dir + Util.toFileFormat(provider.getName())+"_history.xml");
+        File file = getHistoryFile(provider.getName());
             StringBuffer sb = new StringBuffer();
                      sb.append("<file ")
                         .append("harvestDate=\"").append(currentDate).append("\" ")
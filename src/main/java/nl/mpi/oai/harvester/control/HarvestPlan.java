@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.control;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <br> Plan the order in which the providers are harvested <br><br>
+ *
+ * The time needed for a harvest is dominated by the providers that take
+ * longest. If such a provider is started last, the whole harvest takes as
+ * long as the provider. Therefore, the providers are started in order of
+ * their expected duration, longest first. Each provider goes to the worker
+ * slot that becomes available first, so that the slots finish at about the
+ * same time. <br><br>
+ *
+ * The duration of the harvest of a provider is expected from its previous
+ * harvest, as recorded in its history file, and the number of records the
+ * overview expects from it: the whole collection, or the increment in case
+ * of an incremental harvest. Providers without a history are expected to
+ * take the average time of the others.
+ *
+ * Note: the plan only determines the order in which the workers start. The
+ * actual durations decide which slot a worker ends up in.
+ *
+ * @param <T> the type of the jobs planned
+ */
+final class HarvestPlan<T> {
+
+    private static final Logger logger = LogManager.getLogger(HarvestPlan.class);
+
+    // the attributes of a harvest in the history file
+    private static final Pattern HARVEST = Pattern.compile("<harvest\\s[^>]*>");
+    private static final Pattern TIME = Pattern.compile("operationTime=\"(\\d+)s\"");
+    private static final Pattern RECORDS = Pattern.compile("collectedRecords=\"(\\d+)\"");
+
+    /**
+     * <br> A job and the facts known about it
+     */
+    private static final class Job<T> {
+
+        final T item;
+        final String name;
+        // duration of the previous harvest in seconds, -1 if unknown
+        final long lastSeconds;
+        // records obtained in the previous harvest, -1 if unknown
+        final long lastRecords;
+        // records expected in this harvest, 0 or less if unknown
+        final long expectedRecords;
+
+        // expected duration in seconds, -1 if unknown
+        long estimate = -1;
+        // the slot planned for the job
+        int slot = 0;
+
+        Job(T item, String name, long lastSeconds, long lastRecords, long expectedRecords) {
+            this.item = item;
+            this.name = name;
+            this.lastSeconds = lastSeconds;
+            this.lastRecords = lastRecords;
+            this.expectedRecords = expectedRecords;
+        }
+    }
+
+    private final List<Job<T>> jobs = new ArrayList<>();
+
+    // the expected duration of the plan in seconds
+    private long makespan = 0;
+
+    /**
+     * <br> Add a job to the plan
+     *
+     * @param item the job
+     * @param name the name to log
+     * @param history the duration in seconds and the number of records of
+     *                the previous harvest, null if unknown
+     * @param expectedRecords the number of records expected, 0 if unknown
+     */
+    void add(T item, String name, long[] history, long expectedRecords) {
+        jobs.add(new Job<>(item, name,
+                history == null ? -1 : history[0],
+                history == null ? -1 : history[1],
+                expectedRecords));
+    }
+
+    /**
+     * <br> Order the jobs, longest first, and plan the slots they run in
+     *
+     * @param slots the number of jobs running at the same time
+     * @return the jobs in the order to start them
+     */
+    List<T> schedule(int slots) {
+
+        estimate();
+
+        List<Job<T>> order = new ArrayList<>(jobs);
+        // a stable sort keeps the order of the configuration for equal estimates
+        Collections.sort(order, new Comparator<Job<T>>() {
+            @Override
+            public int compare(Job<T> a, Job<T> b) {
+                return Long.compare(b.estimate, a.estimate);
+            }
+        });
+
+        // give every job the slot that becomes available first
+        PriorityQueue<long[]> loads = new PriorityQueue<>(Math.max(1, slots),
+                new Comparator<long[]>() {
+                    @Override
+                    public int compare(long[] a, long[] b) {
+                        int c = Long.compare(a[0], b[0]);
+                        return c != 0 ? c : Long.compare(a[1], b[1]);
+                    }
+                });
+        for (int i = 0; i < Math.max(1, slots); i++) {
+            loads.add(new long[]{0, i});
+        }
+        makespan = 0;
+        List<T> items = new ArrayList<>();
+        for (Job<T> job : order) {
+            long[] load = loads.poll();
+            job.slot = (int) load[1];
+            load[0] += Math.max(0, job.estimate);
+            makespan = Math.max(makespan, load[0]);
+            loads.add(load);
+            items.add(job.item);
+        }
+
+        for (Job<T> job : order) {
+            logger.info("plan: " + job.name + " expected to take "
+                    + (job.estimate < 0 ? "unknown" : job.estimate + "s")
+                    + " in slot " + job.slot);
+        }
+        logger.info("planned " + jobs.size() + " providers in " + slots
+                + " slots, expected to take " + makespan + "s");
+
+        return items;
+    }
+
+    /**
+     * @return the expected duration of the plan in seconds
+     */
+    long getMakespan() {
+        return makespan;
+    }
+
+    /**
+     * <br> Estimate the duration of the jobs
+     */
+    private void estimate() {
+
+        // the time per record, over all previous harvests
+        long seconds = 0;
+        long records = 0;
+        for (Job<T> job : jobs) {
+            if (job.lastSeconds >= 0 && job.lastRecords > 0) {
+                seconds += job.lastSeconds;
+                records += job.lastRecords;
+            }
+        }
+        double overall = records > 0 ? (double) seconds / records : -1;
+
+        long total = 0;
+        int known = 0;
+        for (Job<T> job : jobs) {
+            if (job.expectedRecords > 0 && job.lastSeconds >= 0 && job.lastRecords > 0) {
+                // the pace of the provider itself
+                job.estimate = Math.round(job.expectedRecords
+                        * (double) job.lastSeconds / job.lastRecords);
+            } else if (job.expectedRecords > 0 && overall >= 0) {
+                job.estimate = Math.round(job.expectedRecords * overall);
+            } else if (job.lastSeconds >= 0) {
+                job.estimate = job.lastSeconds;
+            }
+            if (job.estimate >= 0) {
+                total += job.estimate;
+                known++;
+            }
+        }
+
+        // without a history, a job is as long as an average one
+        if (known > 0) {
+            for (Job<T> job : jobs) {
+                if (job.estimate < 0) {
+                    job.estimate = total / known;
+                }
+            }
+        }
+    }
+
+    /**
+     * <br> Read the most recent harvest from a history file
+     *
+     * @param file the history file of a provider
+     * @return the duration in seconds and the number of records, or null if
+     *         the file does not record a harvest
+     */
+    static long[] readHistory(File file) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        String text;
+        try {
+            text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("cannot read history " + file + ": " + e.getMessage());
+            return null;
+        }
+
+        long[] last = null;
+        Matcher harvest = HARVEST.matcher(text);
+        while (harvest.find()) {
+            Matcher time = TIME.matcher(harvest.group());
+            Matcher count = RECORDS.matcher(harvest.group());
+            if (time.find() && count.find()) {
+                last = new long[]{Long.parseLong(time.group(1)),
+                        Long.parseLong(count.group(1))};
+            }
+        }
+        return last;
+    }
+}
@@ -19,8 +19,16 @@
 package nl.mpi.oai.harvester.control;
 
 import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.action.ActionPipeline;
+import nl.mpi.oai.harvester.action.ActionSequence;
+import nl.mpi.oai.harvester.action.DocumentPool;
 import nl.mpi.oai.harvester.cycle.Cycle;
 import nl.mpi.oai.harvester.cycle.CycleFactory;
+import nl.mpi.oai.harvester.harvesting.IdentifierListHarvesting;
+import nl.mpi.oai.harvester.utils.ConnectionLimiter;
+import nl.mpi.oai.harvester.utils.HostScheduler;
+import nl.mpi.oai.harvester.utils.RequestGuard;
+import nl.mpi.oai.harvester.utils.ResponseSpool;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xml.sax.SAXException;
@@ -29,6 +37,9 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 
 /**
@@ -43,28 +54,82 @@ public class Main {
     /** Object containing entries from configuration file. */
     public static Configuration config;
 
-    private static void runHarvesting(Configuration config) {
+    /**
+     * Harvest the providers in the configuration, and wait for all of them.
+     *
+     * @param config the configuration
+     * @return the exit code
+     */
+    private static int runHarvesting(Configuration config) {
 	config.log();
 
 	// Start a new worker thread for each provider. The Worker class
 	// is responsible for honouring the configured limit of
 	// concurrent worker threads.
 	Worker.setConcurrentLimit(config.getMaxJobs());
+	// Requests to a single host are limited independently of the number
+	// of workers, providers can tighten or relax the limit for their host.
+	ConnectionLimiter.setDefaultHostLimit(config.getMaxHostJobs());
+	for (Provider provider : config.getProviders()) {
+	    if (provider.getMaxHostJobs() != 0)
+		ConnectionLimiter.setHostLimit(provider.getOaiUrl(),
+			provider.getMaxHostJobs());
+	    if (provider.getMaxEndpointJobs() > 0)
+		ConnectionLimiter.setEndpointLimit(provider.getOaiUrl(),
+			provider.getMaxEndpointJobs());
+	}
+	// Responses larger than the threshold are kept on disk.
+	ResponseSpool.setThreshold(config.getSpoolThreshold() * 1024L * 1024L);
+	IdentifierListHarvesting.setSpillThreshold(config.getTargetSpill());
+	// Optionally, apply the actions on threads of their own, so that
+	// harvesting and processing the records overlap.
+	ActionPipeline.setup(config.getActionJobs(), config.getActionQueue());
+	ActionSequence.setAcquireTimeout(config.getActionTimeout());
+	DocumentPool.setCapacity(config.getDocumentPoolSize());
+	// Bound the requests in time and rate, and give up on providers that
+	// stop making progress.
+	RequestGuard.setDeadline(config.getRequestDeadline());
+	RequestGuard.setMinimumRate(config.getMinTransferRate());
+	Watchdog.setStallTimeout(config.getStallTimeout());
 	// create a CycleFactory
 	CycleFactory factory = new CycleFactory();
 	// get a cycle based on the overview file
 	File OverviewFile = new File (config.getOverviewFile());
 	Cycle cycle = factory.createCycle(OverviewFile);
 
+	RunSummary summary = new RunSummary();
+	HarvestPlan<Worker> plan = new HarvestPlan<>();
 	for (Provider provider : config.getProviders()) {
 
 		// create a new working, passing one and the same for each cycle
 	    Worker worker = new Worker(
 				provider, config.getActionSequences(), cycle);
 
-	    worker.startWorker();
+	    String name = worker.getKnownName();
+	    plan.add(worker, name == null ? provider.getOaiUrl() : name,
+		    name == null ? null : HarvestPlan.readHistory(
+			    FileSynchronization.getHistoryFile(name)),
+		    worker.getExpectedRecords());
+	}
+
+	// start the providers expected to take longest first
+	List<Worker> workers = plan.schedule(config.getMaxJobs());
+	List<Future<Boolean>> outcomes = new ArrayList<>();
+	for (Worker worker : workers) {
+	    outcomes.add(worker.startWorker());
+	}
 
+	// wait for the workers, this marks the end of the cycle
+	for (int i = 0; i < outcomes.size(); i++) {
+	    summary.collect(workers.get(i).getProvider(), outcomes.get(i));
 	}
+	Worker.shutdown();
+	summary.log();
+	ActionSequence.logPoolStatistics();
+	DocumentPool.logStatistics();
+	HostScheduler.logStatistics();
+
+	return summary.getExitCode();
     }
 
     public static void main(String[] args) {
@@ -114,15 +179,17 @@ public class Main {
 	} catch (ParserConfigurationException | SAXException 
 		| XPathExpressionException | IOException ex) {
 	    logger.error("Unable to read configuration file", ex);
+	    System.exit(RunSummary.EXIT_ERROR);
 	    return;
 	}
 
 	// Ensure the timeout setting is honored.
 	config.applyTimeoutSetting();
 
-	runHarvesting(config);
+	int exitCode = runHarvesting(config);
         
         logger.info("Goodbye from the main OAI Harvest Manager!");
 
+	System.exit(exitCode);
     }
 }
@@ -19,6 +19,8 @@
 package nl.mpi.oai.harvester.control;
 
 import nl.mpi.oai.harvester.metadata.NSContext;
+import nl.mpi.oai.harvester.utils.HttpTransport;
+import nl.mpi.oai.harvester.utils.TransportFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.w3c.dom.DOMException;
@@ -34,6 +36,7 @@ import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
@@ -141,50 +144,21 @@ public class RegistryReader {
      */
     private static Document openRemoteDocument(URL url) throws IOException,
 	    ParserConfigurationException, SAXException {
-	HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-	connection.setInstanceFollowRedirects(false);
-	connection.setRequestMethod("GET");
-	connection.setRequestProperty("Content-Type", "application/xml");
-	connection.connect();
-        
-	int responseCode = connection.getResponseCode();
-        
-        Boolean redirect = false;
-
-        int status = connection.getResponseCode();
-        if (status != HttpURLConnection.HTTP_OK) {
-            if (status == HttpURLConnection.HTTP_MOVED_TEMP
-                    || status == HttpURLConnection.HTTP_MOVED_PERM
-                    || status == HttpURLConnection.HTTP_SEE_OTHER) {
-                redirect = true;
-            }
-        }
-        
-	if (redirect) {
- 
-            // get redirect url from "location" header field
-            String newUrl = connection.getHeaderField("Location");
-
-            // get the cookie if need, for login
-            String cookies = connection.getHeaderField("Set-Cookie");
-
-            // open the new connnection again
-            
-            connection = (HttpURLConnection) new URL(newUrl).openConnection();
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestMethod("GET");
-            connection.setRequestProperty("Content-Type", "application/xml");
-            
-            logger.debug("Redirect to URL : " + newUrl);            
-            logger.debug(System.getProperty("java.runtime.version"));
-            
-            connection.connect();
-            
-            responseCode = connection.getResponseCode();
-        }
+	// the transport follows redirects, and keeps the connection for reuse
+	HttpTransport transport = TransportFactory.getTransport();
+	HttpURLConnection connection = transport.open(url.toString(), 0,
+		Collections.singletonMap("Content-Type", "application/xml"));
+	InputStream in = null;
+	try {
+	    logger.debug("Registry response " + connection.getResponseCode()
+		    + " for URL : " + connection.getURL());
+	    in = connection.getInputStream();
 
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = dbf.newDocumentBuilder();
-        return db.parse(connection.getInputStream());
+	    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+	    DocumentBuilder db = dbf.newDocumentBuilder();
+	    return db.parse(in);
+	} finally {
+	    transport.release(connection, in);
+	}
     }
 }
@@ -19,12 +19,23 @@
 package nl.mpi.oai.harvester.control;
 
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A very simple generic pool that manages access to resources that
  * are not thread-safe in a multi-thread application.
  *
+ * The pool takes no lock: a semaphore counts the resources available, and
+ * the resources themselves wait in a concurrent queue. As long as a
+ * resource is available, obtaining it amounts to a few atomic updates; only
+ * a caller finding the pool empty has to wait. The pool keeps track of how
+ * often and how long callers wait, so that its size can be tuned.
+ *
  * Alternative: A more comprehensive resource pool implementation is
  * available in the Apache Commons framework. That one has more
  * configuration options but lacks support for Java generics.
@@ -34,11 +45,22 @@ import java.util.LinkedList;
  * @author Lari Lampen (MPI-PL)
  */
 public class ResourcePool<T> {
-    private final LinkedList<T> resources;
+    private final Queue<T> resources;
+    private final Semaphore available;
+    private final int size;
+
+    // statistics
+    private final LongAdder uses = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final AtomicLong maxWait = new AtomicLong();
 
     public ResourcePool(T[] resources) {
-	this.resources = new LinkedList<>();
+	this.resources = new ConcurrentLinkedQueue<>();
 	Collections.addAll(this.resources, resources);
+	this.size = resources.length;
+	this.available = new Semaphore(resources.length);
     }
 
     /**
@@ -48,23 +70,70 @@ public class ResourcePool<T> {
      *
      * @param r A resource obtained from this pool and not released yet
      */
-    public synchronized void release(T r) {
+    public void release(T r) {
 	resources.add(r);
-	notify();
+	available.release();
     }
 
     /**
-     * Obtain a resource from the pool.
+     * Obtain a resource from the pool, waiting as long as necessary.
      *
      * @return A resource not held by any other caller
      * */
-    public synchronized T get() {
-	while (resources.isEmpty()) {
+    public T get() {
+	if (!available.tryAcquire()) {
+	    long start = System.nanoTime();
+	    available.acquireUninterruptibly();
+	    waitedFor(System.nanoTime() - start);
+	}
+	return take();
+    }
+
+    /**
+     * Obtain a resource from the pool, waiting at most the time given.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return A resource not held by any other caller, or null if none
+     *         became available in time
+     */
+    public T get(long timeout, TimeUnit unit) {
+	if (!available.tryAcquire()) {
+	    long start = System.nanoTime();
+	    boolean acquired;
 	    try {
-		wait();
-	    } catch (InterruptedException ignored) { }
+		acquired = available.tryAcquire(timeout, unit);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		acquired = false;
+	    }
+	    waitedFor(System.nanoTime() - start);
+	    if (!acquired) {
+		timeouts.increment();
+		return null;
+	    }
+	}
+	return take();
+    }
+
+    /**
+     * Take a resource, the caller holds a permit for it.
+     */
+    private T take() {
+	uses.increment();
+	return resources.poll();
+    }
+
+    /**
+     * Account for a caller that had to wait.
+     */
+    private void waitedFor(long nanos) {
+	waits.increment();
+	waited.add(nanos);
+	long max = maxWait.get();
+	while (nanos > max && !maxWait.compareAndSet(max, nanos)) {
+	    max = maxWait.get();
 	}
-	return resources.removeFirst();
     }
 
     /**
@@ -74,6 +143,48 @@ public class ResourcePool<T> {
      * @return number of resources available
      */
     public int getNumAvailable() {
-	return resources.size();
+	return available.availablePermits();
+    }
+
+    /**
+     * @return the number of resources the pool was created with
+     */
+    public int getSize() {
+	return size;
+    }
+
+    /**
+     * @return the number of resources handed out so far
+     */
+    public long getUses() {
+	return uses.sum();
+    }
+
+    /**
+     * @return the number of callers that found the pool empty
+     */
+    public long getWaits() {
+	return waits.sum();
+    }
+
+    /**
+     * @return the number of callers that gave up waiting
+     */
+    public long getTimeouts() {
+	return timeouts.sum();
+    }
+
+    /**
+     * @return the total time callers waited, in milliseconds
+     */
+    public long getWaitTime() {
+	return TimeUnit.NANOSECONDS.toMillis(waited.sum());
+    }
+
+    /**
+     * @return the longest time a caller waited, in milliseconds
+     */
+    public long getMaxWait() {
+	return TimeUnit.NANOSECONDS.toMillis(maxWait.get());
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.control;
+
+import nl.mpi.oai.harvester.Provider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * <br> The outcome of harvesting the providers in a cycle <br><br>
+ *
+ * Every provider ends up in one of three groups: harvested, when one of the
+ * action sequences completed; failed, when none of them did; or crashed,
+ * when the worker stopped on an unexpected error. The summary determines the
+ * exit code of the harvest manager from these groups.
+ */
+final class RunSummary {
+
+    private static final Logger logger = LogManager.getLogger(RunSummary.class);
+
+    /** Exit code: all providers were harvested. */
+    static final int EXIT_OK = 0;
+
+    /** Exit code: some providers could not be harvested. */
+    static final int EXIT_INCOMPLETE = 1;
+
+    /** Exit code: the harvest could not be run at all. */
+    static final int EXIT_ERROR = 2;
+
+    private final List<String> harvested = new ArrayList<>();
+    private final List<String> failed = new ArrayList<>();
+    private final List<String> crashed = new ArrayList<>();
+
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * <br> Wait for the outcome of the harvest of a provider, and record it
+     *
+     * @param provider the provider
+     * @param outcome the outcome of the worker
+     */
+    void collect(Provider provider, Future<Boolean> outcome) {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                if (outcome.get()) {
+                    harvested.add(nameOf(provider));
+                } else {
+                    failed.add(nameOf(provider));
+                }
+                break;
+            } catch (ExecutionException e) {
+                crashed.add(nameOf(provider));
+                break;
+            } catch (InterruptedException e) {
+                // keep waiting, the worker does not stop halfway
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the name of the provider, known once the worker identified it,
+     *         or else its endpoint
+     */
+    private static String nameOf(Provider provider) {
+        // do not ask the endpoint for the name, the worker might have failed to
+        return provider.name == null ? provider.getOaiUrl() : provider.name;
+    }
+
+    List<String> getHarvested() {
+        return harvested;
+    }
+
+    List<String> getFailed() {
+        return failed;
+    }
+
+    List<String> getCrashed() {
+        return crashed;
+    }
+
+    /**
+     * @return the exit code for the outcomes recorded
+     */
+    int getExitCode() {
+        return failed.isEmpty() && crashed.isEmpty() ? EXIT_OK : EXIT_INCOMPLETE;
+    }
+
+    /**
+     * <br> Write the summary to the log
+     */
+    void log() {
+        long seconds = (System.currentTimeMillis() - start) / 1000;
+        logger.info("Cycle finished in " + seconds + " s: "
+                + harvested.size() + " providers harvested, "
+                + failed.size() + " failed, " + crashed.size() + " crashed");
+        if (!failed.isEmpty()) {
+            logger.warn("Providers failed: " + failed);
+        }
+        if (!crashed.isEmpty()) {
+            logger.error("Providers crashed: " + crashed);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.control;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.utils.RequestGuard;
+import nl.mpi.oai.harvester.utils.Statistic;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <br> Cancel harvests that stop making progress <br><br>
+ *
+ * While a worker harvests a provider, the watchdog keeps an eye on the
+ * bytes received from the endpoint and the records saved. If neither grows
+ * for longer than the stall timeout, the harvest is cancelled: the requests
+ * to the endpoint in progress are aborted, new ones are refused, and the
+ * worker is interrupted. The worker then fails the provider and gives its
+ * slot to the next one, instead of keeping it for as long as the endpoint
+ * keeps the connection open. <br><br>
+ *
+ * Waiting to retry does not count as progress, so the stall timeout should
+ * exceed the longest retry delay of the providers.
+ *
+ * Note: threads working for the worker, the ones following date windows for
+ * example, are not interrupted unless they are in the middle of a request.
+ * Their requests are refused, so they give up once their retries are spent.
+ */
+final class Watchdog {
+
+    private static final Logger logger = LogManager.getLogger(Watchdog.class);
+
+    // the time a harvest may go without progress in milliseconds, 0 for ever
+    private static volatile long stallTimeout = 0;
+
+    // the thread checking the harvests
+    private static final ScheduledExecutorService checker =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private Watchdog() {
+    }
+
+    /**
+     * <br> Set the time a harvest may go without progress
+     *
+     * @param seconds the timeout, 0 to never cancel a harvest
+     */
+    static void setStallTimeout(int seconds) {
+        setStallTimeoutMillis(Math.max(0, seconds) * 1000L);
+    }
+
+    static void setStallTimeoutMillis(long millis) {
+        stallTimeout = millis;
+    }
+
+    /**
+     * <br> Watch the harvest of a provider by the current thread
+     *
+     * @param provider the provider
+     * @return the watch, to be closed after harvesting
+     */
+    static Watch watch(Provider provider) {
+        final Watch watch = new Watch(provider, stallTimeout);
+        if (watch.timeout > 0) {
+            // check a few times per timeout, but not too often
+            long interval = Math.max(50, Math.min(watch.timeout / 4, 10000));
+            synchronized (watch) {
+                watch.check = checker.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        watch.check(System.currentTimeMillis());
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        return watch;
+    }
+
+    /**
+     * <br> The watch on a single harvest
+     */
+    static final class Watch {
+
+        private final Provider provider;
+        private final long timeout;
+        private final Thread thread = Thread.currentThread();
+
+        private ScheduledFuture<?> check;
+
+        // the progress seen last, and when it was seen
+        private long progress;
+        private long lastProgress;
+
+        private volatile boolean cancelled = false;
+        private boolean closed = false;
+
+        private Watch(Provider provider, long timeout) {
+            this.provider = provider;
+            this.timeout = timeout;
+            this.progress = getProgress();
+            this.lastProgress = System.currentTimeMillis();
+        }
+
+        /**
+         * @return a measure growing while the harvest gets somewhere
+         */
+        private long getProgress() {
+            long bytes = RequestGuard.getReceived(provider.getOaiUrl());
+            Statistic statistic = FileSynchronization.getProviderStatistic(provider);
+            return bytes + (statistic == null ? 0 : statistic.getHarvestedRecords());
+        }
+
+        /**
+         * <br> Cancel the harvest if it did not make progress for too long
+         *
+         * @param now the current time
+         */
+        synchronized void check(long now) {
+            if (cancelled || closed) {
+                return;
+            }
+            long current = getProgress();
+            if (current != progress) {
+                progress = current;
+                lastProgress = now;
+                return;
+            }
+            if (now - lastProgress < timeout) {
+                return;
+            }
+
+            logger.error("No progress harvesting " + provider.getOaiUrl() + " for "
+                    + (now - lastProgress) / 1000 + " s, cancelling the harvest");
+            cancelled = true;
+            RequestGuard.cancel(provider.getOaiUrl());
+            thread.interrupt();
+            if (check != null) {
+                check.cancel(false);
+            }
+        }
+
+        /**
+         * @return true if the harvest was cancelled
+         */
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * <br> Stop watching; the method is to be invoked by the thread
+         * harvesting
+         */
+        void close() {
+            synchronized (this) {
+                // no more interrupts from the watch from now on
+                closed = true;
+                if (check != null) {
+                    check.cancel(false);
+                }
+            }
+            if (cancelled) {
+                RequestGuard.resume(provider.getOaiUrl());
+                // the thread goes on with other work
+                Thread.interrupted();
+            }
+        }
+    }
+}
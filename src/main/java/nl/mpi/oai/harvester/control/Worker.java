@@ -24,14 +24,30 @@ import nl.mpi.oai.harvester.action.ActionSequence;
 import nl.mpi.oai.harvester.cycle.Cycle;
 import nl.mpi.oai.harvester.cycle.CycleProperties;
 import nl.mpi.oai.harvester.cycle.Endpoint;
+import nl.mpi.oai.harvester.cycle.Preamble;
 import nl.mpi.oai.harvester.harvesting.*;
 import nl.mpi.oai.harvester.metadata.MetadataFactory;
+import nl.mpi.oai.harvester.utils.HostScheduler;
+import nl.mpi.oai.harvester.utils.RetryScheduler;
+import nl.mpi.oai.harvester.utils.TransportFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a single processing thread in the harvesting actions
@@ -42,13 +58,16 @@ import java.util.concurrent.Semaphore;
  *
  * @author Lari Lampen (MPI-PL), extensions by Kees Jan van de Looij (MPI-PL).
  */
-class Worker implements Runnable {
+class Worker implements Callable<Boolean> {
     
     private static final Logger logger = LogManager.getLogger(Worker.class);
     
     /** A standard semaphore is used to track the number of running threads. */
     private static Semaphore semaphore;
 
+    /** The threads the workers run on. */
+    private static ExecutorService executor;
+
     /** The provider this worker deals with. */
     private final Provider provider;
 
@@ -72,6 +91,39 @@ class Worker implements Runnable {
      */
     public static void setConcurrentLimit(int num) {
 	semaphore = new Semaphore(num);
+	if (executor == null || executor.isShutdown()) {
+	    final AtomicInteger count = new AtomicInteger();
+	    /* The semaphore limits the number of workers harvesting. Threads
+	       of workers waiting to retry do not count, so the pool itself is
+	       not limited.
+	     */
+	    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+		    return new Thread(r, "worker-" + count.incrementAndGet());
+		}
+	    });
+	}
+    }
+
+    /**
+     * Get the executor the workers run on. Other stages of harvesting may
+     * submit tasks to it as well; these tasks do not count against the
+     * limit on the number of workers.
+     *
+     * @return the executor, or null if no limit was set yet
+     */
+    static ExecutorService getExecutor() {
+	return executor;
+    }
+
+    /**
+     * Stop accepting new workers, the running ones finish their harvest.
+     */
+    static void shutdown() {
+	if (executor != null) {
+	    executor.shutdown();
+	}
     }
 
     /**
@@ -102,37 +154,276 @@ class Worker implements Runnable {
      *
      * This method will block for as long as necessary until a thread can be
      * started without violating the limit.
+     *
+     * @return the outcome of the harvest: true if the provider was harvested
+     *         successfully, false otherwise. If the harvest failed
+     *         unexpectedly, the future holds the cause.
      */
-    public void startWorker() {
+    public Future<Boolean> startWorker() {
 	for (;;) {
 	    try {
 		semaphore.acquire();
 		break;
 	    } catch (InterruptedException e) { }
 	}
-	Thread t = new Thread(this);
-	t.start();
+	try {
+	    return executor.submit(this);
+	} catch (RuntimeException e) {
+	    // the worker did not start, give back its slot
+	    semaphore.release();
+	    throw e;
+	}
+    }
+
+    /**
+     * @return the provider this worker deals with
+     */
+    Provider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Get the name of the provider, without asking the endpoint for it.
+     *
+     * @return the name in the configuration or the overview, null if neither
+     *         has one
+     */
+    String getKnownName() {
+        if (provider.name != null) {
+            return provider.name;
+        }
+        Preamble preamble = endpoint.getPreamble();
+        return preamble == null ? null : preamble.getName();
+    }
+
+    /**
+     * Get the number of records the overview expects from the provider: the
+     * increment for an incremental harvest, otherwise the whole collection.
+     *
+     * @return the number of records, 0 if unknown
+     */
+    long getExpectedRecords() {
+        if (Main.config != null && Main.config.isIncremental()
+                && endpoint.allowIncrementalHarvest()) {
+            return endpoint.getIncrement();
+        }
+        return endpoint.getCount();
+    }
+
+    /**
+     * Plan the date windows to split the lists of the provider in, if the
+     * provider allows windows to be harvested concurrently.
+     *
+     * @param oaiFactory factory for the probe request
+     * @param prefixes the prefixes to harvest
+     * @return the windows, or null if the lists should not be split
+     */
+    private List<String[]> planWindows(OAIFactory oaiFactory, List<String> prefixes) {
+
+        if (provider.getMaxWindowJobs() <= 1) {
+            return null;
+        }
+
+        // when harvesting incrementally, start at the previous harvest
+        String from = null;
+        if (Main.config != null && Main.config.isIncremental()
+                && endpoint.allowIncrementalHarvest()
+                && endpoint.getHarvestedDate() != null) {
+            from = new SimpleDateFormat("yyyy-MM-dd").format(
+                    endpoint.getHarvestedDate().toDate());
+        }
+
+        return DateWindows.plan(oaiFactory, provider, prefixes.get(0),
+                provider.sets == null ? null : provider.sets[0], from,
+                provider.getMaxWindowJobs());
+    }
+
+    /**
+     * Open the journal of the progress of harvesting the provider, if the
+     * configuration asks for one. Since the identifiers collected in the
+     * ListIdentifiers scenario are not kept, only the ListRecords scenario
+     * is journaled. Every action sequence has a journal of its own, so that
+     * a sequence does not resume the harvest of another one.
+     *
+     * @param actionSequence the action sequence being applied
+     * @return the journal, or null if progress is not journaled
+     */
+    private Checkpoint openCheckpoint(ActionSequence actionSequence) {
+
+        if (Main.config == null || Main.config.getCheckpointDirectory() == null
+                || scenarioName == CycleProperties.Scenario.ListIdentifiers) {
+            return null;
+        }
+
+        Path dir = Paths.get(Main.config.getWorkingDirectory())
+                .resolve(Main.config.getCheckpointDirectory());
+        try {
+            Util.ensureDirExists(dir);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+        return Checkpoint.open(dir.resolve(
+                Util.toFileFormat(provider.getName()).replaceAll("/", "")
+                        + "-" + actionSequences.indexOf(actionSequence) + ".properties"));
+    }
+
+    /**
+     * Harvest the provider by following several chains of resumption tokens
+     * concurrently: one for every combination of prefix, set and date window.
+     * Every chain gets a harvesting object and an OAI factory of its own, the
+     * identifiers found are shared, so that a record in several sets or
+     * windows is processed only once. <br><br>
+     *
+     * The prefixes do not add to the limit on the number of chains active
+     * at the same time. Instead, the limit on the number of requests to the
+     * host of the provider governs them.
+     *
+     * @param scenario the scenario to apply
+     * @param prefixes the prefixes to harvest
+     * @param metadataFactory factory for metadata records
+     * @param windows the date windows, null if the lists are not split
+     * @param checkpoint the journal, null if progress is not journaled
+     * @return true if all chains were followed, false otherwise
+     */
+    private boolean harvestChains(Scenario scenario, List<String> prefixes,
+                                  MetadataFactory metadataFactory,
+                                  List<String[]> windows, Checkpoint checkpoint) {
+
+        String[] sets = provider.sets == null ? new String[]{null} : provider.sets;
+        if (windows == null) {
+            windows = Collections.singletonList(null);
+        }
+        int limit = prefixes.size() * Math.max(1, provider.getMaxSetJobs())
+                * (windows.size() > 1 ? Math.max(1, provider.getMaxWindowJobs()) : 1);
+
+        logger.info("Harvesting " + prefixes.size() + " prefixes in " + sets.length
+                + " sets in " + windows.size() + " windows of " + provider
+                + ", " + limit + " at the same time");
+
+        List<ListHarvesting> chains = new ArrayList<>();
+        List<OAIFactory> factories = new ArrayList<>();
+        try {
+            // every combination of prefix, set and window is a chain
+            for (String prefix : prefixes) {
+                for (String set : sets) {
+                    for (String[] window : windows) {
+                        ListHarvesting chain = createChain(chains, factories,
+                                prefixes, metadataFactory, prefix, set, window);
+                        chain.setCheckpoint(checkpoint);
+                        if (chain.isListDone()) {
+                            // completed by a previous harvest
+                            continue;
+                        }
+                        chains.add(chain);
+                    }
+                }
+            }
+
+            if (scenarioName == CycleProperties.Scenario.ListIdentifiers) {
+                return scenario.listIdentifiers(chains, limit);
+            } else {
+                return scenario.listRecords(chains, limit);
+            }
+        } finally {
+            for (OAIFactory factory : factories) {
+                factory.close();
+            }
+        }
+    }
+
+    /**
+     * Create a harvesting object restricted to a prefix, set and window.
+     *
+     * @param chains the chains created so far, the first one holds the targets
+     * @param factories the OAI factories created so far
+     * @param prefixes the prefixes to harvest
+     * @param metadataFactory factory for metadata records
+     * @param prefix the prefix of the chain
+     * @param set the set of the chain, null for none
+     * @param window the window of the chain, null for none
+     * @return the harvesting object
+     */
+    private ListHarvesting createChain(List<ListHarvesting> chains,
+                                       List<OAIFactory> factories,
+                                       List<String> prefixes,
+                                       MetadataFactory metadataFactory,
+                                       String prefix, String set, String[] window) {
+
+        OAIFactory factory = new OAIFactory();
+        if (Main.config != null) {
+            factory.setPrefetchDepth(Main.config.getPrefetchDepth());
+        }
+        factories.add(factory);
+
+        ListHarvesting harvesting;
+        if (scenarioName == CycleProperties.Scenario.ListIdentifiers) {
+            harvesting = new IdentifierListHarvesting(factory,
+                    provider, prefixes, metadataFactory, endpoint);
+        } else {
+            harvesting = new RecordListHarvesting(factory,
+                    provider, prefixes, metadataFactory, endpoint);
+        }
+        harvesting.restrictToPrefix(prefix);
+        if (set != null) {
+            harvesting.restrictToSet(set);
+        }
+        if (window != null) {
+            harvesting.restrictToWindow(window[0], window[1]);
+        }
+        if (!chains.isEmpty()) {
+            harvesting.shareTargets(chains.get(0));
+        }
+        return harvesting;
     }
 
     @Override
-    public void run() {
+    public Boolean call() {
         Throwable t = null;
+        boolean done = false;
+
+        // while waiting to retry, let other workers use the slot
+        RetryScheduler.enter(semaphore);
+
+        /* An exclusive provider waits until no other provider on its host
+           is harvested, and keeps the host to itself until it is done.
+         */
+        HostScheduler.Claim claim = HostScheduler.acquire(provider.getOaiUrl(),
+                provider.isExclusive());
+        if (claim == null) {
+            // interrupted while waiting for the host, nothing was harvested
+            logger.error("Processing cancelled for " + provider + " while waiting for its host");
+            endpoint.doneHarvesting(false);
+            RetryScheduler.leave();
+            semaphore.release();
+            return false;
+        }
+
+        // cancel the harvest if it stops making progress
+        Watchdog.Watch watch = Watchdog.watch(provider);
+
+        // factory for OAI verbs
+        OAIFactory oaiFactory = new OAIFactory();
+        if (Main.config != null) {
+            oaiFactory.setPrefetchDepth(Main.config.getPrefetchDepth());
+        }
+
         try {
             logger.debug("Welcome to OAI Harvest Manager worker!");
-            provider.init();
+            if (provider instanceof StaticProvider || Main.config == null) {
+                provider.init();
+            } else {
+                // reuse the facts about the provider kept in the overview
+                provider.init(endpoint, Main.config.getPreambleTTL() * 3600000L);
+            }
 
 
             // setting specific log filename
             ThreadContext.put("logFileName", Util.toFileFormat(provider.getName()).replaceAll("/", ""));
 
-            boolean done = false;
-
             // factory for metadata records
             MetadataFactory metadataFactory = new MetadataFactory();
 
-            // factory for OAI verbs
-            OAIFactory oaiFactory = new OAIFactory();
-
             logger.info("Processing provider " + provider + " using " + scenarioName + " scenario and timeout " + provider.getTimeout() + " and retry ("+provider.getMaxRetryCount()+","+provider.getRetryDelays()+")");
 
             FileSynchronization.addProviderStatistic(provider);
@@ -192,8 +483,32 @@ class Worker implements Runnable {
                         logger.debug("no prefixes["+prefixes+"] -> done");
                         done = false;
                     } else {
+                        // the progress of a previous harvest, if any
+                        Checkpoint checkpoint = openCheckpoint(actionSequence);
+
+                        // split the lists in date windows, if allowed
+                        List<String[]> windows;
+                        if (checkpoint != null && checkpoint.isResuming()) {
+                            // keep the windows of the harvest resumed
+                            windows = checkpoint.getWindows();
+                        } else {
+                            windows = planWindows(oaiFactory, prefixes);
+                            if (checkpoint != null) {
+                                checkpoint.setWindows(windows);
+                            }
+                        }
+
                         // determine the type of record harvesting to apply
-                        if (scenarioName == CycleProperties.Scenario.ListIdentifiers) {
+                        if (windows != null || prefixes.size() > 1
+                                || (checkpoint != null && checkpoint.isResuming())
+                                || (provider.sets != null
+                                && provider.sets.length > 1
+                                && provider.getMaxSetJobs() > 1)) {
+                            // follow the chains of the prefixes, sets and windows at the same time
+                            done = harvestChains(scenario, prefixes, metadataFactory,
+                                    windows, checkpoint);
+                            logger.debug("concurrent chains -> done[" + done + "]");
+                        } else if (scenarioName == CycleProperties.Scenario.ListIdentifiers) {
                             // kj: annotate, connect verb to scenario
                             harvesting = new IdentifierListHarvesting(oaiFactory,
                                     provider, prefixes, metadataFactory, endpoint);
@@ -202,13 +517,19 @@ class Worker implements Runnable {
                             done = scenario.listIdentifiers(harvesting);
                             logger.debug("list identifiers -> done["+done+"]");
                         } else {
-                            harvesting = new RecordListHarvesting(oaiFactory,
+                            RecordListHarvesting list = new RecordListHarvesting(oaiFactory,
                                     provider, prefixes, metadataFactory, endpoint);
+                            list.setCheckpoint(checkpoint);
+                            harvesting = list;
 
                             // get the records
                             done = scenario.listRecords(harvesting);
                             logger.debug("list records -> done[" + done + "]");
                         }
+                        if (done && checkpoint != null) {
+                            // nothing left to resume
+                            checkpoint.clear();
+                        }
                         if(Main.config.isIncremental() && endpoint.allowIncrementalHarvest()) {
                             FileSynchronization.execute(provider);
                         }
@@ -220,19 +541,31 @@ class Worker implements Runnable {
 
             }
 
+            if (watch.isCancelled()) {
+                // whatever was harvested, the provider did not complete
+                done = false;
+            }
+
             // report back success or failure to the cycle
             endpoint.doneHarvesting(done);
             FileSynchronization.saveStatistics(provider);
             endpoint.setIncrement(FileSynchronization.getProviderStatistic(provider).getHarvestedRecords());
             logger.info("Processing finished for " + provider);
+            logger.info("HTTP transport statistics so far " + TransportFactory.getTransport().getStatistics());
+            return done;
         } catch (Throwable e) {
             logger.error("Processing failed for " + provider+": "+e.getMessage(),e);
             t = e;
             throw e;
         } finally {
+            oaiFactory.close();
             provider.close();
                 
             ThreadContext.clearAll();
+
+            watch.close();
+            claim.release();
+            RetryScheduler.leave();
             
             // tell the main log how it went
             if (t != null)
@@ -277,4 +277,21 @@ public interface Endpoint {
      * @param increment the increment
      */
     void setIncrement (long increment);
+
+    /**
+     * <br> Get the preamble <br><br>
+     *
+     * The facts about the endpoint obtained by means of the Identify and
+     * ListMetadataFormats verbs, the last time they were requested.
+     *
+     * @return the preamble, null if it was never obtained
+     */
+    Preamble getPreamble ();
+
+    /**
+     * <br> Set the preamble
+     *
+     * @param preamble the facts most recently obtained
+     */
+    void setPreamble (Preamble preamble);
 }
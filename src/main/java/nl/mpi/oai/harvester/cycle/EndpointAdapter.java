@@ -19,7 +19,10 @@
 package nl.mpi.oai.harvester.cycle;
 
 import nl.mpi.oai.harvester.generated.EndpointType;
+import nl.mpi.oai.harvester.generated.FormatType;
+import nl.mpi.oai.harvester.generated.FormatsType;
 import nl.mpi.oai.harvester.generated.OverviewType;
+import nl.mpi.oai.harvester.generated.PreambleType;
 import nl.mpi.oai.harvester.generated.ScenarioType;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -28,6 +31,8 @@ import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -400,4 +405,87 @@ class EndpointAdapter implements Endpoint {
         // update the overview
         xmlOverview.save();
     }
+
+    @Override
+    public Preamble getPreamble() {
+
+        PreambleType preambleType = endpointType.getPreamble();
+
+        if (preambleType == null) {
+            // there is no default preamble
+            return null;
+        }
+
+        Preamble preamble = new Preamble();
+        preamble.setName(preambleType.getName());
+        preamble.setDeletedRecord(preambleType.getDeletedRecord());
+        preamble.setGranularity(preambleType.getGranularity());
+        preamble.setEarliestDatestamp(preambleType.getEarliestDatestamp());
+        if (preambleType.getFormats() != null) {
+            List<Preamble.Format> formats = new ArrayList<>();
+            for (FormatType formatType : preambleType.getFormats().getFormat()) {
+                formats.add(new Preamble.Format(formatType.getPrefix(),
+                        formatType.getSchema(), formatType.getNamespace()));
+            }
+            preamble.setFormats(formats);
+        }
+        if (preambleType.getFetched() != null) {
+            // convert XMLGregorianCalendar to DateTime
+            preamble.setFetched(new DateTime(
+                    preambleType.getFetched().toString(), DateTimeZone.UTC));
+        }
+        preamble.setIdentifyETag(preambleType.getIdentifyETag());
+        preamble.setIdentifyLastModified(preambleType.getIdentifyLastModified());
+        preamble.setFormatsETag(preambleType.getFormatsETag());
+        preamble.setFormatsLastModified(preambleType.getFormatsLastModified());
+
+        return preamble;
+    }
+
+    @Override
+    public void setPreamble(Preamble preamble) {
+
+        if (preamble == null) {
+            endpointType.setPreamble(null);
+            xmlOverview.save();
+            return;
+        }
+
+        PreambleType preambleType = xmlOverview.factory.createPreambleType();
+        preambleType.setName(preamble.getName());
+        preambleType.setDeletedRecord(preamble.getDeletedRecord());
+        preambleType.setGranularity(preamble.getGranularity());
+        preambleType.setEarliestDatestamp(preamble.getEarliestDatestamp());
+        if (preamble.getFormats() != null) {
+            FormatsType formatsType = xmlOverview.factory.createFormatsType();
+            for (Preamble.Format format : preamble.getFormats()) {
+                FormatType formatType = xmlOverview.factory.createFormatType();
+                formatType.setPrefix(format.getPrefix());
+                formatType.setSchema(format.getSchema());
+                formatType.setNamespace(format.getNamespace());
+                formatsType.getFormat().add(formatType);
+            }
+            preambleType.setFormats(formatsType);
+        }
+        if (preamble.getFetched() != null) {
+            try {
+                // at the XML level, the date will be in ISO8601 format
+                preambleType.setFetched(DatatypeFactory.newInstance()
+                        .newXMLGregorianCalendar(preamble.getFetched()
+                                .withZone(DateTimeZone.UTC).toGregorianCalendar()));
+            } catch (DatatypeConfigurationException e) {
+                // report the error, leave out the date
+                Logger.getLogger(EndpointAdapter.class.getName()).log(
+                        Level.SEVERE, null, e);
+            }
+        }
+        preambleType.setIdentifyETag(preamble.getIdentifyETag());
+        preambleType.setIdentifyLastModified(preamble.getIdentifyLastModified());
+        preambleType.setFormatsETag(preamble.getFormatsETag());
+        preambleType.setFormatsLastModified(preamble.getFormatsLastModified());
+
+        endpointType.setPreamble(preambleType);
+        // update the overview
+        xmlOverview.save();
+    }
 }
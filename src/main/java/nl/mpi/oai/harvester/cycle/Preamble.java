@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.cycle;
+
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <br> Facts about an endpoint, obtained before harvesting it <br><br>
+ *
+ * Before harvesting records, the harvester needs to know the name of the
+ * endpoint, how it deals with deleted records, and which metadata formats it
+ * supports. The Identify and ListMetadataFormats verbs provide these facts.
+ * Since they hardly ever change, the cycle keeps them in the overview, along
+ * with the date they were obtained. <br><br>
+ *
+ * To check whether or not the facts are still valid, the preamble also keeps
+ * the entity tags and modification dates the endpoint returned with the
+ * responses, if any.
+ *
+ * Note: a null list of formats means that the formats are not known.
+ */
+public class Preamble {
+
+    /**
+     * <br> A metadata format supported by the endpoint
+     */
+    public static class Format {
+
+        private final String prefix;
+        private final String schema;
+        private final String namespace;
+
+        public Format(String prefix, String schema, String namespace) {
+            this.prefix = prefix;
+            this.schema = schema;
+            this.namespace = namespace;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+    }
+
+    private String name = null;
+    private String deletedRecord = null;
+    private String granularity = null;
+    private String earliestDatestamp = null;
+    private List<Format> formats = null;
+
+    private DateTime fetched = null;
+
+    private String identifyETag = null;
+    private String identifyLastModified = null;
+    private String formatsETag = null;
+    private String formatsLastModified = null;
+
+    /**
+     * @return the repository name, null if unknown
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the way the endpoint deals with deleted records, null if unknown
+     */
+    public String getDeletedRecord() {
+        return deletedRecord;
+    }
+
+    public void setDeletedRecord(String deletedRecord) {
+        this.deletedRecord = deletedRecord;
+    }
+
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(String granularity) {
+        this.granularity = granularity;
+    }
+
+    public String getEarliestDatestamp() {
+        return earliestDatestamp;
+    }
+
+    public void setEarliestDatestamp(String earliestDatestamp) {
+        this.earliestDatestamp = earliestDatestamp;
+    }
+
+    /**
+     * @return the metadata formats, null if unknown
+     */
+    public List<Format> getFormats() {
+        return formats == null ? null : Collections.unmodifiableList(formats);
+    }
+
+    public void setFormats(List<Format> formats) {
+        this.formats = formats == null ? null : new ArrayList<>(formats);
+    }
+
+    /**
+     * @return the date the facts were last obtained or confirmed, null if
+     *         unknown
+     */
+    public DateTime getFetched() {
+        return fetched;
+    }
+
+    public void setFetched(DateTime fetched) {
+        this.fetched = fetched;
+    }
+
+    public String getIdentifyETag() {
+        return identifyETag;
+    }
+
+    public void setIdentifyETag(String identifyETag) {
+        this.identifyETag = identifyETag;
+    }
+
+    public String getIdentifyLastModified() {
+        return identifyLastModified;
+    }
+
+    public void setIdentifyLastModified(String identifyLastModified) {
+        this.identifyLastModified = identifyLastModified;
+    }
+
+    public String getFormatsETag() {
+        return formatsETag;
+    }
+
+    public void setFormatsETag(String formatsETag) {
+        this.formatsETag = formatsETag;
+    }
+
+    public String getFormatsLastModified() {
+        return formatsLastModified;
+    }
+
+    public void setFormatsLastModified(String formatsLastModified) {
+        this.formatsLastModified = formatsLastModified;
+    }
+}
@@ -49,6 +49,13 @@ public abstract class AbstractHarvesting implements Harvesting {
      */
     final MetadataFactory metadataFactory;
 
+    /**
+     * <br> The sets to harvest, null if harvesting does not involve sets
+     *
+     * Unless restricted, these are the sets defined for the provider.
+     */
+    String[] sets;
+
     /**
      * <br> Pointer to current set
      *
@@ -109,6 +116,7 @@ public abstract class AbstractHarvesting implements Harvesting {
         if (provider == null){
             throw new HarvestingException();
         }
+        sets = provider.sets;
     }
     
     public MetadataFactory getMetadataFactory() {
@@ -24,7 +24,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.w3c.dom.NodeList;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Objects;
 
 /**
@@ -56,11 +56,15 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
     int nIndex;
 
     /**
-     * <br> A list to store identifier and prefix pairs in. A pair can be in
-     * the list only once, thus ensuring the extending classes to return every
-     * metadata element identified exactly once.
+     * <br> A set to store identifier and prefix pairs in. A pair can be in
+     * the set only once, thus ensuring the extending classes to return every
+     * metadata element identified exactly once. The pairs are kept in the
+     * order in which they were found.
+     *
+     * Note: when sets are harvested concurrently, the harvesting objects
+     * involved share the list.
      */
-    final SortedArrayList targets;
+    TargetSet targets;
     /** <br> pointer to next element to be parsed and returned */
     int tIndex;
 
@@ -77,68 +81,15 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
         nIndex          = 0;
         resumptionToken = null;
         tIndex          = 0;
-        targets         = new SortedArrayList ();
+        targets         = new TargetSet ();
     }
     
-    /**
-     * <br> ArrayList sorted according a to the relation defined on the
-     * elements
-     *
-     * Note: since the class does not depend on the outer class, consider it
-     * static.
-     */
-    static class SortedArrayList extends ArrayList<IdPrefix> {
-        
-        /*
-         * Since this class implements the Serializable interface, declare an
-         * explicit version number. An serialized object in this class will
-         * carry the identification to ensure that an instance of receiving is
-         * compatible in the sense that it can correctly deserialize the object.
-         * Please update the identification whenever the class changes.
-         */
-        private static final long serialVersionUID = 1L;
-
-        /**
-         * <br> Insert an element into the list if and only if it is not already
-         * included in the list.
-         *
-         * @param element he element to be inserted
-         * @return true if the element was inserted, false otherwise
-         */
-        boolean checkAndInsertSorted(IdPrefix element) {
-
-            int i = 0, j;
-
-            for (; ; ) {
-                if (i == this.size()) {
-                    // element not included yet
-                    this.add(element);
-                    return true;
-                }
-                // j = c.compareTo(this.get(i));
-                j = element.compareTo (this.get(i));
-                if (j == 0) {
-                    // found a match, element already in the list
-                    return false;
-                } else {
-                    if (j > 0) {
-                        // there could still be a match, continue
-                        i++;
-                    } else {
-                        // there will not be a match, insert
-                        this.add(i, element);
-                        return true;
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * <br> Pair of identifier and prefix. By the compareTo method the class
      * defines an ordering relation on the pairs.
      * 
-     * Note: like SortedArrayList class, this class can be static.
+     * Note: since the class does not depend on the outer class, consider it
+     * static.
      *
      * Note: because of the ordering relation defined, the class implements
      * an equals method next to the compareTo method.
@@ -235,6 +186,55 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
         }
     }
 
+    /**
+     * <br> Restrict harvesting to a single set <br><br>
+     *
+     * Each set has its own chain of resumption tokens. By restricting a
+     * harvesting object to one of the sets of the provider, the chains can
+     * be followed by different objects at the same time.
+     *
+     * @param set the set
+     */
+    public void restrictToSet(String set) {
+        sets = new String[]{set};
+        sIndex = 0;
+    }
+
+    /**
+     * <br> Restrict harvesting to a single prefix <br><br>
+     *
+     * Like a set, every prefix has its own chain of resumption tokens. Since
+     * the targets are pairs of identifier and prefix, sharing them does not
+     * affect records harvested in different prefixes.
+     *
+     * @param prefix the prefix
+     */
+    public void restrictToPrefix(String prefix) {
+        prefixes = Collections.singletonList(prefix);
+        pIndex = 0;
+    }
+
+    /**
+     * <br> Share the list of targets with another harvesting object <br><br>
+     *
+     * A record found in different sets is then still returned only once.
+     *
+     * @param other the harvesting object to take the list from
+     */
+    public void shareTargets(AbstractListHarvesting other) {
+        targets = other.targets;
+    }
+
+    /**
+     * <br> Release the list of targets <br><br>
+     *
+     * A large list is kept in temporary files. Invoke the method when the
+     * targets are no longer needed, also when listing them failed.
+     */
+    void closeTargets() {
+        targets.close();
+    }
+
     /**
      * <br> Determine if a client scenario should make another request to the
      * endpoint. At first, iterate over the resumption tokens the endpoint
@@ -250,7 +250,7 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
      *
      * otherwise: <br><br>
      *
-     * pIndex &lt;= prefixes.size &amp;&amp; sIndex &lt;= provider.sets.length <br><br>
+     * pIndex &lt;= prefixes.size &amp;&amp; sIndex &lt;= sets.length <br><br>
      *
      * @return true if the endpoint could still have metadata available
      *         associated with the set and prefix indicated by pIndex and
@@ -263,10 +263,10 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
         if (pIndex > prefixes.size()){
             throw new HarvestingException();
         }
-        if (provider.sets == null){
+        if (sets == null){
             // harvesting does not involve sets
         } else {
-            if (sIndex > provider.sets.length){
+            if (sIndex > sets.length){
                 throw new HarvestingException();
             }
         }
@@ -276,12 +276,12 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
             return true;
         } else {
             // no need to resume requesting within the current set and prefix
-            if (provider.sets == null) {
+            if (sets == null) {
                 pIndex++;
                 return pIndex != prefixes.size(); // done
             } else {
                 sIndex++;
-                if (sIndex == provider.sets.length) {
+                if (sIndex == sets.length) {
                     // try the next prefix
                     sIndex = 0;
                     pIndex++;
@@ -289,7 +289,7 @@ abstract public class AbstractListHarvesting extends AbstractHarvesting
                 } else {
                     // try the next set
                     logger.debug("Requesting records in the "
-                            + provider.sets[sIndex] + " set");
+                            + sets[sIndex] + " set");
                     return true;
                 }
             }
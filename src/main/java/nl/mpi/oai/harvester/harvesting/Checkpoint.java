@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * <br> A journal of the progress of harvesting a provider <br><br>
+ *
+ * For every list, a combination of prefix, set and date window, the journal
+ * records the resumption token of the last page the actions were applied
+ * to, the number of records in the pages up to it, and whether the list was
+ * completed. It also records the date windows the lists were split in, so
+ * that a harvest resumed later on uses the same windows, and the number of
+ * the next response, so that a harvest resumed later on does not overwrite
+ * the responses saved before. <br><br>
+ *
+ * The journal is kept in a properties file, one for every provider. It is
+ * rewritten after every page, and removed once the provider has been
+ * harvested successfully. If the harvest is interrupted, the file remains,
+ * and the next harvest of the provider continues where it left off. <br><br>
+ *
+ * Note: the lists of a provider can be harvested at the same time, so the
+ * methods of this class are synchronized.
+ */
+public final class Checkpoint {
+
+    private static final Logger logger = LogManager.getLogger(Checkpoint.class);
+
+    private static final String WINDOWS = "windows";
+    private static final String PAGES = "pages";
+    private static final String TOKEN = ".token";
+    private static final String RECORDS = ".records";
+    private static final String DONE = ".done";
+
+    // the file the journal is kept in
+    private final Path file;
+
+    // the contents of the journal
+    private final Properties properties = new Properties();
+
+    // true if the journal was left behind by a previous harvest
+    private final boolean resuming;
+
+    private Checkpoint(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        resuming = !properties.isEmpty();
+    }
+
+    /**
+     * <br> Open the journal kept in a file, creating it if needed
+     *
+     * @param file the file
+     * @return the journal, or null if the file could not be read
+     */
+    public static Checkpoint open(Path file) {
+        try {
+            Checkpoint checkpoint = new Checkpoint(file);
+            if (checkpoint.resuming) {
+                logger.info("resuming the harvest journaled in " + file);
+            }
+            return checkpoint;
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("cannot read the journal in " + file + ": " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if a previous harvest left progress behind, false otherwise
+     */
+    public boolean isResuming() {
+        return resuming;
+    }
+
+    /**
+     * <br> Get the date windows the lists were split in
+     *
+     * @return the windows as from and until pairs, or null if none were
+     *         recorded
+     */
+    public synchronized List<String[]> getWindows() {
+        String value = properties.getProperty(WINDOWS);
+        if (value == null) {
+            return null;
+        }
+        List<String[]> windows = new ArrayList<>();
+        for (String window : value.split(";")) {
+            windows.add(window.split(" ", 2));
+        }
+        return windows;
+    }
+
+    /**
+     * <br> Record the date windows the lists are split in
+     *
+     * @param windows the windows as from and until pairs, null for none
+     */
+    public synchronized void setWindows(List<String[]> windows) {
+        if (windows == null) {
+            properties.remove(WINDOWS);
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (String[] window : windows) {
+                if (sb.length() > 0) {
+                    sb.append(';');
+                }
+                sb.append(window[0]).append(' ').append(window[1]);
+            }
+            properties.setProperty(WINDOWS, sb.toString());
+        }
+        save();
+    }
+
+    /**
+     * @return the number of the next response of the provider, 0 if none
+     *         were numbered before
+     */
+    synchronized int getNextPage() {
+        return Integer.parseInt(properties.getProperty(PAGES, "0"));
+    }
+
+    /**
+     * <br> Record that a response was numbered <br><br>
+     *
+     * The number is written with the next commit. A response numbered but
+     * not committed is requested again when resuming, and may get the same
+     * number again.
+     *
+     * @param page the number of the response
+     */
+    synchronized void takePage(int page) {
+        if (page >= getNextPage()) {
+            properties.setProperty(PAGES, Integer.toString(page + 1));
+        }
+    }
+
+    /**
+     * @param list the name of the list
+     * @return the resumption token to continue the list with, null if the
+     *         list should be requested from the start
+     */
+    synchronized String getToken(String list) {
+        return properties.getProperty(list + TOKEN);
+    }
+
+    /**
+     * @param list the name of the list
+     * @return the number of records in the pages committed
+     */
+    synchronized long getRecords(String list) {
+        return Long.parseLong(properties.getProperty(list + RECORDS, "0"));
+    }
+
+    /**
+     * @param list the name of the list
+     * @return true if all pages of the list have been committed
+     */
+    public synchronized boolean isDone(String list) {
+        return Boolean.parseBoolean(properties.getProperty(list + DONE));
+    }
+
+    /**
+     * <br> Commit a page of a list, after the actions were applied to it
+     *
+     * @param list the name of the list
+     * @param token the resumption token in the page, null or empty if it is
+     *              the last one
+     * @param records the number of records in the page
+     */
+    synchronized void commit(String list, String token, long records) {
+        properties.setProperty(list + RECORDS, Long.toString(getRecords(list) + records));
+        if (token == null || token.isEmpty()) {
+            properties.remove(list + TOKEN);
+            properties.setProperty(list + DONE, "true");
+        } else {
+            properties.setProperty(list + TOKEN, token);
+        }
+        save();
+    }
+
+    /**
+     * <br> Forget the progress of a list, so that it is requested from the
+     * start again
+     *
+     * @param list the name of the list
+     */
+    synchronized void restart(String list) {
+        properties.remove(list + TOKEN);
+        properties.remove(list + RECORDS);
+        properties.remove(list + DONE);
+        save();
+    }
+
+    /**
+     * <br> Remove the journal, the harvest completed
+     */
+    public synchronized void clear() {
+        properties.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * <br> Write the journal, replacing the previous version at once, so that
+     * an interruption does not leave a partial file behind
+     */
+    private void save() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "harvest progress");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("cannot write the journal in " + file + ": " + e.getMessage(), e);
+        }
+    }
+}
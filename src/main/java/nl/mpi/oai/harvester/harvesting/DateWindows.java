@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.cycle.Preamble;
+import nl.mpi.oai.harvester.utils.ResponseSummary;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <br> Split the datestamps of an endpoint into windows <br><br>
+ *
+ * A list is harvested by following a chain of resumption tokens, every
+ * request has to wait for the previous one. By restricting the requests to
+ * windows of datestamps by means of the from and until arguments, a list can
+ * be split into chains that can be followed at the same time. <br><br>
+ *
+ * The number of windows follows from a probe: the first page of the list of
+ * identifiers. It reveals the number of records per page and, if the endpoint
+ * reports it, the size of the complete list. A list that fits in a single
+ * page is not split. <br><br>
+ *
+ * Note: the from and until arguments are inclusive, so the windows are
+ * separated by one unit of the granularity of the endpoint.
+ */
+public final class DateWindows {
+
+    private static final Logger logger = LogManager.getLogger(DateWindows.class);
+
+    /** The granularity of an endpoint supporting seconds. */
+    public static final String SECONDS = "YYYY-MM-DDThh:mm:ssZ";
+
+    // number of windows per concurrent chain, to even out busy periods
+    private static final int WINDOWS_PER_JOB = 4;
+
+    private static final DateTimeFormatter DAY_FORMAT =
+            DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+    private static final DateTimeFormatter SECOND_FORMAT =
+            DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZoneUTC();
+
+    private DateWindows() {
+    }
+
+    /**
+     * <br> Plan the windows for harvesting a provider <br><br>
+     *
+     * The windows cover the datestamps from the earliest one the endpoint
+     * reported in its Identify response, or the date given, up to now.
+     *
+     * @param oaiFactory factory for the probe request
+     * @param provider the provider, its preamble should be known
+     * @param prefix the prefix to probe the list with
+     * @param set the set to probe the list with, null for none
+     * @param from the first date to harvest, null for the earliest datestamp
+     * @param jobs the number of windows that will be harvested at the same time
+     * @return the windows as from and until pairs, or null if the list
+     *         should not be split
+     */
+    public static List<String[]> plan(OAIFactory oaiFactory, Provider provider,
+                                      String prefix, String set, String from, int jobs) {
+
+        Preamble preamble = provider.getPreamble();
+        if (preamble == null) {
+            logger.info("Identify facts of " + provider + " unknown, not splitting the list");
+            return null;
+        }
+        boolean seconds = SECONDS.equals(preamble.getGranularity());
+
+        DateTime start = parse(from != null ? from : preamble.getEarliestDatestamp());
+        if (start == null) {
+            logger.info("earliest datestamp of " + provider + " unknown, not splitting the list");
+            return null;
+        }
+        DateTime end = new DateTime(DateTimeZone.UTC);
+
+        // probe the list
+        ResponseSummary summary = null;
+        try {
+            if (oaiFactory.createListIdentifiers(provider.getOaiUrl(), format(start, seconds),
+                    format(end, seconds), set, prefix, provider.getTimeout()) != null) {
+                summary = oaiFactory.getResponseSummary();
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+        if (summary == null) {
+            logger.info("probe of " + provider + " failed, not splitting the list");
+            return null;
+        }
+
+        int count = count(summary.getCompleteListSize(), summary.getRecordCount(),
+                summary.getResumptionToken(), jobs);
+        if (count <= 1) {
+            return null;
+        }
+
+        List<String[]> windows = split(start, end, count, seconds);
+        logger.info("split the " + prefix + " list of " + provider + " in "
+                + windows.size() + " windows, based on "
+                + summary.getRecordCount() + " records per page and a list of "
+                + summary.getCompleteListSize());
+        return windows;
+    }
+
+    /**
+     * <br> Determine the number of windows
+     *
+     * @param listSize the size of the complete list, -1 if unknown
+     * @param pageSize the number of records in the first page
+     * @param token the resumption token of the first page, null or empty if
+     *              there is none
+     * @param jobs the number of windows that will be harvested at the same
+     *             time
+     * @return the number of windows
+     */
+    static int count(long listSize, int pageSize, String token, int jobs) {
+
+        if (token == null || token.isEmpty()) {
+            // a single page
+            return 1;
+        }
+        int max = jobs * WINDOWS_PER_JOB;
+        if (listSize < 0 || pageSize <= 0) {
+            return max;
+        }
+        long pages = (listSize + pageSize - 1) / pageSize;
+        return (int) Math.max(1, Math.min(max, pages));
+    }
+
+    /**
+     * <br> Split a period into windows of about the same length
+     *
+     * @param start the start of the period
+     * @param end the end of the period
+     * @param count the number of windows
+     * @param seconds true if the endpoint supports seconds, false if days
+     * @return the windows as from and until pairs, both inclusive
+     */
+    static List<String[]> split(DateTime start, DateTime end, int count, boolean seconds) {
+
+        long unit = seconds ? 1000L : 24L * 3600L * 1000L;
+        long first = start.getMillis() / unit;
+        long last = end.getMillis() / unit;
+        long units = Math.max(1, last - first + 1);
+        count = (int) Math.min(count, units);
+
+        List<String[]> windows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long from = first + units * i / count;
+            long until = first + units * (i + 1) / count - 1;
+            windows.add(new String[]{
+                    format(new DateTime(from * unit, DateTimeZone.UTC), seconds),
+                    format(new DateTime(until * unit, DateTimeZone.UTC), seconds)});
+        }
+        return windows;
+    }
+
+    private static String format(DateTime date, boolean seconds) {
+        return seconds ? SECOND_FORMAT.print(date) : DAY_FORMAT.print(date);
+    }
+
+    /**
+     * <br> Interpret a datestamp
+     *
+     * @param datestamp a date, or a date and time
+     * @return the date, or null if it could not be interpreted
+     */
+    static DateTime parse(String datestamp) {
+        if (datestamp == null) {
+            return null;
+        }
+        try {
+            return ISODateTimeFormat.dateTimeParser().withZoneUTC()
+                    .parseDateTime(datestamp.trim());
+        } catch (IllegalArgumentException e) {
+            logger.warn("cannot interpret datestamp[" + datestamp + "]");
+            return null;
+        }
+    }
+}
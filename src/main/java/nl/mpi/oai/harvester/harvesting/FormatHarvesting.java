@@ -22,6 +22,7 @@ package nl.mpi.oai.harvester.harvesting;
 import nl.mpi.oai.harvester.Provider;
 import nl.mpi.oai.harvester.action.ActionSequence;
 import nl.mpi.oai.harvester.control.Util;
+import nl.mpi.oai.harvester.cycle.Preamble;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.w3c.dom.Document;
@@ -101,6 +102,20 @@ public class FormatHarvesting extends AbstractHarvesting implements
         
         logger.debug("Requesting formats matching " + actions.getInputFormat());
 
+        // the formats might be known already
+        Preamble preamble = provider.getPreamble();
+        if (preamble != null && preamble.getFormats() != null) {
+            try {
+                document = new DocumentSource(provider.oaiUrl + "?verb=ListMetadataFormats",
+                        PreambleCache.toListMetadataFormats(preamble));
+                logger.debug("Formats of " + provider.oaiUrl + " from " + preamble.getFetched());
+                return true;
+            } catch (ParserConfigurationException e) {
+                // request the formats instead
+                logger.error(e.getMessage(), e);
+            }
+        }
+
         int i = 0;
         for (;;) {
             try {
@@ -124,14 +139,7 @@ public class FormatHarvesting extends AbstractHarvesting implements
                             provider.getOaiUrl());
                     return false;
                 } else {
-                    int retryDelay = provider.getRetryDelay(i-1);
-                    if (retryDelay > 0) {
-                        try {
-                            Thread.sleep(retryDelay);
-                        } catch (InterruptedException e) {
-                            logger.error(e.getMessage(), e);
-                        }
-                    }
+                    provider.awaitRetry(i-1);
                 }
             } else {
                 // response contains a list of prefixes
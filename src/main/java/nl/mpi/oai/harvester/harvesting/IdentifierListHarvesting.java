@@ -34,7 +34,6 @@ import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -61,6 +60,30 @@ public class IdentifierListHarvesting extends ListHarvesting
     
     private static final Logger logger = LogManager.getLogger(
             IdentifierListHarvesting.class);
+
+    // number of identifiers kept in memory before they are moved to disk
+    private static volatile int spillThreshold = 500000;
+
+    /**
+     * <br> Set the number of identifiers kept in memory <br><br>
+     *
+     * Beyond this number, the identifiers found so far are sorted and
+     * written to a temporary file, and merged before the records are
+     * requested.
+     *
+     * @param threshold the number of identifiers, 0 or less to keep all of
+     *                  them in memory
+     */
+    public static void setSpillThreshold(int threshold) {
+        spillThreshold = threshold;
+    }
+
+    /**
+     * @return the number of identifiers kept in memory
+     */
+    public static int getSpillThreshold() {
+        return spillThreshold;
+    }
     
     /**
      * Associate endpoint and prefixes with the protocol
@@ -79,6 +102,8 @@ public class IdentifierListHarvesting extends ListHarvesting
         message [0] = "Requesting more identifiers of records with prefix ";
         message [1] = "Requesting identifiers of records with prefix ";
         message [2] = "Cannot get identifiers of ";
+        // the list of identifiers could be too large to keep in memory
+        targets     = new SpillingTargetSet(spillThreshold);
     }
     
     /**
@@ -116,7 +141,7 @@ public class IdentifierListHarvesting extends ListHarvesting
      */
     @Override
     public DocumentSource verb5(String p1, String p2, String p3, String p4,
-            String p5, int timeout, Path temp) throws
+            String p5, int timeout) throws
             IOException,
             ParserConfigurationException,
             SAXException,
@@ -197,7 +222,7 @@ public class IdentifierListHarvesting extends ListHarvesting
             /* Try to insert the pair in the list. No problem if it is already
                there.
              */
-            targets.checkAndInsertSorted(pair);
+            targets.checkAndInsert(pair);
         }
         
         return true;
@@ -223,10 +248,35 @@ public class IdentifierListHarvesting extends ListHarvesting
         }
 
         // the targets are in place and tIndex points to an element in the list
+        return getRecord(nextTarget(), oaiFactory);
+    }
+
+    /**
+     * <br> Take the next identifier and prefix pair from the list of targets
+     *
+     * @return the pair
+     */
+    IdPrefix nextTarget() {
+
         IdPrefix pair = targets.get(tIndex);
         tIndex++;
+        return pair;
+    }
+
+    /**
+     * <br> Get the record a pair of identifier and prefix refers to <br><br>
+     *
+     * Note: to get records at the same time, every request should use an
+     * OAI factory of its own.
+     *
+     * @param pair the identifier and prefix
+     * @param factory the factory for the GetRecord verb
+     * @return the record, or null if it could not be obtained
+     */
+    Object getRecord(IdPrefix pair, OAIFactory factory) {
+
         // get the record for the identifier and prefix
-        RecordHarvesting p = new RecordHarvesting(oaiFactory, provider,
+        RecordHarvesting p = new RecordHarvesting(factory, provider,
                 pair.prefix, pair.identifier, metadataFactory);
 
         if (! p.request()) {
@@ -24,6 +24,8 @@ import nl.mpi.oai.harvester.control.Main;
 import nl.mpi.oai.harvester.cycle.Endpoint;
 import nl.mpi.oai.harvester.metadata.MetadataFactory;
 import nl.mpi.oai.harvester.utils.DocumentSource;
+import nl.mpi.oai.harvester.utils.ResponseSummary;
+import nl.mpi.oai.harvester.utils.Statistic;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.xml.sax.SAXException;
@@ -32,7 +34,6 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -62,6 +63,22 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
      */
     final static String[] message = new String [3];
     final Endpoint endpoint;
+
+    /**
+     * The window of datestamps to restrict the requests to, if any. A null
+     * window overrides the dates of incremental harvesting.
+     */
+    private boolean windowed = false;
+    private String windowFrom = null;
+    private String windowUntil = null;
+
+    /**
+     * The journal to commit the pages to, if any, and whether the current
+     * list continues from a token taken from it
+     */
+    private Checkpoint checkpoint = null;
+    private boolean resuming = false;
+
     /**
      * Associate endpoint data and desired prefix
      * 
@@ -128,7 +145,7 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
      * @throws NoSuchFieldException introspection problem
      */
     abstract DocumentSource verb5(String endpoint, String fromDate, String untilDate, String metadataPrefix,
-            String set, int timeout, Path temp)
+            String set, int timeout)
             throws 
             IOException,
             ParserConfigurationException,
@@ -165,9 +182,9 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
         if (pIndex >= prefixes.size()) {
             throw new HarvestingException();
         }
-        if (provider.sets != null) {
+        if (sets != null) {
             // if sets have been defined, the sIndex should be pointing to one
-            if (sIndex >= provider.sets.length) {
+            if (sIndex >= sets.length) {
                 throw new HarvestingException();
             }
         }
@@ -187,7 +204,11 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
           incremental = Main.config.isIncremental();
         }
 
-        if(incremental && endpoint != null) {
+        if (windowed) {
+            // the window takes incremental harvesting into account
+            fromDate = windowFrom;
+            untilDate = windowUntil;
+        } else if(incremental && endpoint != null) {
             untilDate = formatter.format(new Date());
             if (endpoint.allowIncrementalHarvest()) {
                 if (endpoint.getHarvestedDate() != null) {
@@ -196,12 +217,28 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
             }
         }
 
+        // continue the list where a previous harvest left off
+        if (checkpoint != null
+                && (resumptionToken == null || resumptionToken.isEmpty())) {
+            String token = checkpoint.getToken(listName());
+            if (token != null) {
+                logger.info("resuming " + listName() + " of " + provider.oaiUrl
+                        + " after " + checkpoint.getRecords(listName()) + " records");
+                resumptionToken = token;
+                resuming = true;
+            }
+        }
+
         // number of requests attempted
         int i = 0;
         for (; ; ) {
             // assume request will complete successfully
             boolean done = true;
 
+            // the first page of a list is requested without a token
+            boolean first = resumptionToken == null || resumptionToken.isEmpty();
+            long sent = System.currentTimeMillis();
+
             // try the request
             try {
                 /* Try to get a response from the endpoint. Because of the
@@ -216,29 +253,36 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
                 } else {
                     logger.debug(message[1] + prefixes.get(pIndex));
 
-                    if (provider.sets == null) {
+                    if (sets == null) {
                         // no sets specified, ask for records by prefix
 
 
                         document = verb5(provider.oaiUrl, fromDate, untilDate,
                                 null,
                                 prefixes.get(pIndex),
-                                provider.getTimeout(),
-                                provider.temp);
+                                provider.getTimeout());
                     } else {
                         // request targets for a new set and prefix combination
                         document = verb5(provider.oaiUrl, fromDate, untilDate,
-                                provider.sets[sIndex],
+                                sets[sIndex],
                                 prefixes.get(pIndex),
-                                provider.getTimeout(),
-                                provider.temp);
+                                provider.getTimeout());
                     }
                 }
 
+                if (resuming && isExpired()) {
+                    // the endpoint no longer knows the token, start over
+                    restartList();
+                    continue;
+                }
+
                 // check if more records would be available
                 resumptionToken = getToken();
-                if( FileSynchronization.getProviderStatistic(provider) !=null)
-                    FileSynchronization.getProviderStatistic(provider).incRequestCount();
+                Statistic statistic = FileSynchronization.getProviderStatistic(provider);
+                if( statistic !=null) {
+                    statistic.incRequestCount();
+                    trackProgress(statistic, first, sent);
+                }
             } catch (IOException
                     | ParserConfigurationException
                     | SAXException
@@ -256,45 +300,171 @@ public abstract class ListHarvesting extends AbstractListHarvesting implements
             // tried the request
 
             if (done) {
-                if (provider.sets == null) {
+                resuming = false;
+                if (sets == null) {
                     logger.info("retrieved " + prefixes.get(pIndex)
                             + " records from endpoint " + provider.oaiUrl + (i > 0 ? " after " + (i + 1) + " tries" : ""));
 
                 } else {
                     logger.info("retrieved " + prefixes.get(pIndex)
-                            + " records in set " + provider.sets[sIndex]
+                            + " records in set " + sets[sIndex]
                             + " from endpoint " + provider.oaiUrl + (i > 0 ? " after " + (i + 1) + " tries" : ""));
                 }
                 // the request completed successfully
                 return true;
             } else {
                 i++;
+                if (i == provider.maxRetryCount && resuming) {
+                    // the token might have expired, start over
+                    restartList();
+                    i = 0;
+                    continue;
+                }
                 if (i == provider.maxRetryCount) {
-                    if (provider.sets == null) {
+                    if (sets == null) {
                         logger.error(message[2] + prefixes.get(pIndex)
                                 + " records from endpoint " + provider.oaiUrl + " after " + i + " tries!");
 
                     } else {
                         logger.error(message[2] + prefixes.get(pIndex)
-                                + " records in set " + provider.sets[sIndex]
+                                + " records in set " + sets[sIndex]
                                 + " from endpoint " + provider.oaiUrl + " after " + i + " tries!");
                     }
                     // do not retry any more, try another prefix instead
                     return false;
                 }
                 // retry the request once more
-                int retryDelay = provider.getRetryDelay(i-1);
-                if (retryDelay > 0) {
-                    try {
-                        Thread.sleep(retryDelay);
-                    } catch (InterruptedException e) {
-                        logger.error(e.getMessage(), e);
-                    }
-                }
+                provider.awaitRetry(i-1);
             }
         }
     }
 
+    /**
+     * <br> Restrict the requests to a window of datestamps <br><br>
+     *
+     * Like a set, a window has its own chain of resumption tokens. By
+     * restricting harvesting objects to different windows, a list can be
+     * harvested by following several chains at the same time.
+     *
+     * @param from the first datestamp, inclusive
+     * @param until the last datestamp, inclusive
+     */
+    public void restrictToWindow(String from, String until) {
+        windowed = true;
+        windowFrom = from;
+        windowUntil = until;
+    }
+
+    /**
+     * <br> Journal the progress of harvesting <br><br>
+     *
+     * With a journal, every list continues from the last page committed to
+     * it by a previous harvest, if any.
+     *
+     * @param checkpoint the journal
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the journal, or null if progress is not journaled
+     */
+    Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * <br> Check if a previous harvest completed the current list
+     *
+     * @return true if the journal records the list as done, false otherwise
+     */
+    public boolean isListDone() {
+        return checkpoint != null && checkpoint.isDone(listName());
+    }
+
+    /**
+     * <br> Prepare committing the page last received to the journal <br><br>
+     *
+     * The commit is to be run once the actions have been applied to the
+     * page. Since that might happen on another thread, after the next page
+     * was requested, the commit keeps the state of the list at this point.
+     *
+     * @return the commit, or null if progress is not journaled
+     */
+    Runnable pageCommit() {
+        if (checkpoint == null) {
+            return null;
+        }
+        ResponseSummary summary = oaiFactory.getResponseSummary();
+        final Checkpoint journal = checkpoint;
+        final String list = listName();
+        final String token = resumptionToken;
+        final long records = summary == null ? 0 : summary.getRecordCount();
+        return () -> journal.commit(list, token, records);
+    }
+
+    /**
+     * @return true if the endpoint reported the resumption token to be bad
+     */
+    private boolean isExpired() {
+        ResponseSummary summary = oaiFactory.getResponseSummary();
+        return summary != null
+                && summary.getErrorCodes().contains("badResumptionToken");
+    }
+
+    /**
+     * <br> Request the current list from the start, because the token taken
+     * from the journal could not be used. In case of a window, only the
+     * window is harvested again.
+     */
+    private void restartList() {
+        logger.warn("cannot resume " + listName() + " of " + provider.oaiUrl
+                + ", requesting it from the start");
+        checkpoint.restart(listName());
+        resumptionToken = null;
+        resuming = false;
+    }
+
+    /**
+     * <br> Name the current list, the combination of prefix, set and window
+     *
+     * @return the name
+     */
+    String listName() {
+        String list = prefixes.get(pIndex);
+        if (sets != null) {
+            list = list + " in set " + sets[sIndex];
+        }
+        if (windowed) {
+            list = list + " from " + windowFrom + " until " + windowUntil;
+        }
+        return list;
+    }
+
+    /**
+     * <br> Account for the page received in the statistic of the provider <br><br>
+     *
+     * The progress is kept per prefix and set combination. It is derived
+     * from the summary of the response, nothing is recorded for a response
+     * that was not harvested over HTTP.
+     *
+     * @param statistic the statistic of the provider
+     * @param first true if the page is the first one of the list
+     * @param sent the time the request for the page was sent
+     */
+    void trackProgress(Statistic statistic, boolean first, long sent) {
+
+        ResponseSummary summary = oaiFactory.getResponseSummary();
+        if (summary == null) {
+            return;
+        }
+
+        Statistic.Progress progress = statistic.addPage(listName(), first, summary, sent);
+
+        logger.info("progress of " + provider.oaiUrl + " " + progress);
+    }
+
     /**
      * <br> Get the response <br><br>
      *
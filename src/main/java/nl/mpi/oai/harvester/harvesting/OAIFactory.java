@@ -19,7 +19,11 @@
 package nl.mpi.oai.harvester.harvesting;
 
 import ORG.oclc.oai.harvester2.verb.*;
+import nl.mpi.oai.harvester.Provider;
 import nl.mpi.oai.harvester.utils.DocumentSource;
+import nl.mpi.oai.harvester.utils.ResponseSummary;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -27,6 +31,15 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <br> Factory for OAI protocol objects <br><br>
@@ -35,17 +48,80 @@ import java.nio.file.Path;
  * the origin of OAI response type objects can be influenced. Instead of getting
  * a real response from an OAI endpoint, a test helper can mock a response. In
  * this way a helper takes over the role of an OAI provider.
+ * <p>
+ * When harvesting ListRecords responses over HTTP, the factory can request
+ * the pages following a resumption token in the background, while the client
+ * is still processing the current page. The prefetch depth determines how
+ * many pages the factory may request ahead. Every page is spooled to a file
+ * of its own, obtained from the provider.
  *
  * @author Kees Jan van de Looij (Max Planck Institute for Psycholinguistics)
  */
 public class OAIFactory {
 
+    private static final Logger logger = LogManager.getLogger(OAIFactory.class);
+
+    // threads requesting pages ahead, shared by all factories
+    private static final ExecutorService prefetcher = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                private final AtomicInteger n = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "oai-prefetch-" + n.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     // an object implementing the OAI interface
     OAIInterface oaiInterface = null;
 
     // for some verbs, remember the resumption token
     private String resumptionToken = null;
 
+    // facts about the most recent response, collected while harvesting
+    private ResponseSummary summary = null;
+
+    // number of pages to request ahead of the page being processed
+    private int prefetchDepth = 0;
+
+    // pages requested ahead, by resumption token
+    private final Map<String, Future<Page>> prefetched = new HashMap<>();
+
+    // incremented whenever the pages requested ahead are discarded
+    private int generation = 0;
+
+    // the request the pages requested ahead follow from
+    private String prefetchEndpoint = null;
+    private String prefetchToken = null;
+    private int prefetchTimeout = 0;
+    private Provider prefetchProvider = null;
+
+    // the spool of the page handed out most recently
+    private Path spool = null;
+
+    // after closing, the factory does not request pages ahead anymore
+    private boolean closed = false;
+
+    /**
+     * <br> A ListRecords page requested ahead
+     */
+    private static class Page {
+
+        // the response, null if the request failed
+        ListRecords verb = null;
+
+        // the token in the response
+        String resumptionToken = null;
+
+        // the file the response was spooled to
+        Path spool = null;
+
+        // the reason the request failed
+        Exception failure = null;
+    }
+
     /**
      * <br> Connect an object that implements the OAI interface <br><br>
      * <p>
@@ -86,6 +162,7 @@ public class OAIFactory {
             try {
                 HarvesterVerb verb = new ListMetadataFormats(endpointURI, timeout);
                 response = verb.getDocumentSource();
+                summary = verb.getSummary();
             } catch (IOException
                     | ParserConfigurationException
                     | SAXException
@@ -95,6 +172,7 @@ public class OAIFactory {
             }
         } else {
             // let the object connected return the OAI response
+            summary = null;
             response = oaiInterface.newListMetadata(endpointURI);
         }
 
@@ -104,11 +182,15 @@ public class OAIFactory {
     /**
      * <br> Create a list records object <br><br>
      *
+     * If the page following the resumption token was requested ahead, the
+     * factory returns that page instead of sending the request again.
+     *
      * @param endpoint the endpoint URI
      * @param resumptionToken the resumption token
+     * @param provider the provider, supplying the file to spool to
      * @return the OAI response
      */
-    DocumentSource createListRecords(String endpoint, String resumptionToken, int timeout, Path temp) throws
+    DocumentSource createListRecords(String endpoint, String resumptionToken, int timeout, Provider provider) throws
             IOException,
             ParserConfigurationException,
             SAXException,
@@ -124,21 +206,35 @@ public class OAIFactory {
         // check if the client connected an object the interface
         if (oaiInterface == null) {
             // no object connected
-            try {
-                HarvesterVerb verb = new ListRecords(endpoint, resumptionToken, timeout, temp);
-                response = verb.getDocumentSource();
-                this.resumptionToken = ((ListRecords) verb).getResumptionToken();
-            } catch (IOException
-                    | ParserConfigurationException
-                    | SAXException
-                    | TransformerException
-                    | NoSuchFieldException
-                    | XMLStreamException e) {
-                e.printStackTrace();
-                throw(e);
+            Page page = takePrefetched(resumptionToken);
+            if (page != null) {
+                response = page.verb.getDocumentSource();
+                summary = page.verb.getSummary();
+                this.resumptionToken = page.resumptionToken;
+                replaceSpool(provider, page.spool);
+            } else {
+                Path next = provider.createSpool();
+                try {
+                    ListRecords verb = new ListRecords(endpoint, resumptionToken, timeout, next);
+                    response = verb.getDocumentSource();
+                    summary = verb.getSummary();
+                    this.resumptionToken = verb.getResumptionToken();
+                } catch (IOException
+                        | ParserConfigurationException
+                        | SAXException
+                        | TransformerException
+                        | NoSuchFieldException
+                        | XMLStreamException e) {
+                    provider.deleteSpool(next);
+                    e.printStackTrace();
+                    throw(e);
+                }
+                replaceSpool(provider, next);
             }
+            prefetch(endpoint, this.resumptionToken, timeout, provider);
         } else {
             // let the object connected return the OAI response
+            summary = null;
 
             response = oaiInterface.newListRecords(endpoint, resumptionToken);
             this.resumptionToken = oaiInterface.getResumptionToken();
@@ -155,10 +251,11 @@ public class OAIFactory {
      * @param untilDate the end of the date window on the records
      * @param set the set the records should be in
      * @param metadataPrefix the metadata prefix the records should have
+     * @param provider the provider, supplying the file to spool to
      * @return the OAI response
      */
     DocumentSource createListRecords(String endpoint, String fromDate, String untilDate, String set,
-                               String metadataPrefix, int timeout, Path temp) throws
+                               String metadataPrefix, int timeout, Provider provider) throws
             IOException,
             ParserConfigurationException,
             SAXException,
@@ -173,22 +270,29 @@ public class OAIFactory {
 
         // check if the client connected an object the interface
         if (oaiInterface == null) {
-            // no object connected
+            // no object connected, a new list makes pages requested ahead useless
+            discardPrefetched();
+            Path next = provider.createSpool();
             try {
-                HarvesterVerb verb = new ListRecords(endpoint, fromDate, untilDate, set, metadataPrefix, timeout, temp);
+                ListRecords verb = new ListRecords(endpoint, fromDate, untilDate, set, metadataPrefix, timeout, next);
                 response = verb.getDocumentSource();
-                resumptionToken = ((ListRecords) verb).getResumptionToken();
+                summary = verb.getSummary();
+                resumptionToken = verb.getResumptionToken();
             } catch (IOException
                     | ParserConfigurationException
                     | SAXException
                     | TransformerException
                     | NoSuchFieldException
                     | XMLStreamException e) {
+                provider.deleteSpool(next);
                 e.printStackTrace();
                 throw(e);
             }
+            replaceSpool(provider, next);
+            prefetch(endpoint, resumptionToken, timeout, provider);
         } else {
             // let the object connected return the OAI response
+            summary = null;
 
             response = oaiInterface.newListRecords(endpoint, fromDate, untilDate, set, metadataPrefix);
             resumptionToken = oaiInterface.getResumptionToken();
@@ -203,9 +307,11 @@ public class OAIFactory {
      * @param endpoint the endpoint URI
      * @param recordIdentifier the record identifier
      * @param metadataPrefix the metadata prefix
+     * @param timeout the timeout in seconds
      * @return the OAI response
      */
-    DocumentSource createGetRecord(String endpoint, String recordIdentifier, String metadataPrefix) throws
+    DocumentSource createGetRecord(String endpoint, String recordIdentifier,
+                                   String metadataPrefix, int timeout) throws
             IOException,
             ParserConfigurationException,
             SAXException,
@@ -221,8 +327,9 @@ public class OAIFactory {
         if (oaiInterface == null) {
             // no object connected
             try {
-                HarvesterVerb verb = new GetRecord(endpoint, recordIdentifier, metadataPrefix);
+                HarvesterVerb verb = new GetRecord(endpoint, recordIdentifier, metadataPrefix, timeout);
                 response = verb.getDocumentSource();
+                summary = verb.getSummary();
             } catch (IOException
                     | ParserConfigurationException
                     | SAXException
@@ -232,6 +339,7 @@ public class OAIFactory {
             }
         } else {
             // let the object connected return the OAI response
+            summary = null;
 
             response = oaiInterface.newGetRecord(endpoint, recordIdentifier, metadataPrefix);
             resumptionToken = oaiInterface.getResumptionToken();
@@ -266,6 +374,7 @@ public class OAIFactory {
             try {
                 HarvesterVerb verb = new ListIdentifiers(endpoint, resumptionToken, timeout);
                 response = verb.getDocumentSource();
+                summary = verb.getSummary();
                 this.resumptionToken = ((ListIdentifiers) verb).getResumptionToken();
             } catch (IOException
                     | ParserConfigurationException
@@ -278,6 +387,7 @@ public class OAIFactory {
             }
         } else {
             // let the object connected return the OAI response
+            summary = null;
 
             response = oaiInterface.newListIdentifiers(endpoint, resumptionToken);
             this.resumptionToken = oaiInterface.getResumptionToken();
@@ -316,6 +426,7 @@ public class OAIFactory {
             try {
                 HarvesterVerb verb = new ListIdentifiers(endpoint, fromDate, untilDate, set, metadataPrefix, timeout);
                 response = verb.getDocumentSource();
+                summary = verb.getSummary();
                 resumptionToken = ((ListIdentifiers) verb).getResumptionToken();
             } catch (IOException
                     | ParserConfigurationException
@@ -328,6 +439,7 @@ public class OAIFactory {
             }
         } else {
             // let the object connected return the OAI response
+            summary = null;
 
             response = oaiInterface.newListIdentifiers(endpoint, fromDate, untilDate, set, metadataPrefix);
             resumptionToken = oaiInterface.getResumptionToken();
@@ -336,6 +448,227 @@ public class OAIFactory {
         return response;
     }
 
+    /**
+     * <br> Set the number of pages to request ahead <br><br>
+     *
+     * Prefetching only applies to ListRecords requests sent over HTTP.
+     *
+     * @param prefetchDepth the number of pages, zero disables prefetching
+     */
+    public void setPrefetchDepth(int prefetchDepth) {
+
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * <br> Stop requesting pages ahead, and delete the pages not taken
+     */
+    public void close() {
+
+        synchronized (prefetched) {
+            closed = true;
+        }
+        discardPrefetched();
+        if (spool != null) {
+            prefetchProvider.deleteSpool(spool);
+            spool = null;
+        }
+    }
+
+    /**
+     * <br> Remember the spool of the page handed out, and delete the spool of
+     * the page handed out before it <br><br>
+     *
+     * Note: with an action pipeline, the client may request a page while
+     * the records of the previous one are still being processed. Deleting
+     * the spool of that page does not affect them: the records are copied
+     * out of the page while it is parsed, and a page on disk is read through
+     * a memory mapping, which remains valid after its file is deleted. If
+     * the file cannot be deleted yet, it is when the provider is closed.
+     */
+    private void replaceSpool(Provider provider, Path next) {
+
+        if (spool != null) {
+            provider.deleteSpool(spool);
+        }
+        spool = next;
+        prefetchProvider = provider;
+    }
+
+    /**
+     * <br> Take a page requested ahead, waiting for it if necessary
+     *
+     * @param resumptionToken the token the page follows from
+     * @return the page, or null if it was not requested ahead successfully
+     */
+    private Page takePrefetched(String resumptionToken) {
+
+        Future<Page> future;
+        synchronized (prefetched) {
+            future = prefetched.remove(resumptionToken);
+            // do not request the page again once it is in
+            prefetchToken = null;
+        }
+        if (future == null) {
+            // the client left the chain, the pages requested are useless
+            discardPrefetched();
+            return null;
+        }
+
+        Page page;
+        try {
+            page = future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            logger.warn("could not take the page requested ahead: " + e.getMessage());
+            return null;
+        }
+        if (page.failure != null) {
+            // let the client request the page again, and retry if needed
+            logger.warn("requesting ahead failed: " + page.failure.getMessage());
+            return null;
+        }
+        logger.debug("took page requested ahead for token[" + resumptionToken + "]");
+
+        return page;
+    }
+
+    /**
+     * <br> Start requesting the pages following a token
+     */
+    private void prefetch(String endpoint, String resumptionToken, int timeout,
+                          Provider provider) {
+
+        synchronized (prefetched) {
+            prefetchEndpoint = endpoint;
+            prefetchToken = resumptionToken;
+            prefetchTimeout = timeout;
+            prefetchProvider = provider;
+        }
+        fill();
+    }
+
+    /**
+     * <br> Request the next page if there are less pages ahead than the
+     * prefetch depth allows <br><br>
+     *
+     * Since a page can only be requested once the token in the page before
+     * it is known, the pages are requested one after the other. Therefore,
+     * this method is invoked both after the client took a page, and after
+     * the request for a page completed.
+     */
+    private void fill() {
+
+        synchronized (prefetched) {
+            if (closed) {
+                return;
+            }
+            String token = prefetchToken;
+            for (int i = 0; i < prefetchDepth; i++) {
+                if (token == null || token.isEmpty()) {
+                    // end of the list
+                    return;
+                }
+                Future<Page> future = prefetched.get(token);
+                if (future == null) {
+                    schedule(token);
+                    return;
+                }
+                if (!future.isDone() || future.isCancelled()) {
+                    return;
+                }
+                Page page;
+                try {
+                    page = future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    return;
+                }
+                if (page.failure != null) {
+                    return;
+                }
+                token = page.resumptionToken;
+            }
+        }
+    }
+
+    /**
+     * <br> Request the page following a token in the background <br><br>
+     *
+     * Note: the caller holds the lock on the map of pages.
+     */
+    private void schedule(final String resumptionToken) {
+
+        final String endpoint = prefetchEndpoint;
+        final int timeout = prefetchTimeout;
+        final Provider provider = prefetchProvider;
+        final int current = generation;
+
+        FutureTask<Page> task = new FutureTask<Page>(() -> {
+            Page page = new Page();
+            page.spool = provider.createSpool();
+            try {
+                page.verb = new ListRecords(endpoint, resumptionToken, timeout, page.spool);
+                page.resumptionToken = page.verb.getResumptionToken();
+            } catch (Exception e) {
+                page.failure = e;
+            }
+            synchronized (prefetched) {
+                if (page.failure != null || current != generation) {
+                    // nobody is going to take the page
+                    provider.deleteSpool(page.spool);
+                }
+            }
+            return page;
+        }) {
+            @Override
+            protected void done() {
+                // the token in the page is known, request the next one
+                fill();
+            }
+        };
+
+        logger.debug("requesting ahead for token[" + resumptionToken + "]");
+        prefetched.put(resumptionToken, task);
+        prefetcher.execute(task);
+    }
+
+    /**
+     * <br> Cancel the pages requested ahead, and delete the pages received
+     */
+    private void discardPrefetched() {
+
+        synchronized (prefetched) {
+            generation++;
+            for (Future<Page> future : prefetched.values()) {
+                // a page still being requested deletes itself
+                if (!future.cancel(false) && future.isDone() && !future.isCancelled()) {
+                    try {
+                        Page page = future.get();
+                        if (page.failure == null) {
+                            prefetchProvider.deleteSpool(page.spool);
+                        }
+                    } catch (InterruptedException | ExecutionException e) {
+                        // nothing to delete
+                    }
+                }
+            }
+            prefetched.clear();
+        }
+    }
+
+    /**
+     * <br> Get the facts collected from the most recent response <br><br>
+     *
+     * Apart from the resumption token, the summary contains the cursor and
+     * complete list size the endpoint reported, the number of records in the
+     * response, and the codes of the errors the endpoint signalled.
+     *
+     * @return the summary, null if the response was not harvested over HTTP
+     */
+    public ResponseSummary getResponseSummary() {
+
+        return summary;
+    }
+
     /**
      * <br> Get the resumption token
      *
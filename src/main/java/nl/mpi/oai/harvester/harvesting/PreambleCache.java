@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.control.Util;
+import nl.mpi.oai.harvester.cycle.Preamble;
+import nl.mpi.oai.harvester.utils.ConnectionLimiter;
+import nl.mpi.oai.harvester.utils.HttpTransport;
+import nl.mpi.oai.harvester.utils.ResponseSummary;
+import nl.mpi.oai.harvester.utils.TransportFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <br> Obtain the preamble of an endpoint, reusing what is known about it <br><br>
+ *
+ * The preamble holds the facts the harvester obtains by means of the Identify
+ * and ListMetadataFormats verbs. If the facts kept in the overview are younger
+ * than the time to live, they are used without contacting the endpoint. If
+ * they are older, the endpoint is asked for them again, but only for a new
+ * response if it changed since it was last obtained. <br><br>
+ *
+ * When the facts cannot be obtained, the preamble known is returned as it is,
+ * or null if there is none. The harvester then falls back to requesting the
+ * facts the usual way.
+ *
+ * Note: the requests are sent through the transport directly, so that the
+ * conditional request header fields can be set.
+ */
+public final class PreambleCache {
+
+    private static final Logger logger = LogManager.getLogger(PreambleCache.class);
+
+    private static final DocumentBuilderFactory factory;
+
+    static {
+        factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+    }
+
+    /**
+     * <br> A response to a conditional request
+     */
+    private static class Response {
+
+        // the response, null if it did not change
+        Document document = null;
+
+        String eTag = null;
+        String lastModified = null;
+    }
+
+    private PreambleCache() {
+    }
+
+    /**
+     * <br> Obtain the preamble of a provider
+     *
+     * @param provider the provider
+     * @param known the preamble kept in the overview, null if there is none
+     * @param ttl time to live of the preamble in milliseconds, zero or less
+     *            to always check the endpoint
+     * @return the preamble, or null if it could not be obtained
+     */
+    public static Preamble refresh(Provider provider, Preamble known, long ttl) {
+
+        DateTime now = new DateTime();
+
+        if (known != null && known.getFetched() != null && known.getFormats() != null
+                && ttl > 0 && known.getFetched().plus(ttl).isAfter(now)) {
+            logger.debug("preamble of " + provider.getOaiUrl() + " from " + known.getFetched());
+            return known;
+        }
+
+        Preamble preamble = new Preamble();
+
+        Response identify = request(provider, "Identify",
+                known == null ? null : known.getIdentifyETag(),
+                known == null ? null : known.getIdentifyLastModified());
+        if (identify == null || (identify.document == null && known == null)) {
+            return known;
+        }
+        if (identify.document == null) {
+            // not modified
+            preamble.setName(known.getName());
+            preamble.setDeletedRecord(known.getDeletedRecord());
+            preamble.setGranularity(known.getGranularity());
+            preamble.setEarliestDatestamp(known.getEarliestDatestamp());
+        } else {
+            try {
+                parseIdentify(provider, identify.document, preamble);
+            } catch (XPathExpressionException e) {
+                logger.error(e.getMessage(), e);
+                return known;
+            }
+        }
+        preamble.setIdentifyETag(identify.eTag);
+        preamble.setIdentifyLastModified(identify.lastModified);
+
+        Response formats = request(provider, "ListMetadataFormats",
+                known == null ? null : known.getFormatsETag(),
+                known == null ? null : known.getFormatsLastModified());
+        if (formats != null && (formats.document != null || known != null)) {
+            if (formats.document == null) {
+                // not modified
+                preamble.setFormats(known.getFormats());
+            } else {
+                try {
+                    preamble.setFormats(parseFormats(provider, formats.document));
+                } catch (XPathExpressionException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+            preamble.setFormatsETag(formats.eTag);
+            preamble.setFormatsLastModified(formats.lastModified);
+        }
+
+        preamble.setFetched(now);
+
+        return preamble;
+    }
+
+    /**
+     * <br> Represent the formats in the preamble as a ListMetadataFormats
+     * response
+     *
+     * @param preamble the preamble, its formats should be known
+     * @return the response
+     * @throws ParserConfigurationException configuration problem
+     */
+    public static Document toListMetadataFormats(Preamble preamble)
+            throws ParserConfigurationException {
+
+        Document document = factory.newDocumentBuilder().newDocument();
+
+        Element root = document.createElementNS(ResponseSummary.OAI_2_0, "OAI-PMH");
+        document.appendChild(root);
+        Element list = document.createElementNS(ResponseSummary.OAI_2_0, "ListMetadataFormats");
+        root.appendChild(list);
+
+        for (Preamble.Format format : preamble.getFormats()) {
+            Element element = document.createElementNS(ResponseSummary.OAI_2_0, "metadataFormat");
+            appendText(element, "metadataPrefix", format.getPrefix());
+            appendText(element, "schema", format.getSchema());
+            appendText(element, "metadataNamespace", format.getNamespace());
+            list.appendChild(element);
+        }
+
+        return document;
+    }
+
+    private static void appendText(Element parent, String name, String text) {
+        if (text != null) {
+            Element element = parent.getOwnerDocument().createElementNS(
+                    ResponseSummary.OAI_2_0, name);
+            element.setTextContent(text);
+            parent.appendChild(element);
+        }
+    }
+
+    /**
+     * <br> Send a conditional request for a verb without arguments
+     *
+     * @return the response, or null if the request failed
+     */
+    private static Response request(Provider provider, String verb,
+                                    String eTag, String lastModified) {
+
+        String url = provider.getOaiUrl() + "?verb=" + verb;
+
+        Map<String, String> properties = new HashMap<>();
+        if (eTag != null) {
+            properties.put("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            properties.put("If-Modified-Since", lastModified);
+        }
+
+        try {
+            ConnectionLimiter.Permit permit = ConnectionLimiter.acquire(url);
+            try {
+                HttpTransport transport = TransportFactory.getTransport();
+                HttpURLConnection con = transport.open(url, provider.getTimeout(), properties);
+                InputStream in = null;
+                try {
+                    Response response = new Response();
+                    int responseCode = con.getResponseCode();
+                    if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        logger.debug(verb + " response of " + provider.getOaiUrl() + " did not change");
+                        response.eTag = eTag;
+                        response.lastModified = lastModified;
+                        return response;
+                    }
+                    if (responseCode != HttpURLConnection.HTTP_OK) {
+                        logger.warn("request[" + url + "] failed with status " + responseCode);
+                        return null;
+                    }
+                    in = con.getInputStream();
+                    DocumentBuilder builder = factory.newDocumentBuilder();
+                    response.document = builder.parse(in);
+                    response.eTag = con.getHeaderField("ETag");
+                    response.lastModified = con.getHeaderField("Last-Modified");
+                    return response;
+                } finally {
+                    transport.release(con, in);
+                }
+            } finally {
+                permit.release();
+            }
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            logger.error("request[" + url + "] failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * <br> Take the facts from an Identify response
+     */
+    private static void parseIdentify(Provider provider, Document document,
+                                      Preamble preamble) throws XPathExpressionException {
+
+        preamble.setName(provider.parseProviderName(document));
+        preamble.setDeletedRecord(Util.getNodeText(provider.xpath,
+                "//*[local-name() = 'deletedRecord']/text()", document));
+        preamble.setGranularity(Util.getNodeText(provider.xpath,
+                "//*[local-name() = 'granularity']/text()", document));
+        preamble.setEarliestDatestamp(Util.getNodeText(provider.xpath,
+                "//*[local-name() = 'earliestDatestamp']/text()", document));
+    }
+
+    /**
+     * <br> Take the formats from a ListMetadataFormats response
+     */
+    private static List<Preamble.Format> parseFormats(Provider provider,
+                                                      Document document) throws XPathExpressionException {
+
+        List<Preamble.Format> formats = new ArrayList<>();
+
+        NodeList nodeList = (NodeList) provider.xpath.evaluate(
+                "//*[local-name() = 'metadataFormat']",
+                document, XPathConstants.NODESET);
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            Node node = nodeList.item(i);
+            String prefix = Util.getNodeText(provider.xpath,
+                    "./*[local-name() = 'metadataPrefix']/text()", node);
+            if (prefix != null) {
+                formats.add(new Preamble.Format(prefix,
+                        Util.getNodeText(provider.xpath,
+                                "./*[local-name() = 'schema']/text()", node),
+                        Util.getNodeText(provider.xpath,
+                                "./*[local-name() = 'metadataNamespace']/text()", node)));
+            }
+        }
+
+        return formats;
+    }
+}
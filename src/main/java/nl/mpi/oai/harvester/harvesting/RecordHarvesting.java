@@ -87,7 +87,7 @@ public final class RecordHarvesting extends AbstractHarvesting {
             try {
                 // get metadata record from the endpoint
                 document = oaiFactory.createGetRecord(provider.oaiUrl,
-                        identifier, prefix);
+                        identifier, prefix, provider.getTimeout());
             } catch (IOException
                     | ParserConfigurationException
                     | SAXException
@@ -107,14 +107,7 @@ public final class RecordHarvesting extends AbstractHarvesting {
                     // try another record
                     return false;
                 } else {
-                    int retryDelay = provider.getRetryDelay(i-1);
-                    if (retryDelay > 0) {
-                        try {
-                            Thread.sleep(retryDelay);
-                        } catch (InterruptedException e) {
-                            logger.error(e.getMessage(), e);
-                        }
-                    }
+                    provider.awaitRetry(i-1);
                 }
             } else {
                 return true;
@@ -36,7 +36,6 @@ import javax.xml.transform.TransformerException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -108,7 +107,7 @@ public class RecordListHarvesting extends ListHarvesting
             NoSuchFieldException,
             XMLStreamException {
 
-        document = oaiFactory.createListRecords(metadataPrefix, resumptionToken, timeout, provider.temp);
+        document = oaiFactory.createListRecords(metadataPrefix, resumptionToken, timeout, provider);
 
         // implement by returning ListRecords with the two parameters supplied
         return document;
@@ -135,7 +134,7 @@ public class RecordListHarvesting extends ListHarvesting
      */
     @Override
     public DocumentSource verb5(String endpoint, String fromDate, String untilDate, String metadataPrefix,
-            String set, int timeout, Path temp) throws
+            String set, int timeout) throws
             IOException,
             ParserConfigurationException,
             SAXException,
@@ -143,7 +142,7 @@ public class RecordListHarvesting extends ListHarvesting
             NoSuchFieldException,
             XMLStreamException {
 
-        document = oaiFactory.createListRecords(endpoint, fromDate, untilDate, metadataPrefix, set, timeout, temp);
+        document = oaiFactory.createListRecords(endpoint, fromDate, untilDate, metadataPrefix, set, timeout, provider);
 
         // implement by returning ListRecords with the five parameters supplied
         return document;
@@ -294,7 +293,7 @@ public class RecordListHarvesting extends ListHarvesting
         
         // check if the record has already been released by trying to add it to
         IdPrefix idPrefix = new IdPrefix (id, prefix);
-        if (targets.checkAndInsertSorted(idPrefix)){
+        if (targets.checkAndInsert(idPrefix)){
 
             /* Inserted the metadata in the targets table. Release the metadata
                to the client by submitting the details to the metadata factory.
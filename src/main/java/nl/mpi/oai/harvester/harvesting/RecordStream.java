@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <br> Pull the records from a response, one after the other <br><br>
+ *
+ * Instead of building a tree for the whole response and selecting the
+ * records from it, the stream is read once. Every record element is copied
+ * as a whole, header included, while the header fields are kept as
+ * strings. The copy declares the namespaces in scope in the response, so
+ * that it can be parsed on its own. <br><br>
+ *
+ * Note: like the XPath expressions it replaces, the class matches the
+ * elements by their local names.
+ */
+public final class RecordStream {
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    /**
+     * <br> A record in the response
+     */
+    public static final class Record {
+
+        /** the identifier in the header, null if there is none */
+        String identifier = null;
+        /** the datestamp in the header, null if there is none */
+        String datestamp = null;
+        /** true if the header marks the record as deleted */
+        boolean deleted = false;
+        /** the whole record as an XML document */
+        byte[] content = null;
+
+        /**
+         * @return the identifier in the header, null if there is none
+         */
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return true if the header marks the record as deleted
+         */
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return the whole record as an XML document
+         */
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    private final XMLStreamReader reader;
+
+    // the local names of the ancestors of the current element, and the
+    // namespaces they declare
+    private final Deque<String> names = new ArrayDeque<>();
+    private final Deque<List<String[]>> namespaces = new ArrayDeque<>();
+
+    /**
+     * <br> Start reading a response, or any document containing records
+     *
+     * @param in the response
+     * @throws XMLStreamException the response cannot be read
+     */
+    public RecordStream(InputStream in) throws XMLStreamException {
+        reader = inputFactory.createXMLStreamReader(in);
+    }
+
+    /**
+     * <br> Read the next record
+     *
+     * @return the record, or null if there are no more records
+     * @throws XMLStreamException the response is not well formed
+     */
+    public Record next() throws XMLStreamException {
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (reader.getLocalName().equals("record")) {
+                    Record record = new Record();
+                    record.content = copy(record);
+                    return record;
+                }
+                enter();
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                leave();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <br> Stop reading the response
+     */
+    public void close() {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // nothing left to read anyway
+        }
+    }
+
+    private void enter() {
+        List<String[]> declared = new ArrayList<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            declared.add(new String[]{reader.getNamespacePrefix(i), reader.getNamespaceURI(i)});
+        }
+        namespaces.push(declared);
+        names.push(reader.getLocalName());
+    }
+
+    private void leave() {
+        if (!names.isEmpty()) {
+            names.pop();
+            namespaces.pop();
+        }
+    }
+
+    /**
+     * <br> Copy the record element the reader is positioned at, including
+     * the namespaces declared by its ancestors
+     *
+     * @param record the record to take the header fields of the element
+     *               copied into
+     * @return the element as an XML document
+     */
+    private byte[] copy(Record record) throws XMLStreamException {
+
+        // the namespaces in scope, nearest declaration first
+        Map<String, String> scope = new LinkedHashMap<>();
+        for (List<String[]> declared : namespaces) {
+            for (String[] ns : declared) {
+                String prefix = ns[0] == null ? XMLConstants.DEFAULT_NS_PREFIX : ns[0];
+                if (!scope.containsKey(prefix)) {
+                    scope.put(prefix, ns[1] == null ? "" : ns[1]);
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+
+        // the header field being copied, if any
+        boolean header = false;
+        StringBuilder field = null;
+
+        int depth = 0;
+        do {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth == 1 && reader.getLocalName().equals("header")) {
+                        header = true;
+                        record.deleted = "deleted".equals(reader.getAttributeValue(null, "status"));
+                    } else if (header && depth == 2) {
+                        field = new StringBuilder();
+                    }
+                    writeStartElement(writer, depth == 0 ? scope : null);
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    depth--;
+                    if (header && depth == 2 && field != null) {
+                        String name = reader.getLocalName();
+                        if (name.equals("identifier")) {
+                            record.identifier = field.toString().trim();
+                        } else if (name.equals("datestamp")) {
+                            record.datestamp = field.toString().trim();
+                        }
+                        field = null;
+                    } else if (header && depth == 1) {
+                        header = false;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (field != null) {
+                        field.append(reader.getTextCharacters(),
+                                reader.getTextStart(), reader.getTextLength());
+                    }
+                    writer.writeCharacters(reader.getTextCharacters(),
+                            reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    writer.writeEntityRef(reader.getLocalName());
+                    break;
+                default:
+                    break;
+            }
+        } while (depth > 0 && reader.hasNext() && reader.next() > 0);
+
+        writer.writeEndDocument();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private void writeStartElement(XMLStreamWriter writer, Map<String, String> scope)
+            throws XMLStreamException {
+
+        String prefix = reader.getPrefix();
+        String uri = reader.getNamespaceURI();
+        writer.writeStartElement(prefix == null ? "" : prefix,
+                reader.getLocalName(), uri == null ? "" : uri);
+
+        // the declarations on the element itself
+        Map<String, String> declared = new LinkedHashMap<>();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String p = reader.getNamespacePrefix(i);
+            String u = reader.getNamespaceURI(i);
+            declared.put(p == null ? XMLConstants.DEFAULT_NS_PREFIX : p, u == null ? "" : u);
+        }
+        if (scope != null) {
+            // the declarations of the ancestors, unless overridden
+            for (Map.Entry<String, String> ns : scope.entrySet()) {
+                if (!declared.containsKey(ns.getKey())) {
+                    declared.put(ns.getKey(), ns.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, String> ns : declared.entrySet()) {
+            if (ns.getKey().isEmpty()) {
+                writer.writeDefaultNamespace(ns.getValue());
+            } else {
+                writer.writeNamespace(ns.getKey(), ns.getValue());
+            }
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String p = reader.getAttributePrefix(i);
+            String u = reader.getAttributeNamespace(i);
+            if (u == null || u.isEmpty()) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(p == null ? "" : p, u,
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+}
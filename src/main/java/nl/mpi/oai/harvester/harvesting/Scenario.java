@@ -19,16 +19,27 @@
 package nl.mpi.oai.harvester.harvesting;
 
 import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.action.ActionPipeline;
 import nl.mpi.oai.harvester.action.ActionSequence;
 import nl.mpi.oai.harvester.metadata.Metadata;
 import nl.mpi.oai.harvester.utils.DocumentSource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Scenarios for harvesting
@@ -45,9 +56,6 @@ public class Scenario {
     //
     ActionSequence actionSequence;
 
-    //
-    private static final ReadWriteLock exclusiveLock = new ReentrantReadWriteLock(true);
-
     public Scenario (Provider provider, ActionSequence actionSequence) {
         this.provider = provider;
         this.actionSequence = actionSequence;
@@ -106,97 +114,186 @@ public class Scenario {
      * identifiers pointing to them <br><br>
      *
      * @param harvesting harvester
-     * @return false on parser or input output error
+     * @return false on parser or input output error, or if interrupted
      */
     public boolean listIdentifiers(AbstractHarvesting harvesting) {
 
+        try {
+            if (!requestIdentifiers(harvesting)) {
+                return false;
+            }
+
+            return getRecords(harvesting);
+        } finally {
+            closeTargets(harvesting);
+        }
+    }
+
+    /**
+     * <br> Release the targets of a harvester, whether or not it succeeded
+     *
+     * @param harvesting harvester
+     */
+    private static void closeTargets(AbstractHarvesting harvesting) {
+        if (harvesting instanceof AbstractListHarvesting) {
+            ((AbstractListHarvesting) harvesting).closeTargets();
+        }
+    }
+
+    /**
+     * <br> Obtain the identifiers of the records, without getting the
+     * records themselves
+     *
+     * @param harvesting harvester
+     * @return false on parser or input output error
+     */
+    private boolean requestIdentifiers(AbstractHarvesting harvesting) {
+
         DocumentSource identifiers;
 
         for (;;) {
-            try {
+            if (!harvesting.request()) {
+                return false;
+            } else {
+                identifiers = harvesting.getResponse();
 
-                if (provider.isExclusive()) {
-                    logger.debug("request exclusive lock");
-                    exclusiveLock.writeLock().lock();
-                    logger.debug("acquired exclusive lock");
-                } else {
-                    logger.debug("request inclusive lock");
-                    exclusiveLock.readLock().lock();
-                    logger.debug("acquired inclusive lock");
-                }
-
-                if (!harvesting.request()) {
+                if (identifiers == null) {
                     return false;
                 } else {
-                    identifiers = harvesting.getResponse();
-
-                    if (identifiers == null) {
+                    if (!harvesting.processResponse(identifiers)) {
+                        // something went wrong, no identifiers for this endpoint
                         return false;
                     } else {
-                        if (!harvesting.processResponse(identifiers)) {
-                            // something went wrong, no identifiers for this endpoint
-                            return false;
-                        } else {
-                            // received response
-
-                            if (!harvesting.requestMore()) {
-                                // finished requesting
-                                break;
-                            }
+                        // received response
+
+                        if (!harvesting.requestMore()) {
+                            // finished requesting
+                            break;
                         }
                     }
                 }
-            } finally {
-                if (provider.isExclusive()) {
-                    logger.debug("release exclusive lock");
-                    exclusiveLock.writeLock().unlock();
-                    logger.debug("released exclusive lock");
-                } else {
-                    logger.debug("release inclusive lock");
-                    exclusiveLock.readLock().unlock();
-                    logger.debug("released inclusive lock");
-                }
             }
         }
 
+        return true;
+    }
+
+    /**
+     * <br> Get the records identified and apply the action sequence to them
+     *
+     * @param harvesting harvester
+     * @return false if the worker was interrupted
+     */
+    private boolean getRecords(AbstractHarvesting harvesting) {
+
+        if (harvesting instanceof IdentifierListHarvesting
+                && provider.getMaxRecordJobs() > 1) {
+            return fanOutRecords((IdentifierListHarvesting) harvesting,
+                    provider.getMaxRecordJobs());
+        }
+
         /* Iterate over the list of pairs, for each pair, get the record it
            identifies.
          */
-        while(!harvesting.fullyParsed()) {
-            try {
+        ActionPipeline.Feed feed = openFeed();
+        try {
+            while (!harvesting.fullyParsed()) {
+                Metadata record = (Metadata) harvesting.parseResponse();
+
+                if (record == null) {
+                    // something went wrong, skip the record
+                } else if (!applyActions(feed, record, null)) {
+                    // interrupted, stop requesting records
+                    return false;
+                }
+            }
+        } finally {
+            awaitActions(feed);
+        }
+        return true;
+    }
+
+    /**
+     * <br> Get the records identified, keeping several GetRecord requests in
+     * flight at the same time <br><br>
+     *
+     * Every request uses an OAI factory of its own. The action sequence is
+     * applied to the records on the current thread, either in the order in
+     * which they arrive, or, if the provider asks for it, in the order of the
+     * list of identifiers.
+     *
+     * @param harvesting harvester
+     * @param jobs the maximum number of requests in flight
+     * @return false if the worker was interrupted
+     */
+    private boolean fanOutRecords(final IdentifierListHarvesting harvesting, int jobs) {
+
+        final Map<String, String> context = ThreadContext.getImmutableContext();
+        boolean ordered = provider.isKeepRecordOrder();
+
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        /* Only take the records in the order in which they arrive from a
+           completion service: its queue is never drained when the records
+           are taken in the order of the list, and would keep them all.
+         */
+        CompletionService<Object> completion =
+                ordered ? null : new ExecutorCompletionService<>(executor);
+        Deque<Future<Object>> pending = new ArrayDeque<>();
+        ActionPipeline.Feed feed = openFeed();
+        try {
+            while (!harvesting.fullyParsed() || !pending.isEmpty()) {
+
+                // keep the requests in flight up to the limit
+                while (!harvesting.fullyParsed() && pending.size() < jobs) {
+                    final AbstractListHarvesting.IdPrefix pair = harvesting.nextTarget();
+                    Callable<Object> request = withContext(new Callable<Object>() {
+                        @Override
+                        public Object call() {
+                            OAIFactory factory = new OAIFactory();
+                            try {
+                                return harvesting.getRecord(pair, factory);
+                            } finally {
+                                factory.close();
+                            }
+                        }
+                    }, context);
+                    pending.add(ordered
+                            ? executor.submit(request) : completion.submit(request));
+                }
 
-                if (provider.isExclusive()) {
-                    logger.debug("request exclusive lock");
-                    exclusiveLock.writeLock().lock();
-                    logger.debug("acquired exclusive lock");
+                // take the next record
+                Future<Object> future;
+                if (ordered) {
+                    future = pending.removeFirst();
                 } else {
-                    logger.debug("request inclusive lock");
-                    exclusiveLock.readLock().lock();
-                    logger.debug("acquired inclusive lock");
+                    future = completion.take();
+                    pending.remove(future);
                 }
 
-                Metadata record = (Metadata) harvesting.parseResponse();
+                Metadata record;
+                try {
+                    record = (Metadata) future.get();
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause().getMessage(), e.getCause());
+                    record = null;
+                }
 
                 if (record == null) {
                     // something went wrong, skip the record
-                } else {
-                    // apply the action sequence to the record
-                    actionSequence.runActions(record);
-                }
-            } finally {
-                if (provider.isExclusive()) {
-                    logger.debug("release exclusive lock");
-                    exclusiveLock.writeLock().unlock();
-                    logger.debug("released exclusive lock");
-                } else {
-                    logger.debug("release inclusive lock");
-                    exclusiveLock.readLock().unlock();
-                    logger.debug("released inclusive lock");
+                } else if (!applyActions(feed, record, null)) {
+                    // interrupted, stop requesting records
+                    return false;
                 }
             }
+            return true;
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+            awaitActions(feed);
         }
-
-        return true;
     }
 
     /**
@@ -210,27 +307,53 @@ public class Scenario {
      * individual record, in the sequence both will be disabled.
      *
      * @param harvesting harvester
-     * @return false on parser or input output error
+     * @return false on parser or input output error, or if interrupted
      */
     public boolean listRecords(AbstractHarvesting harvesting) {
 
-        DocumentSource records;
+        return listRecords(harvesting, pageCounter(harvesting));
+    }
 
-        Integer n = 0;
+    /**
+     * <br> Create the counter numbering the responses <br><br>
+     *
+     * A resumed harvest continues the numbering of the harvest it resumes,
+     * so that the responses saved before are kept.
+     *
+     * @param harvesting harvester
+     * @return the counter
+     */
+    private static AtomicInteger pageCounter(AbstractHarvesting harvesting) {
+        Checkpoint checkpoint = journal(harvesting);
+        return new AtomicInteger(checkpoint == null ? 0 : checkpoint.getNextPage());
+    }
 
-        do {
-            try {
-                
-                if (provider.isExclusive()) {
-                    logger.debug("request exclusive lock");
-                    exclusiveLock.writeLock().lock();
-                    logger.debug("acquired exclusive lock");
-                } else {
-                    logger.debug("request inclusive lock");
-                    exclusiveLock.readLock().lock();
-                    logger.debug("acquired inclusive lock");
-                }
-                
+    /**
+     * @param harvesting harvester
+     * @return the journal of the harvester, or null if it has none
+     */
+    private static Checkpoint journal(AbstractHarvesting harvesting) {
+        if (harvesting instanceof ListHarvesting) {
+            return ((ListHarvesting) harvesting).getCheckpoint();
+        }
+        return null;
+    }
+
+    /**
+     * <br>Get metadata records directly, numbering the responses by means of
+     * a counter that might be shared with other harvesters
+     *
+     * @param harvesting harvester
+     * @param counter number of the next response
+     * @return false on parser or input output error, or if interrupted
+     */
+    private boolean listRecords(AbstractHarvesting harvesting, AtomicInteger counter) {
+
+        DocumentSource records;
+
+        ActionPipeline.Feed feed = openFeed();
+        try {
+            do {
                 if (!harvesting.request()) {
                     return false;
                 } else {
@@ -241,38 +364,225 @@ public class Scenario {
                         //if (!harvesting.processResponse(records)) {
                         //    return false;
                         //} else {
+                            int page = counter.getAndIncrement();
+                            Checkpoint checkpoint = journal(harvesting);
+                            if (checkpoint != null) {
+                                checkpoint.takePage(page);
+                            }
                             String id;
-                            id = String.format("%07d", n);
+                            id = String.format("%07d", page);
 
                             Metadata metadata = harvesting.getMetadataFactory().create(
                                     provider.getName() + "-" + id,
                                     OAIHelper.getPrefix(records),
                                     records, this.provider, true, true);
 
-                            n++;
-
-                            // apply the action sequence to the records
-                            actionSequence.runActions(metadata);
+                            /* Apply the action sequence to the records. Once
+                               the page is done, remember how far the list got.
+                             */
+                            Runnable commit = null;
+                            if (harvesting instanceof ListHarvesting) {
+                                commit = ((ListHarvesting) harvesting).pageCommit();
+                            }
+                            if (!applyActions(feed, metadata, commit)) {
+                                // interrupted, stop requesting pages
+                                return false;
+                            }
                         //}
                     }
                 }
                 /* Check if in principle another response would be
                    available.
                  */
-            } finally {
-                if (provider.isExclusive()) {
-                    logger.debug("release exclusive lock");
-                    exclusiveLock.writeLock().unlock();
-                    logger.debug("released exclusive lock");
-                } else {
-                    logger.debug("release inclusive lock");
-                    exclusiveLock.readLock().unlock();
-                    logger.debug("released inclusive lock");
+            } while (harvesting.requestMore());
+        } finally {
+            awaitActions(feed);
+        }
+
+        return true;
+    }
+
+    /**
+     * <br> Open a feed to the action pipeline, if there is one
+     *
+     * @return the feed, or null if the actions are applied on the current
+     *         thread
+     */
+    private ActionPipeline.Feed openFeed() {
+        ActionPipeline pipeline = ActionPipeline.getShared();
+        if (pipeline == null) {
+            return null;
+        }
+        return pipeline.open(provider.isKeepRecordOrder());
+    }
+
+    /**
+     * <br> Apply the action sequence to a record, either on the current thread
+     * or by handing it over to the action pipeline
+     *
+     * @param feed the feed to the pipeline, or null
+     * @param record the record
+     * @param after to be run after the actions were applied, or null
+     * @return false if the worker was interrupted while waiting for the
+     *         pipeline, true otherwise
+     */
+    private boolean applyActions(ActionPipeline.Feed feed, Metadata record, Runnable after) {
+        if (feed == null) {
+            actionSequence.runActions(record);
+            if (after != null) {
+                after.run();
+            }
+            return true;
+        }
+        return feed.submit(actionSequence, record, after);
+    }
+
+    /**
+     * <br> Wait for the records handed over to the action pipeline
+     *
+     * @param feed the feed to the pipeline, or null
+     */
+    private static void awaitActions(ActionPipeline.Feed feed) {
+        if (feed != null) {
+            feed.await();
+        }
+    }
+
+    /**
+     * <br>Get metadata records directly, following the resumption token
+     * chains of several harvesters at the same time <br><br>
+     *
+     * Each harvester should be restricted to a set of its own. Like in the
+     * sequential scenario, the responses are numbered in the order in which
+     * they arrive.
+     *
+     * @param chains harvesters, one for every set
+     * @param limit the maximum number of harvesters active at the same time
+     * @return false if one of the harvesters failed
+     */
+    public boolean listRecords(List<? extends AbstractHarvesting> chains, int limit) {
+
+        // the chains share the journal of the provider
+        final AtomicInteger counter = chains.isEmpty()
+                ? new AtomicInteger() : pageCounter(chains.get(0));
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (final AbstractHarvesting harvesting : chains) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return listRecords(harvesting, counter);
                 }
+            });
+        }
+
+        return runChains(tasks, limit);
+    }
+
+    /**
+     * <br>Get metadata records indirectly, obtaining the identifiers by
+     * following the resumption token chains of several harvesters at the
+     * same time <br><br>
+     *
+     * Each harvester should be restricted to a set of its own, and all of them
+     * should share their targets with the first one. Once all identifiers
+     * are known, the first harvester gets the records.
+     *
+     * @param chains harvesters, one for every set
+     * @param limit the maximum number of harvesters active at the same time
+     * @return false if one of the harvesters failed
+     */
+    public boolean listIdentifiers(List<? extends AbstractHarvesting> chains, int limit) {
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (final AbstractHarvesting harvesting : chains) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return requestIdentifiers(harvesting);
+                }
+            });
+        }
+
+        try {
+            boolean done = runChains(tasks, limit);
+
+            /* Like in the sequential scenario, a failure means that the
+               records are not requested.
+             */
+            if (done) {
+                done = getRecords(chains.get(0));
             }
-        } while (harvesting.requestMore());
 
-        return true;
+            return done;
+        } finally {
+            // the chains share the targets of the first one
+            closeTargets(chains.get(0));
+        }
     }
-}
 
+    /**
+     * <br>Run the chains, and wait for all of them to finish
+     *
+     * Note: the tasks run with the logging context of the current thread.
+     *
+     * @param tasks the chains
+     * @param limit the maximum number of chains active at the same time
+     * @return true if all chains succeeded, false otherwise
+     */
+    private boolean runChains(List<Callable<Boolean>> tasks, int limit) {
+
+        final Map<String, String> context = ThreadContext.getImmutableContext();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(limit, tasks.size())));
+        List<Future<Boolean>> futures = new ArrayList<>();
+        try {
+            for (Callable<Boolean> task : tasks) {
+                futures.add(executor.submit(withContext(task, context)));
+            }
+
+            boolean done = true;
+            for (Future<Boolean> future : futures) {
+                try {
+                    done &= future.get();
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause().getMessage(), e.getCause());
+                    done = false;
+                } catch (InterruptedException e) {
+                    logger.error(e.getMessage(), e);
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return done;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * <br>Wrap a task, so that it runs with the logging context given
+     *
+     * @param task the task
+     * @param context the logging context
+     * @param <T> the type of the result of the task
+     * @return the wrapped task
+     */
+    private static <T> Callable<T> withContext(final Callable<T> task,
+                                               final Map<String, String> context) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                for (Map.Entry<String, String> entry : context.entrySet()) {
+                    ThreadContext.put(entry.getKey(), entry.getValue());
+                }
+                try {
+                    return task.call();
+                } finally {
+                    ThreadContext.clearAll();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.harvesting.AbstractListHarvesting.IdPrefix;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <br> A set of identifier and prefix pairs that moves to disk when it grows
+ * large <br><br>
+ *
+ * While the identifiers are being listed, the pairs are kept in memory. When
+ * their number reaches the threshold, they are sorted and written to a
+ * temporary file as a run, and memory is cleared. Once the pairs are read,
+ * the runs are merged into a single file, dropping the duplicates found in
+ * different runs, and the pairs are streamed from that file. In this way, the
+ * heap needed does not depend on the number of records of the provider.
+ * <br><br>
+ *
+ * Note: if no run was written, the set behaves like its superclass and keeps
+ * the pairs in the order in which they were added. Otherwise, the pairs are
+ * returned in sorted order, and only one after the other. Adding a pair after
+ * reading started, or after the set was closed, is not supported. Also, a
+ * pair already written to a run is not recognised when it is added again:
+ * checkAndInsert then returns true, and the duplicate is dropped while
+ * merging.
+ */
+final class SpillingTargetSet extends TargetSet {
+
+    private static final Logger logger = LogManager.getLogger(SpillingTargetSet.class);
+
+    // the number of pairs kept in memory before a run is written
+    private final int threshold;
+
+    // the runs written so far
+    private final List<Path> runs = new ArrayList<>();
+
+    // the merged runs, its size, and the position of the next pair to be read
+    private Path merged = null;
+    private DataInputStream in = null;
+    private int size = -1;
+    private int cursor = 0;
+
+    // true once the temporary files were removed
+    private boolean closed = false;
+
+    /**
+     * <br> Create a set
+     *
+     * @param threshold the number of pairs kept in memory, 0 or less for no
+     *                  limit
+     */
+    SpillingTargetSet(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    synchronized boolean checkAndInsert(IdPrefix pair) {
+        if (size >= 0 || closed) {
+            throw new IllegalStateException("cannot add pairs after reading started or closing");
+        }
+        boolean inserted = super.checkAndInsert(pair);
+        if (threshold > 0 && super.size() >= threshold) {
+            spill();
+        }
+        return inserted;
+    }
+
+    @Override
+    synchronized IdPrefix get(int index) {
+        if (runs.isEmpty()) {
+            return super.get(index);
+        }
+        if (index != cursor || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", expected "
+                    + cursor + " of " + size);
+        }
+        try {
+            IdPrefix pair = new IdPrefix(in.readUTF(), in.readUTF());
+            cursor++;
+            if (cursor == size) {
+                // all pairs read
+                close();
+            }
+            return pair;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    synchronized int size() {
+        if (runs.isEmpty()) {
+            return super.size();
+        }
+        if (size < 0) {
+            merge();
+        }
+        return size;
+    }
+
+    /**
+     * <br> Remove the temporary files; invoking the method more than once
+     * has no further effect
+     */
+    @Override
+    synchronized void close() {
+        closed = true;
+        try {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            if (merged != null) {
+                Files.deleteIfExists(merged);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * <br> Write the pairs in memory to a run, in sorted order
+     */
+    private void spill() {
+        IdPrefix[] pairs = new IdPrefix[super.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = super.get(i);
+        }
+        super.clear();
+        Arrays.sort(pairs);
+
+        try {
+            Path run = Files.createTempFile("oai-targets-", ".run");
+            run.toFile().deleteOnExit();
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (IdPrefix pair : pairs) {
+                    out.writeUTF(pair.identifier);
+                    out.writeUTF(pair.prefix);
+                }
+            }
+            logger.debug("wrote run " + runs.size() + " of " + pairs.length + " targets");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * <br> A run being merged, and the pair at its head
+     */
+    private static final class Run implements Comparable<Run> {
+
+        final DataInputStream in;
+        IdPrefix head;
+
+        Run(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return true if the run has another pair, false otherwise
+         */
+        boolean advance() throws IOException {
+            try {
+                head = new IdPrefix(in.readUTF(), in.readUTF());
+                return true;
+            } catch (EOFException e) {
+                in.close();
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return head.compareTo(other.head);
+        }
+    }
+
+    /**
+     * <br> Merge the runs into a single file without duplicates
+     */
+    private void merge() {
+        if (super.size() > 0) {
+            // the remainder of the pairs
+            spill();
+        }
+
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        try {
+            for (Path run : runs) {
+                Run r = new Run(new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(run))));
+                if (r.advance()) {
+                    queue.add(r);
+                }
+            }
+
+            merged = Files.createTempFile("oai-targets-", ".merged");
+            merged.toFile().deleteOnExit();
+            int count = 0;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(merged)))) {
+                IdPrefix last = null;
+                while (!queue.isEmpty()) {
+                    Run r = queue.poll();
+                    if (!r.head.equals(last)) {
+                        out.writeUTF(r.head.identifier);
+                        out.writeUTF(r.head.prefix);
+                        last = r.head;
+                        count++;
+                    }
+                    if (r.advance()) {
+                        queue.add(r);
+                    }
+                }
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+
+            size = count;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(merged)));
+            logger.debug("merged " + runs.size() + " runs into " + size + " targets");
+        } catch (IOException e) {
+            for (Run r : queue) {
+                try {
+                    r.in.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -186,7 +186,7 @@ public final class StaticRecordListHarvesting extends AbstractListHarvesting
         for (int j = 0; j < nodeList.getLength(); j++) {
             String identifier = nodeList.item(j).getNodeValue();
             IdPrefix pair = new IdPrefix(identifier, prefixes.get(pIndex));
-            targets.checkAndInsertSorted(pair);
+            targets.checkAndInsert(pair);
         }
 
         // the prefix identifier pair list is ready
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.harvesting.AbstractListHarvesting.IdPrefix;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <br> A set of identifier and prefix pairs <br><br>
+ *
+ * The set keeps the pairs in the order in which they were added, so that a
+ * harvesting object can walk through them by index. Checking for and adding
+ * a pair takes constant time, regardless of the number of pairs in the set.
+ * <br><br>
+ *
+ * Since an endpoint can list hundreds of thousands of identifiers, the pairs
+ * are stored compactly: a prefix is kept only once, and an identifier is
+ * kept as a UTF-8 encoded array of bytes instead of as a string.
+ */
+class TargetSet {
+
+    // the distinct prefixes, and their positions in the list
+    private final List<String> prefixes = new ArrayList<>();
+    private final Map<String, Integer> prefixIndex = new HashMap<>();
+
+    // the pairs, in the order in which they were added
+    private byte[][] identifiers = new byte[16][];
+    private short[] prefixOf = new short[16];
+    private int[] hashes = new int[16];
+    private int size = 0;
+
+    // open addressing table referring to the pairs, 0 marks an empty slot
+    private int[] table = new int[32];
+
+    /**
+     * <br> Add a pair to the set if and only if it is not already included
+     *
+     * @param pair the pair to be added
+     * @return true if the pair was added, false otherwise
+     */
+    synchronized boolean checkAndInsert(IdPrefix pair) {
+
+        byte[] identifier = pair.identifier.getBytes(StandardCharsets.UTF_8);
+        int prefix = intern(pair.prefix);
+        int hash = 31 * Arrays.hashCode(identifier) + prefix;
+
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        for (; ; ) {
+            int entry = table[slot];
+            if (entry == 0) {
+                break;
+            }
+            int i = entry - 1;
+            if (hashes[i] == hash && prefixOf[i] == prefix
+                    && Arrays.equals(identifiers[i], identifier)) {
+                // found a match, pair already in the set
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == identifiers.length) {
+            int capacity = size * 2;
+            identifiers = Arrays.copyOf(identifiers, capacity);
+            prefixOf = Arrays.copyOf(prefixOf, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        identifiers[size] = identifier;
+        prefixOf[size] = (short) prefix;
+        hashes[size] = hash;
+        size++;
+        table[slot] = size;
+
+        // keep the table at most half full
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * <br> Get a pair by its position
+     *
+     * @param index the position of the pair in the order of adding
+     * @return the pair
+     */
+    synchronized IdPrefix get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return new IdPrefix(new String(identifiers[index], StandardCharsets.UTF_8),
+                prefixes.get(prefixOf[index]));
+    }
+
+    /**
+     * @return the number of pairs in the set
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * <br> Release what the set keeps outside of memory; the set holds its
+     * pairs in memory only, so there is nothing to release
+     */
+    synchronized void close() {
+    }
+
+    /**
+     * <br> Remove all pairs from the set
+     */
+    synchronized void clear() {
+        identifiers = new byte[16][];
+        prefixOf = new short[16];
+        hashes = new int[16];
+        size = 0;
+        table = new int[32];
+    }
+
+    private int intern(String prefix) {
+        Integer index = prefixIndex.get(prefix);
+        if (index == null) {
+            if (prefixes.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("too many prefixes");
+            }
+            index = prefixes.size();
+            prefixes.add(prefix);
+            prefixIndex.put(prefix, index);
+        }
+        return index;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = spread(hashes[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    private static int spread(int hash) {
+        // mix the high bits in, like HashMap does
+        return hash ^ (hash >>> 16);
+    }
+}
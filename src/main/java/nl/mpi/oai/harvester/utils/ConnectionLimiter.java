@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <br> Limit the number of concurrent requests per host and endpoint <br><br>
+ *
+ * Every OAI request the harvester sends passes through this class. Before
+ * opening a connection, the request claims a permit for the host it is
+ * addressed to and, if a limit was registered for it, a permit for the
+ * endpoint. Requests to different hosts do not compete with each other, so
+ * the number of concurrent workers determines the overall throughput, while
+ * every single server only sees a bounded number of simultaneous requests.
+ * <br><br>
+ *
+ * The default host limit comes from the general configuration. Providers can
+ * override the limit for their host, and optionally add a limit for their
+ * endpoint. A limit of zero or less means: no limit.
+ *
+ * Note: limits should be registered before harvesting starts. When a limit
+ * is changed later on, requests holding a permit will return it to the
+ * semaphore they obtained it from.
+ */
+public final class ConnectionLimiter {
+
+    private static final Logger logger = LogManager.getLogger(ConnectionLimiter.class);
+
+    // limit applied to hosts without a limit of their own
+    private static volatile int defaultHostLimit = 1;
+
+    // limits registered for specific hosts and endpoints
+    private static final Map<String, Integer> hostLimits = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> endpointLimits = new ConcurrentHashMap<>();
+
+    // semaphores, created when a host or endpoint is first addressed
+    private static final Map<String, Semaphore> hostSemaphores = new ConcurrentHashMap<>();
+    private static final Map<String, Semaphore> endpointSemaphores = new ConcurrentHashMap<>();
+
+    private ConnectionLimiter() {
+    }
+
+    /**
+     * <br> Set the limit for hosts that do not have a limit of their own
+     *
+     * @param limit maximum number of concurrent requests, zero for no limit
+     */
+    public static void setDefaultHostLimit(int limit) {
+        defaultHostLimit = limit;
+        hostSemaphores.clear();
+    }
+
+    /**
+     * <br> Set the limit for the host the URL refers to
+     *
+     * @param url a URL addressing the host, for example an OAI endpoint
+     * @param limit maximum number of concurrent requests, zero for no limit
+     */
+    public static void setHostLimit(String url, int limit) {
+        String host = getHost(url);
+        if (host == null) {
+            logger.warn("cannot set host limit for URL[" + url + "]");
+            return;
+        }
+        hostLimits.put(host, limit);
+        hostSemaphores.remove(host);
+    }
+
+    /**
+     * <br> Set the limit for an endpoint
+     *
+     * @param endpoint the OAI endpoint, without request parameters
+     * @param limit maximum number of concurrent requests, zero for no limit
+     */
+    public static void setEndpointLimit(String endpoint, int limit) {
+        endpointLimits.put(getEndpoint(endpoint), limit);
+        endpointSemaphores.remove(getEndpoint(endpoint));
+    }
+
+    /**
+     * <br> Claim the permits needed for sending a request <br><br>
+     *
+     * The method blocks until both the endpoint and the host permit are
+     * available. The endpoint permit is claimed first, so that a request
+     * waiting for its endpoint does not keep other endpoints on the same
+     * host waiting.
+     *
+     * @param requestURL the request that is about to be sent
+     * @return the permit, to be released after the response has been read
+     * @throws MalformedURLException the request URL cannot be parsed
+     */
+    public static Permit acquire(String requestURL) throws MalformedURLException {
+
+        String host = new URL(requestURL).getHost().toLowerCase();
+        String endpoint = getEndpoint(requestURL);
+
+        Semaphore endpointSemaphore = getSemaphore(endpointSemaphores,
+                endpointLimits, endpoint, 0);
+        Semaphore hostSemaphore = getSemaphore(hostSemaphores,
+                hostLimits, host, defaultHostLimit);
+
+        if (endpointSemaphore != null) {
+            logger.debug("request endpoint[" + endpoint + "] permit");
+            endpointSemaphore.acquireUninterruptibly();
+        }
+        if (hostSemaphore != null) {
+            logger.debug("request host[" + host + "] permit");
+            hostSemaphore.acquireUninterruptibly();
+        }
+        logger.debug("acquired permit for URL[" + requestURL + "]");
+
+        return new Permit(endpointSemaphore, hostSemaphore);
+    }
+
+    /**
+     * <br> Get the semaphore for a key, creating it if necessary
+     *
+     * @return the semaphore, or null if the key is not limited
+     */
+    private static Semaphore getSemaphore(Map<String, Semaphore> semaphores,
+            Map<String, Integer> limits, String key, int defaultLimit) {
+
+        Integer limit = limits.get(key);
+        if (limit == null) {
+            limit = defaultLimit;
+        }
+        if (limit <= 0) {
+            return null;
+        }
+        final int permits = limit;
+        return semaphores.computeIfAbsent(key, k -> new Semaphore(permits, true));
+    }
+
+    /**
+     * <br> Get the host part of a URL in lower case
+     *
+     * @return the host, or null if the URL cannot be parsed
+     */
+    static String getHost(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <br> Strip the request parameters from a URL
+     */
+    static String getEndpoint(String url) {
+        int i = url.indexOf('?');
+        return (i < 0) ? url : url.substring(0, i);
+    }
+
+    /**
+     * <br> Permits held by a single request
+     */
+    public static final class Permit {
+
+        private Semaphore endpointSemaphore;
+        private Semaphore hostSemaphore;
+
+        private Permit(Semaphore endpointSemaphore, Semaphore hostSemaphore) {
+            this.endpointSemaphore = endpointSemaphore;
+            this.hostSemaphore = hostSemaphore;
+        }
+
+        /**
+         * <br> Return the permits; invoking the method more than once has no
+         * further effect
+         */
+        public synchronized void release() {
+            if (hostSemaphore != null) {
+                hostSemaphore.release();
+                hostSemaphore = null;
+            }
+            if (endpointSemaphore != null) {
+                endpointSemaphore.release();
+                endpointSemaphore = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <br> Give providers that ask for it their host to themselves <br><br>
+ *
+ * A provider marked exclusive is harvested only when no other provider on
+ * the same host is being harvested, and while it is, the harvest of other
+ * providers on the host waits. Providers on other hosts are not affected:
+ * a worker claims its host once, before harvesting, and returns it
+ * afterwards, so there is no lock to take for every request, page or
+ * record. <br><br>
+ *
+ * An exclusive provider waiting for its host is served before providers
+ * arriving later, so that a busy host cannot keep it waiting forever. Like
+ * in the retry scheduler, a worker that has to wait hands back the slot it
+ * registered, so that a provider on another host can be harvested in the
+ * meantime.
+ *
+ * Note: a provider is assigned to the host of its endpoint. Providers
+ * without a host, static providers for example, share the empty host.
+ */
+public final class HostScheduler {
+
+    private static final Logger logger = LogManager.getLogger(HostScheduler.class);
+
+    // the state of the hosts addressed so far
+    private static final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    // the number of claims that had to wait, and the time spent waiting
+    private static final AtomicLong waits = new AtomicLong();
+    private static final AtomicLong waited = new AtomicLong();
+
+    private HostScheduler() {
+    }
+
+    /**
+     * <br> The workers harvesting a host, and those waiting for it
+     */
+    private static final class Host {
+
+        // number of inclusive workers harvesting the host
+        int running = 0;
+        // true while an exclusive worker harvests the host
+        boolean exclusive = false;
+        // number of exclusive workers waiting for the host
+        int queued = 0;
+
+        boolean available(boolean forExclusive) {
+            if (forExclusive) {
+                return running == 0 && !exclusive;
+            }
+            return !exclusive && queued == 0;
+        }
+    }
+
+    /**
+     * <br> Claim the host of an endpoint <br><br>
+     *
+     * The method blocks until the host can be harvested in the way asked for.
+     * When the worker is interrupted while waiting, it gives up: the host is
+     * not claimed, and the interrupt status of the thread is kept.
+     *
+     * @param url the endpoint
+     * @param exclusive true if no other provider on the host may be
+     *                  harvested at the same time
+     * @return the claim, to be released after harvesting, or null if the
+     *         worker was interrupted while waiting
+     */
+    public static Claim acquire(String url, boolean exclusive) {
+
+        String key = ConnectionLimiter.getHost(url);
+        if (key == null) {
+            key = "";
+        }
+        Host host = hosts.computeIfAbsent(key, k -> new Host());
+
+        Semaphore pool = null;
+        boolean claimed = true;
+        synchronized (host) {
+            if (!host.available(exclusive)) {
+                // while waiting, let a worker for another host use the slot
+                pool = RetryScheduler.getSlot();
+                if (pool != null) {
+                    pool.release();
+                }
+                claimed = await(host, key, exclusive);
+            }
+            if (!claimed) {
+                logger.debug("gave up waiting for host[" + key + "]");
+            } else if (exclusive) {
+                host.exclusive = true;
+                logger.debug("claimed host[" + key + "] exclusively");
+            } else {
+                host.running++;
+            }
+        }
+        if (pool != null) {
+            // the caller releases the slot, also when it gave up
+            pool.acquireUninterruptibly();
+        }
+        return claimed ? new Claim(host, exclusive) : null;
+    }
+
+    /**
+     * <br> Wait until a host can be claimed, the caller holds its monitor
+     *
+     * @return false if the thread was interrupted while waiting
+     */
+    private static boolean await(Host host, String key, boolean exclusive) {
+
+        long start = System.currentTimeMillis();
+        if (exclusive) {
+            host.queued++;
+        }
+        logger.debug("waiting for host[" + key + "]" + (exclusive ? " exclusively" : ""));
+        try {
+            while (!host.available(exclusive)) {
+                try {
+                    host.wait();
+                } catch (InterruptedException e) {
+                    logger.error(e.getMessage(), e);
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        } finally {
+            if (exclusive) {
+                host.queued--;
+                // inclusive workers may have been waiting for this one
+                host.notifyAll();
+            }
+            waits.incrementAndGet();
+            waited.addAndGet(System.currentTimeMillis() - start);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of claims that had to wait for their host
+     */
+    public static long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * @return the time spent waiting for hosts in milliseconds
+     */
+    public static long getWaited() {
+        return waited.get();
+    }
+
+    /**
+     * <br> Log how often workers waited for their host, and for how long
+     */
+    public static void logStatistics() {
+        if (waits.get() > 0) {
+            logger.info("Hosts: waited " + waits.get() + " times for "
+                    + waited.get() + " ms in total");
+        }
+    }
+
+    /**
+     * <br> The claim of a worker on a host
+     */
+    public static final class Claim {
+
+        private Host host;
+        private final boolean exclusive;
+
+        private Claim(Host host, boolean exclusive) {
+            this.host = host;
+            this.exclusive = exclusive;
+        }
+
+        /**
+         * <br> Return the host; invoking the method more than once has no
+         * further effect
+         */
+        public synchronized void release() {
+            if (host == null) {
+                return;
+            }
+            synchronized (host) {
+                if (exclusive) {
+                    host.exclusive = false;
+                } else {
+                    host.running--;
+                }
+                host.notifyAll();
+            }
+            host = null;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/**
+ * <br> Transport for HTTP requests <br><br>
+ *
+ * The OAI verbs and the registry reader do not open connections themselves.
+ * Instead, they ask a transport to send a request and hand the connection
+ * back once they have read the response. This leaves the transport in
+ * control of how connections are set up and reused. <br><br>
+ *
+ * A transport follows redirects before it returns the connection. It can
+ * remember permanent redirects, so that a next request to the same endpoint
+ * goes to the new location directly.
+ *
+ * Note: the transport in use can be replaced by means of the
+ * TransportFactory class.
+ */
+public interface HttpTransport {
+
+    /**
+     * <br> Send a GET request and wait for the response status
+     *
+     * @param url the request
+     * @param timeout connect and read timeout in seconds, zero for the default
+     * @param properties request header fields, null if there are none
+     * @return the connection, after any redirects have been followed
+     * @throws IOException the request could not be sent
+     */
+    HttpURLConnection open(String url, int timeout,
+                           Map<String, String> properties) throws IOException;
+
+    /**
+     * <br> Return a connection to the transport <br><br>
+     *
+     * The client invokes this method when it is done with the response. If
+     * the client did not open the response body, it passes null for the
+     * body.
+     *
+     * @param connection the connection obtained from the open method
+     * @param body the stream the client read the response from, or null
+     */
+    void release(HttpURLConnection connection, InputStream body);
+
+    /**
+     * <br> Get the statistics of the transport
+     *
+     * @return counters by name
+     */
+    Map<String, Long> getStatistics();
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <br> HTTP transport reusing connections per host <br><br>
+ *
+ * The JVM keeps idle HTTP connections in a cache per host, but only takes a
+ * connection back if its response was read completely and the stream was
+ * closed. This transport makes sure that happens: when a client releases a
+ * connection, any unread part of the response is consumed before the stream
+ * is closed. Only if the remainder is large, the connection is dropped
+ * instead. The number of idle connections kept per host can be tuned with
+ * the standard 'http.maxConnections' system property. <br><br>
+ *
+ * The transport follows redirects itself. Permanent redirects (301 and 308)
+ * are remembered: if the redirect keeps the request parameters, the mapping
+ * applies to the endpoint as a whole, otherwise only to the exact URL.
+ */
+public class KeepAliveTransport implements HttpTransport {
+
+    private static final Logger logger = LogManager.getLogger(KeepAliveTransport.class);
+
+    // HttpURLConnection does not define a constant for this status
+    static final int HTTP_PERMANENT_REDIRECT = 308;
+
+    // the maximum number of redirects followed for a single request
+    private static final int MAX_REDIRECTS = 10;
+
+    // the maximum number of unread bytes consumed to keep a connection
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    // permanent redirects of endpoints, and of individual requests
+    private final Map<String, String> endpointRedirects = new ConcurrentHashMap<>();
+    private final Map<String, String> urlRedirects = new ConcurrentHashMap<>();
+
+    // statistics
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong redirects = new AtomicLong();
+    private final AtomicLong redirectsRemembered = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    @Override
+    public HttpURLConnection open(String url, int timeout,
+                                  Map<String, String> properties) throws IOException {
+
+        String location = resolve(url);
+
+        for (int i = 0; ; i++) {
+            HttpURLConnection con = (HttpURLConnection) new URL(location).openConnection();
+            // redirects are followed here, in order to remember them
+            con.setInstanceFollowRedirects(false);
+            con.setRequestProperty("User-Agent", "OAIHarvester/2.0");
+            if (properties != null) {
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    con.setRequestProperty(property.getKey(), property.getValue());
+                }
+            }
+            if (timeout > 0) {
+                con.setConnectTimeout(timeout * 1000);
+                con.setReadTimeout(timeout * 1000);
+            }
+            requests.incrementAndGet();
+            active.incrementAndGet();
+
+            int responseCode;
+            try {
+                responseCode = con.getResponseCode();
+            } catch (IOException e) {
+                // nothing to reuse
+                active.decrementAndGet();
+                discarded.incrementAndGet();
+                con.disconnect();
+                throw e;
+            }
+
+            boolean permanent = responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                    || responseCode == HTTP_PERMANENT_REDIRECT;
+            if (!permanent
+                    && responseCode != HttpURLConnection.HTTP_MOVED_TEMP
+                    && responseCode != HttpURLConnection.HTTP_SEE_OTHER) {
+                return con;
+            }
+
+            String header = con.getHeaderField("Location");
+            if (header == null || i >= MAX_REDIRECTS) {
+                // let the client deal with the redirect response
+                logger.warn("cannot follow redirect of URL[" + location + "]");
+                return con;
+            }
+
+            // the location can be relative to the request
+            String target = new URL(con.getURL(), header).toString();
+            release(con, null);
+            redirects.incrementAndGet();
+            logger.debug("redirect from URL[" + location + "] to URL[" + target + "]");
+
+            if (permanent) {
+                remember(location, target);
+            }
+            location = target;
+        }
+    }
+
+    @Override
+    public void release(HttpURLConnection connection, InputStream body) {
+
+        active.decrementAndGet();
+        try {
+            if (body == null) {
+                // the body of an error response comes from a different stream
+                body = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? connection.getErrorStream() : connection.getInputStream();
+            }
+            if (body != null) {
+                // consume what the client did not read, the cache needs that
+                byte[] buffer = new byte[4096];
+                int total = 0;
+                int n;
+                while ((n = body.read(buffer)) != -1) {
+                    total += n;
+                    if (total > MAX_DRAIN) {
+                        throw new IOException("too much unread data");
+                    }
+                }
+                body.close();
+            }
+            released.incrementAndGet();
+        } catch (IOException e) {
+            // the connection cannot be reused
+            logger.debug("closing connection to URL[" + connection.getURL() + "]: " + e.getMessage());
+            discarded.incrementAndGet();
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("requests", requests.get());
+        statistics.put("active", active.get());
+        statistics.put("redirects", redirects.get());
+        statistics.put("redirects-remembered", redirectsRemembered.get());
+        statistics.put("released", released.get());
+        statistics.put("discarded", discarded.get());
+        return statistics;
+    }
+
+    /**
+     * <br> Apply the permanent redirects known for a URL
+     *
+     * @param url the request
+     * @return the location to send the request to
+     */
+    String resolve(String url) {
+        String location = url;
+        for (int i = 0; i < MAX_REDIRECTS; i++) {
+            String target = urlRedirects.get(location);
+            if (target == null) {
+                String endpoint = ConnectionLimiter.getEndpoint(location);
+                target = endpointRedirects.get(endpoint);
+                if (target != null) {
+                    target = target + location.substring(endpoint.length());
+                }
+            }
+            if (target == null) {
+                break;
+            }
+            location = target;
+        }
+        if (!location.equals(url)) {
+            redirectsRemembered.incrementAndGet();
+            logger.debug("known redirect from URL[" + url + "] to URL[" + location + "]");
+        }
+        return location;
+    }
+
+    /**
+     * <br> Remember a permanent redirect
+     *
+     * @param from the request that was redirected
+     * @param to the new location
+     */
+    void remember(String from, String to) {
+        String fromEndpoint = ConnectionLimiter.getEndpoint(from);
+        String toEndpoint = ConnectionLimiter.getEndpoint(to);
+        if (from.substring(fromEndpoint.length()).equals(to.substring(toEndpoint.length()))
+                && !fromEndpoint.equals(toEndpoint)) {
+            endpointRedirects.put(fromEndpoint, toEndpoint);
+        } else {
+            urlRedirects.put(from, to);
+        }
+    }
+}
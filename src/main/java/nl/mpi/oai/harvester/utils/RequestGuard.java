@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <br> Bound the time a request may take <br><br>
+ *
+ * The connect and read timeouts of a connection only catch a server that
+ * stops sending altogether. A server sending a few bytes every now and then
+ * keeps a request going for as long as it likes. The guard watches the
+ * requests in progress, and aborts a request when it has taken longer than
+ * the deadline, or when the response arrives slower than the minimum rate.
+ * The client then fails with a timeout, like it would on a silent server.
+ * <br><br>
+ *
+ * The rate is measured over windows of some seconds, starting when the
+ * response body is opened, so that a server taking its time to compose a
+ * page is not taken for a slow one. Waiting for the response status is
+ * bounded by the read timeout and the deadline. <br><br>
+ *
+ * The guard also allows a harvest to be cancelled: the requests to an
+ * endpoint in progress are aborted, and new requests are refused until the
+ * endpoint is resumed.
+ *
+ * Note: the deadline and the rate apply to all requests; by default, neither
+ * is enforced.
+ */
+public final class RequestGuard {
+
+    private static final Logger logger = LogManager.getLogger(RequestGuard.class);
+
+    // the window the rate is measured over, by default
+    private static final long DEFAULT_WINDOW = 30000;
+
+    // the interval at which the requests are checked
+    private static final long INTERVAL = 250;
+
+    // the time a request may take in milliseconds, 0 for no deadline
+    private static volatile long deadline = 0;
+
+    // the minimum number of bytes per second, and the window it applies to
+    private static volatile long minimumRate = 0;
+    private static volatile long window = DEFAULT_WINDOW;
+
+    // the requests in progress
+    private static final Set<Request> active = ConcurrentHashMap.newKeySet();
+
+    // the endpoints whose harvest was cancelled
+    private static final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+
+    // the number of bytes received per endpoint
+    private static final Map<String, AtomicLong> received = new ConcurrentHashMap<>();
+
+    // statistics
+    private static final AtomicLong expired = new AtomicLong();
+    private static final AtomicLong slow = new AtomicLong();
+    private static final AtomicLong aborted = new AtomicLong();
+
+    // the thread checking the requests
+    private static final ScheduledExecutorService checker =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "request-guard");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        checker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check(System.currentTimeMillis());
+            }
+        }, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private RequestGuard() {
+    }
+
+    /**
+     * <br> Set the time a request may take, from sending it to the end of
+     * the response
+     *
+     * @param seconds the deadline, 0 for none
+     */
+    public static void setDeadline(int seconds) {
+        setDeadlineMillis(Math.max(0, seconds) * 1000L);
+    }
+
+    static void setDeadlineMillis(long millis) {
+        deadline = millis;
+    }
+
+    /**
+     * <br> Set the rate below which a response is given up on
+     *
+     * @param bytesPerSecond the minimum rate, 0 for none
+     */
+    public static void setMinimumRate(int bytesPerSecond) {
+        setMinimumRate(bytesPerSecond, DEFAULT_WINDOW);
+    }
+
+    static void setMinimumRate(long bytesPerSecond, long windowMillis) {
+        minimumRate = Math.max(0, bytesPerSecond);
+        window = windowMillis;
+    }
+
+    /**
+     * <br> Register a request about to be sent
+     *
+     * @param url the request
+     * @return the request, to be finished once the response was read
+     * @throws IOException the harvest of the endpoint was cancelled
+     */
+    public static Request start(String url) throws IOException {
+        String endpoint = ConnectionLimiter.getEndpoint(url);
+        if (cancelled.contains(endpoint)) {
+            throw new IOException("harvest of endpoint[" + endpoint + "] was cancelled");
+        }
+        Request request = new Request(endpoint, System.currentTimeMillis());
+        active.add(request);
+        if (cancelled.contains(endpoint)) {
+            // cancelled in the meantime
+            request.finish();
+            throw new IOException("harvest of endpoint[" + endpoint + "] was cancelled");
+        }
+        return request;
+    }
+
+    /**
+     * <br> Abort the requests to an endpoint, and refuse new ones until the
+     * endpoint is resumed
+     *
+     * @param url the endpoint
+     */
+    public static void cancel(String url) {
+        String endpoint = ConnectionLimiter.getEndpoint(url);
+        cancelled.add(endpoint);
+        for (Request request : active) {
+            if (request.endpoint.equals(endpoint)) {
+                request.abort("harvest of endpoint[" + endpoint + "] was cancelled", aborted);
+                // get the client out of waiting to retry
+                request.thread.interrupt();
+            }
+        }
+        logger.warn("cancelled requests to endpoint[" + endpoint + "]");
+    }
+
+    /**
+     * <br> Accept requests to an endpoint again
+     *
+     * @param url the endpoint
+     */
+    public static void resume(String url) {
+        cancelled.remove(ConnectionLimiter.getEndpoint(url));
+    }
+
+    /**
+     * @param url the endpoint
+     * @return the number of bytes received from the endpoint so far
+     */
+    public static long getReceived(String url) {
+        AtomicLong count = received.get(ConnectionLimiter.getEndpoint(url));
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of requests aborted because of the deadline
+     */
+    public static long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return the number of requests aborted because of a low rate
+     */
+    public static long getSlow() {
+        return slow.get();
+    }
+
+    /**
+     * @return the number of requests aborted because their harvest was
+     *         cancelled
+     */
+    public static long getAborted() {
+        return aborted.get();
+    }
+
+    /**
+     * <br> Abort the requests that passed the deadline or fell below the
+     * minimum rate
+     *
+     * @param now the current time
+     */
+    static void check(long now) {
+        long limit = deadline;
+        long rate = minimumRate;
+        long span = window;
+        for (Request request : active) {
+            if (limit > 0 && now - request.start > limit) {
+                request.abort("deadline of " + limit / 1000 + " s passed", expired);
+                continue;
+            }
+            if (rate <= 0 || request.windowStart == 0) {
+                continue;
+            }
+            long elapsed = now - request.windowStart;
+            if (elapsed >= span) {
+                long bytes = request.bytes.get();
+                if ((bytes - request.windowBytes) * 1000 < rate * elapsed) {
+                    request.abort("transfer rate below " + rate + " bytes/s", slow);
+                } else {
+                    request.windowStart = now;
+                    request.windowBytes = bytes;
+                }
+            }
+        }
+    }
+
+    /**
+     * <br> A request in progress
+     */
+    public static final class Request {
+
+        private final String endpoint;
+        private final long start;
+        private final Thread thread = Thread.currentThread();
+
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong total;
+
+        // the current window of the rate, 0 until the body is opened
+        private volatile long windowStart = 0;
+        private volatile long windowBytes = 0;
+
+        private volatile HttpURLConnection connection;
+        // the reason the request was aborted, null while it is not
+        private volatile String failure;
+
+        private Request(String endpoint, long start) {
+            this.endpoint = endpoint;
+            this.start = start;
+            this.total = received.computeIfAbsent(endpoint, k -> new AtomicLong());
+        }
+
+        /**
+         * <br> Associate the connection that was opened for the request
+         *
+         * @param con the connection
+         */
+        public void attach(HttpURLConnection con) {
+            connection = con;
+            if (failure != null) {
+                // aborted in the meantime, reading the body will fail
+                con.disconnect();
+            }
+        }
+
+        /**
+         * <br> Watch the reading of the response body
+         *
+         * @param in the response body
+         * @return the stream to read the body from instead
+         */
+        public InputStream wrap(InputStream in) {
+            windowStart = System.currentTimeMillis();
+            return new GuardedStream(in);
+        }
+
+        /**
+         * <br> Stop watching the request; invoking the method more than once
+         * has no further effect
+         */
+        public void finish() {
+            active.remove(this);
+        }
+
+        /**
+         * <br> Abort the request, unless it was aborted before
+         *
+         * @param reason the message of the timeout thrown to the client
+         * @param counter the statistic to count the request in
+         */
+        private synchronized void abort(String reason, AtomicLong counter) {
+            if (failure != null) {
+                return;
+            }
+            failure = reason;
+            counter.incrementAndGet();
+            logger.warn("aborting request to endpoint[" + endpoint + "]: " + reason);
+            active.remove(this);
+            HttpURLConnection con = connection;
+            if (con != null) {
+                // a blocked read fails once the socket is closed
+                con.disconnect();
+            }
+        }
+
+        /**
+         * <br> The response body, counting the bytes read
+         */
+        private final class GuardedStream extends FilterInputStream {
+
+            GuardedStream(InputStream in) {
+                super(in);
+            }
+
+            private int count(int n) throws IOException {
+                if (failure != null) {
+                    throw new SocketTimeoutException(failure);
+                }
+                if (n > 0) {
+                    bytes.addAndGet(n);
+                    total.addAndGet(n);
+                }
+                return n;
+            }
+
+            private IOException fail(IOException e) {
+                // report why the connection was closed
+                if (failure != null) {
+                    SocketTimeoutException timeout = new SocketTimeoutException(failure);
+                    timeout.initCause(e);
+                    return timeout;
+                }
+                return e;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b;
+                try {
+                    b = super.read();
+                } catch (IOException e) {
+                    throw fail(e);
+                }
+                count(b < 0 ? -1 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                try {
+                    return count(super.read(buffer, offset, length));
+                } catch (SocketTimeoutException e) {
+                    throw e;
+                } catch (IOException e) {
+                    throw fail(e);
+                }
+            }
+        }
+    }
+}
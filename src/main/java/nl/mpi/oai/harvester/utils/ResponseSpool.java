@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <br> Keep a response, in memory or on disk depending on its size <br><br>
+ *
+ * The bytes written to the spool are kept in memory until they exceed the
+ * threshold. Then the spool moves them to its file, and writes the remainder
+ * of the response there. This way, small responses do not touch the disk,
+ * while large ones do not have to fit in the heap. <br><br>
+ *
+ * Once closed, the spool returns the response as a stream supporting mark
+ * and reset. A response kept on disk is read through a memory mapped buffer,
+ * so reading it again after a reset does not copy it into the heap.
+ *
+ * Note: a spool without a file keeps everything in memory.
+ */
+public final class ResponseSpool extends OutputStream {
+
+    private static final Logger logger = LogManager.getLogger(ResponseSpool.class);
+
+    // number of bytes kept in memory before moving to the file
+    private static volatile long threshold = 8 * 1024 * 1024;
+
+    private final Path file;
+
+    // the bytes in memory, null after moving to the file
+    private Buffer memory = new Buffer();
+
+    // the file, once the threshold has been exceeded
+    private OutputStream disk = null;
+
+    private long size = 0;
+
+    private boolean closed = false;
+
+    /**
+     * <br> Create a spool
+     *
+     * @param file the file to use for a large response, null to keep the
+     *             response in memory regardless of its size
+     */
+    public ResponseSpool(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * <br> Set the number of bytes a spool keeps in memory
+     *
+     * @param bytes the threshold, zero or less to always use the file
+     */
+    public static void setThreshold(long bytes) {
+        threshold = bytes;
+    }
+
+    /**
+     * @return the number of bytes a spool keeps in memory
+     */
+    public static long getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        reserve(1);
+        if (disk != null) {
+            disk.write(b);
+        } else {
+            memory.write(b);
+        }
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        reserve(len);
+        if (disk != null) {
+            disk.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (disk != null) {
+            disk.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (disk != null) {
+                disk.close();
+            }
+        }
+    }
+
+    /**
+     * <br> Move to the file if the bytes to write would exceed the threshold
+     */
+    private void reserve(int len) throws IOException {
+        if (closed) {
+            throw new IOException("spool is closed");
+        }
+        if (disk == null && file != null && size + len > threshold) {
+            disk = new BufferedOutputStream(new FileOutputStream(file.toFile()), 65536);
+            memory.writeTo(disk);
+            memory = null;
+            logger.debug("spool[" + file + "] moved to disk after [" + size + "] bytes");
+        }
+    }
+
+    /**
+     * @return true if the response is kept on disk
+     */
+    public boolean isOnDisk() {
+        return disk != null;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * <br> Get the response <br><br>
+     *
+     * The stream is marked at its start, resetting it allows the response to
+     * be read again.
+     *
+     * @return the bytes written, as a stream
+     * @throws IOException the file could not be read
+     */
+    public InputStream getInputStream() throws IOException {
+        close();
+        if (disk == null) {
+            return memory.toInputStream();
+        }
+        if (size > Integer.MAX_VALUE) {
+            // too large for a single mapped buffer
+            return new MarkableFileInputStream(new FileInputStream(file.toFile()));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping remains valid after closing the channel
+            return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * <br> Memory that can be read without copying it
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    /**
+     * <br> Read a buffer as a stream that can be reset
+     */
+    static class MappedInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private int mark = 0;
+
+        MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = buffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.position(mark);
+        }
+    }
+}
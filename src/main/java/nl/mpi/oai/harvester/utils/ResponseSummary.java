@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codehaus.stax2.XMLInputFactory2;
+import org.codehaus.stax2.XMLStreamReader2;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <br> Facts about an OAI response, collected while it is being copied <br><br>
+ *
+ * Clients of an OAI response often only need a few facts from the envelope:
+ * the schema location, the resumption token, whether or not the endpoint
+ * reported an error. Instead of parsing the response again for each of
+ * these, the scan method collects them in the same pass that copies the
+ * response from the network to its spool. <br><br>
+ *
+ * Next to the resumption token itself, the summary keeps the cursor and
+ * complete list size attributes, and counts the records (or, in case of a
+ * ListIdentifiers response, the headers) in the response.
+ *
+ * Note: only OAI-PMH 2.0 responses are summarised completely. If the response
+ * cannot be parsed, the summary is marked incomplete, and the client should
+ * fall back to inspecting the response itself.
+ */
+public class ResponseSummary {
+
+    private static final Logger logger = LogManager.getLogger(ResponseSummary.class);
+
+    // OAI-PMH 2.0 namespace
+    public static final String OAI_2_0 = "http://www.openarchives.org/OAI/2.0/";
+
+    // XML schema instance namespace
+    private static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+
+    private static final XMLInputFactory2 xmlif;
+
+    static {
+        xmlif = (XMLInputFactory2) XMLInputFactory2.newInstance();
+        xmlif.configureForConvenience();
+        xmlif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    // whether or not the whole response was scanned
+    private boolean complete = false;
+
+    private String schemaLocation = null;
+
+    private String resumptionToken = null;
+
+    private long cursor = -1;
+
+    private long completeListSize = -1;
+
+    private final List<String> errorCodes = new ArrayList<>();
+
+    private final List<String> errorMessages = new ArrayList<>();
+
+    private int recordCount = 0;
+
+    /**
+     * <br> Copy a response and summarise it <br><br>
+     *
+     * All the bytes in the input are copied to the output, also when the
+     * response turns out not to be well formed XML.
+     *
+     * @param in the response
+     * @param out where to copy the response to
+     * @return the summary
+     * @throws IOException reading or writing failed
+     */
+    public static ResponseSummary scan(InputStream in, OutputStream out)
+            throws IOException {
+
+        ResponseSummary summary = new ResponseSummary();
+
+        // every byte the parser reads, is copied to the output
+        InputStream tee = new TeeInputStream(in, out);
+        try {
+            XMLStreamReader2 xmlr = (XMLStreamReader2) xmlif.createXMLStreamReader(tee);
+            summary.collect(xmlr);
+            xmlr.close();
+            summary.complete = true;
+        } catch (XMLStreamException e) {
+            logger.warn("could not summarise the response: " + e.getMessage());
+        }
+
+        // copy whatever the parser did not need to read
+        IOUtils.copy(tee, NullOutputStream.NULL_OUTPUT_STREAM);
+
+        return summary;
+    }
+
+    /**
+     * <br> Collect the facts from the parser events
+     */
+    private void collect(XMLStreamReader2 xmlr) throws XMLStreamException {
+
+        // depth of the current element, the root element has depth 1
+        int depth = 0;
+        // name of the current child of the root, the verb element
+        String verb = null;
+
+        while (xmlr.hasNext()) {
+            int eventType = xmlr.next();
+            if (eventType == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            }
+            if (eventType != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            depth++;
+
+            if (schemaLocation == null) {
+                String value = xmlr.getAttributeValue(XSI, "schemaLocation");
+                if (value != null) {
+                    schemaLocation = value.trim().replaceAll("\\s+", " ");
+                }
+            }
+
+            if (!OAI_2_0.equals(xmlr.getNamespaceURI())) {
+                continue;
+            }
+
+            String name = xmlr.getLocalName();
+            if (depth == 2) {
+                verb = name;
+                if (name.equals("error")) {
+                    String code = xmlr.getAttributeValue(null, "code");
+                    errorCodes.add(code == null ? "" : code);
+                    // reading the text moves the parser to the end element
+                    errorMessages.add(xmlr.getElementText().trim());
+                    depth--;
+                }
+            } else if (depth == 3) {
+                if (name.equals("resumptionToken")) {
+                    cursor = parseLong(xmlr.getAttributeValue(null, "cursor"));
+                    completeListSize = parseLong(xmlr.getAttributeValue(null, "completeListSize"));
+                    resumptionToken = xmlr.getElementText().trim();
+                    depth--;
+                } else if (name.equals("record") && ("ListRecords".equals(verb)
+                        || "GetRecord".equals(verb))) {
+                    recordCount++;
+                } else if (name.equals("header") && "ListIdentifiers".equals(verb)) {
+                    recordCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * <br> Parse an optional number
+     *
+     * @return the number, or -1 if there is none
+     */
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return true if the whole response was scanned, false otherwise
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the normalised xsi:schemaLocation, or null if there is none
+     */
+    public String getSchemaLocation() {
+        return schemaLocation;
+    }
+
+    /**
+     * @return the resumption token, empty if the list is complete, or null
+     *         if the response does not contain a token
+     */
+    public String getResumptionToken() {
+        return resumptionToken;
+    }
+
+    /**
+     * @return the cursor attribute of the token, -1 if unknown
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the completeListSize attribute of the token, -1 if unknown
+     */
+    public long getCompleteListSize() {
+        return completeListSize;
+    }
+
+    /**
+     * @return the codes of the errors the endpoint reported
+     */
+    public List<String> getErrorCodes() {
+        return Collections.unmodifiableList(errorCodes);
+    }
+
+    /**
+     * @return the messages of the errors, in the order of the codes
+     */
+    public List<String> getErrorMessages() {
+        return Collections.unmodifiableList(errorMessages);
+    }
+
+    /**
+     * @return the number of records or headers in the response
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public String toString() {
+        return "records[" + recordCount + "] token[" + resumptionToken
+                + "] cursor[" + cursor + "] size[" + completeListSize
+                + "] errors" + errorCodes;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <br> Wait before retrying a request, without occupying a worker slot <br><br>
+ *
+ * The number of providers harvested at the same time is limited by a pool of
+ * slots. A worker that has to wait for an endpoint, because the endpoint
+ * asked it to come back later or because a request failed, has nothing to
+ * do in the meantime. Instead of keeping its slot, the worker parks: it hands
+ * the slot back to the pool, so that the harvest of another provider can
+ * start, and claims a slot again once the wait is over. <br><br>
+ *
+ * A worker registers the slot it holds by invoking the enter method. Threads
+ * that did not register a slot, simply wait.
+ *
+ * Note: after the wait, the worker might have to wait for a slot to become
+ * available again.
+ */
+public final class RetryScheduler {
+
+    private static final Logger logger = LogManager.getLogger(RetryScheduler.class);
+
+    // the pool the slot held by the current thread belongs to
+    private static final ThreadLocal<Semaphore> slots = new ThreadLocal<>();
+
+    // number of threads currently waiting
+    private static final AtomicInteger parked = new AtomicInteger();
+
+    private RetryScheduler() {
+    }
+
+    /**
+     * <br> Register the slot held by the current thread
+     *
+     * @param pool the pool the thread obtained its slot from
+     */
+    public static void enter(Semaphore pool) {
+        slots.set(pool);
+    }
+
+    /**
+     * <br> Forget about the slot held by the current thread
+     */
+    public static void leave() {
+        slots.remove();
+    }
+
+    /**
+     * @return the pool the slot of the current thread belongs to, null if
+     *         the thread did not register a slot
+     */
+    static Semaphore getSlot() {
+        return slots.get();
+    }
+
+    /**
+     * <br> Wait, giving back the slot of the current thread in the meantime
+     *
+     * @param millis the time to wait in milliseconds
+     */
+    public static void await(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        Semaphore pool = slots.get();
+        parked.incrementAndGet();
+        if (pool != null) {
+            pool.release();
+        }
+        logger.debug("parked for [" + millis + "] ms");
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage(), e);
+            // a cancelled harvest does not wait for its next retries either
+            Thread.currentThread().interrupt();
+        } finally {
+            parked.decrementAndGet();
+            if (pool != null) {
+                pool.acquireUninterruptibly();
+            }
+        }
+    }
+
+    /**
+     * <br> Wait before retrying a request <br><br>
+     *
+     * The delay is spread out randomly, by up to half of its length, so that
+     * requests failing at the same time are not retried at the same time.
+     *
+     * @param millis the minimal time to wait in milliseconds
+     */
+    public static void retry(long millis) {
+        await(jitter(millis));
+    }
+
+    /**
+     * <br> Spread out a delay
+     *
+     * @param millis the delay
+     * @return a delay between the delay and one and a half times the delay
+     */
+    static long jitter(long millis) {
+        if (millis <= 1) {
+            return millis;
+        }
+        return millis + ThreadLocalRandom.current().nextLong(millis / 2 + 1);
+    }
+
+    /**
+     * @return the number of threads waiting to retry
+     */
+    public static int getParked() {
+        return parked.get();
+    }
+}
@@ -1,37 +1,218 @@
 package nl.mpi.oai.harvester.utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Basic harvest statistic class
+ *
+ * Next to the totals, the statistic keeps track of the progress of every list
+ * requested from the endpoint. Many endpoints report the size of the complete
+ * list in the resumption token, which allows for an estimate of the time it
+ * takes to harvest the remainder of the list.
 **/
 public class Statistic {
 
     private long harvestTime;
-    private long records = 0;
-    private long requests = 0;
+    // counted by the threads harvesting and processing the provider
+    private final LongAdder records = new LongAdder();
+    private final LongAdder requests = new LongAdder();
 
     private long harvestStartTime;
 
+    // progress per list, in the order the lists were started
+    private final Map<String, Progress> lists = new LinkedHashMap<>();
+
+    /**
+     * Progress of harvesting a single list, for example the records in a
+     * prefix and set combination
+     */
+    public static class Progress {
+
+        private final String name;
+        private final long startTime;
+
+        private long lastTime;
+        private long done = 0;
+        private long expected = -1;
+        private int pages = 0;
+
+        Progress(String name, long startTime) {
+            this.name = name;
+            this.startTime = startTime;
+            this.lastTime = startTime;
+        }
+
+        /**
+         * @return the name of the list
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of records or headers received so far
+         */
+        public long getDone() {
+            return done;
+        }
+
+        /**
+         * @return the size of the complete list, -1 if the endpoint did not
+         *         report it
+         */
+        public long getExpected() {
+            return expected;
+        }
+
+        /**
+         * @return the number of pages received so far
+         */
+        public int getPages() {
+            return pages;
+        }
+
+        /**
+         * @return the time from the first request of the list up to the last
+         *         page, in milliseconds
+         */
+        public long getElapsed() {
+            return lastTime - startTime;
+        }
+
+        /**
+         * @return the time of the last page, in milliseconds since the epoch
+         */
+        public long getLastTime() {
+            return lastTime;
+        }
+
+        /**
+         * @return the number of records received per second, -1 if unknown
+         */
+        public double getThroughput() {
+            long elapsed = getElapsed();
+            if (elapsed <= 0) {
+                return -1;
+            }
+            return done * 1000.0 / elapsed;
+        }
+
+        /**
+         * @return the estimated time needed for the remainder of the list in
+         *         seconds, -1 if unknown
+         */
+        public long getETA() {
+            double throughput = getThroughput();
+            if (expected < 0 || throughput <= 0) {
+                return -1;
+            }
+            return (long) Math.ceil(Math.max(0, expected - done) / throughput);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(": ").append(done);
+            if (expected >= 0) {
+                sb.append('/').append(expected);
+            }
+            sb.append(" records in ").append(pages).append(" pages");
+            double throughput = getThroughput();
+            if (throughput >= 0) {
+                sb.append(String.format(Locale.ROOT, ", %.1f records/s", throughput));
+            }
+            long eta = getETA();
+            if (eta >= 0) {
+                sb.append(", ETA ").append(eta).append('s');
+            }
+            return sb.toString();
+        }
+    }
+
     public Statistic(){
         harvestStartTime = System.currentTimeMillis();
     }
 
     public void incRecordCount(){
-        records++;
+        records.increment();
     }
 
     public void incRequestCount(){
-        requests++;
+        requests.increment();
     }
 
     public long getHarvestedRecords() {
-        return  records;
+        return  records.sum();
     }
     public long getRequests() {
-        return requests;
+        return requests.sum();
     }
     public long getHarvestTime() {
         long harvestFinishTime = System.currentTimeMillis();
         harvestTime = (harvestFinishTime - harvestStartTime)/1000;
         return harvestTime;
     }
+
+    /**
+     * Account for a page of a list
+     *
+     * @param list the name of the list
+     * @param first true if the page is the first one of the list
+     * @param summary the summary of the page
+     * @param sent the time the request for the page was sent
+     * @return the progress of the list
+     */
+    public Progress addPage(String list, boolean first, ResponseSummary summary,
+                            long sent) {
+        return addPage(list, first, summary.getRecordCount(), summary.getCursor(),
+                summary.getCompleteListSize(), sent, System.currentTimeMillis());
+    }
+
+    /**
+     * Account for a page of a list
+     *
+     * @param list the name of the list
+     * @param first true if the page is the first one of the list
+     * @param count the number of records in the page
+     * @param cursor the cursor in the resumption token, -1 if unknown
+     * @param size the complete list size in the resumption token, -1 if
+     *             unknown
+     * @param sent the time the request for the page was sent
+     * @param now the time the page was received
+     * @return the progress of the list
+     */
+    synchronized Progress addPage(String list, boolean first, int count,
+                                  long cursor, long size, long sent, long now) {
+        Progress progress = lists.get(list);
+        if (first || progress == null) {
+            // a new list, or the list is requested again
+            progress = new Progress(list, sent);
+            lists.put(list, progress);
+        }
+
+        progress.done += count;
+        if (cursor >= 0) {
+            // the cursor counts the records returned before this page
+            progress.done = Math.max(progress.done, cursor + count);
+        }
+        if (size >= 0) {
+            progress.expected = size;
+        }
+        progress.pages++;
+        progress.lastTime = now;
+
+        return progress;
+    }
+
+    /**
+     * @return the progress of the lists, in the order they were started
+     */
+    public synchronized List<Progress> getProgress() {
+        return Collections.unmodifiableList(new ArrayList<>(lists.values()));
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+/**
+ * <br> Provide the HTTP transport <br><br>
+ *
+ * All requests share a single transport, so that connections to a host can
+ * be reused by every worker. By default, this is a KeepAliveTransport
+ * object. Tests, or a deployment needing a different client, can install
+ * another implementation before harvesting starts.
+ */
+public final class TransportFactory {
+
+    // the transport shared by all requests
+    private static volatile HttpTransport transport = new KeepAliveTransport();
+
+    private TransportFactory() {
+    }
+
+    /**
+     * <br> Get the transport
+     *
+     * @return the transport in use
+     */
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * <br> Replace the transport
+     *
+     * @param httpTransport the transport to use from now on
+     */
+    public static void setTransport(HttpTransport httpTransport) {
+        transport = httpTransport;
+    }
+}
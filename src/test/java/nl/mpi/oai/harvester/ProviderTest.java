@@ -137,4 +137,19 @@ public class ProviderTest {
 
 	assertEquals(expResult, result);
     }
+
+    /**
+     * Test of getRetryDelay method, of class Provider. Beyond the delays
+     * configured, the last delay doubles.
+     */
+    @Test
+    public void testGetRetryDelay() throws Exception {
+	Provider instance = new Provider("dummy", 10, new int[]{100, 1000});
+
+	assertEquals(100, instance.getRetryDelay(0));
+	assertEquals(1000, instance.getRetryDelay(1));
+	assertEquals(2000, instance.getRetryDelay(2));
+	assertEquals(8000, instance.getRetryDelay(4));
+	assertEquals(Provider.MAX_RETRY_DELAY, instance.getRetryDelay(100));
+    }
 }
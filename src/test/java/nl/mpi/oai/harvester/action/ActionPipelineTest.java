@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.metadata.Metadata;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for applying actions in a pipeline.
+ */
+public class ActionPipelineTest {
+
+    /**
+     * An action recording the records it is applied to, taking some time for
+     * every record, and failing on request.
+     */
+    private static class Recorder implements Action {
+
+        final List<String> ids = new CopyOnWriteArrayList<>();
+        final long millis;
+        final String failOn;
+
+        Recorder(long millis, String failOn) {
+            this.millis = millis;
+            this.failOn = failOn;
+        }
+
+        @Override
+        public boolean perform(List<Metadata> records) {
+            String id = records.get(0).getId();
+            try {
+                // the first record takes longest
+                Thread.sleep(id.equals("0") ? 3 * millis : millis);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            if (id.equals(failOn)) {
+                throw new IllegalStateException("failing on " + id);
+            }
+            ids.add(id);
+            return true;
+        }
+
+        @Override
+        public Action clone() {
+            return this;
+        }
+    }
+
+    private static Metadata record(int i) {
+        return new Metadata(Integer.toString(i), "prefix",
+                new ByteArrayInputStream(new byte[0]), null, false, false);
+    }
+
+    private static ActionSequence sequence(Recorder recorder) {
+        return new ActionSequence(new MetadataFormat("prefix", "test"),
+                new Action[]{recorder}, 4);
+    }
+
+    @After
+    public void tearDown() {
+        ActionPipeline.setup(0, 0);
+    }
+
+    /**
+     * An ordered feed applies the actions in the order of handing over.
+     */
+    @Test
+    public void testOrdered() {
+        ActionPipeline.setup(4, 0);
+        Recorder recorder = new Recorder(20, null);
+        ActionPipeline.Feed feed = ActionPipeline.getShared().open(true);
+        for (int i = 0; i < 6; i++) {
+            feed.submit(sequence(recorder), record(i), null);
+        }
+        feed.await();
+
+        assertEquals(6, recorder.ids.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Integer.toString(i), recorder.ids.get(i));
+        }
+    }
+
+    /**
+     * An unordered feed does not wait for a slow record, but the tasks after
+     * the records still run in order.
+     */
+    @Test
+    public void testUnordered() {
+        ActionPipeline.setup(4, 0);
+        Recorder recorder = new Recorder(20, null);
+        final List<String> after = new CopyOnWriteArrayList<>();
+        ActionPipeline.Feed feed = ActionPipeline.getShared().open(false);
+        for (int i = 0; i < 4; i++) {
+            final String id = Integer.toString(i);
+            feed.submit(sequence(recorder), record(i), new Runnable() {
+                @Override
+                public void run() {
+                    after.add(id);
+                }
+            });
+        }
+        feed.await();
+
+        assertEquals(4, recorder.ids.size());
+        assertEquals("0", recorder.ids.get(3));
+        assertEquals(4, after.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.toString(i), after.get(i));
+        }
+    }
+
+    /**
+     * Handing over a record blocks while the pipeline is full.
+     */
+    @Test
+    public void testBackpressure() throws Exception {
+        ActionPipeline.setup(1, 2);
+        final Recorder recorder = new Recorder(200, null);
+        final ActionPipeline.Feed feed = ActionPipeline.getShared().open(false);
+        final CountDownLatch handedOver = new CountDownLatch(3);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 3; i++) {
+                    feed.submit(sequence(recorder), record(i), null);
+                    handedOver.countDown();
+                }
+            }
+        });
+        producer.start();
+
+        // two records fit, the third waits for the first to be processed
+        assertFalse(handedOver.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, handedOver.getCount());
+        assertTrue(handedOver.await(1, TimeUnit.SECONDS));
+        producer.join();
+        feed.await();
+        assertEquals(3, recorder.ids.size());
+    }
+
+    /**
+     * A worker interrupted while the pipeline is full stops handing over
+     * records, and keeps its interrupt status.
+     */
+    @Test
+    public void testInterrupted() throws Exception {
+        ActionPipeline.setup(1, 1);
+        final Recorder recorder = new Recorder(200, null);
+        final ActionPipeline.Feed feed = ActionPipeline.getShared().open(false);
+        final List<Boolean> results = new CopyOnWriteArrayList<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                results.add(feed.submit(sequence(recorder), record(1), null));
+                results.add(feed.submit(sequence(recorder), record(2), null));
+                results.add(Thread.currentThread().isInterrupted());
+            }
+        });
+        producer.start();
+
+        // the second record waits for room
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        producer.interrupt();
+        producer.join();
+        feed.await();
+
+        assertEquals(Arrays.asList(true, false, true), results);
+        assertEquals(Collections.singletonList("1"), recorder.ids);
+    }
+
+    /**
+     * A failure stops the tasks after the records, and is thrown to the
+     * worker.
+     */
+    @Test
+    public void testFailure() {
+        ActionPipeline.setup(2, 0);
+        Recorder recorder = new Recorder(10, "2");
+        final List<String> after = new CopyOnWriteArrayList<>();
+        ActionPipeline.Feed feed = ActionPipeline.getShared().open(true);
+        for (int i = 1; i <= 3; i++) {
+            final String id = Integer.toString(i);
+            feed.submit(sequence(recorder), record(i), new Runnable() {
+                @Override
+                public void run() {
+                    after.add(id);
+                }
+            });
+        }
+        try {
+            feed.await();
+            fail("the failure should be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("failing on 2", e.getMessage());
+        }
+        assertEquals(1, after.size());
+        assertEquals("1", after.get(0));
+    }
+
+    /**
+     * Harvesting and applying the actions overlap: with both stages taking
+     * the same time per record, the pipeline takes about half the time of
+     * running them one after the other.
+     */
+    @Test
+    public void testOverlap() throws Exception {
+        final long millis = 40;
+        final int count = 10;
+        Recorder recorder = new Recorder(millis, null);
+        ActionSequence sequence = sequence(recorder);
+
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= count; i++) {
+            Thread.sleep(millis);
+            sequence.runActions(record(i));
+        }
+        long sequential = System.currentTimeMillis() - start;
+
+        ActionPipeline.setup(1, 0);
+        ActionPipeline.Feed feed = ActionPipeline.getShared().open(true);
+        start = System.currentTimeMillis();
+        for (int i = 1; i <= count; i++) {
+            // downloading the record
+            Thread.sleep(millis);
+            feed.submit(sequence, record(i), null);
+        }
+        feed.await();
+        long pipelined = System.currentTimeMillis() - start;
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            expected.add(Integer.toString(i));
+        }
+        expected.addAll(expected);
+        assertEquals(expected, recorder.ids);
+        assertTrue("sequential " + sequential + " ms, pipelined " + pipelined + " ms",
+                pipelined < sequential * 3 / 4);
+    }
+}
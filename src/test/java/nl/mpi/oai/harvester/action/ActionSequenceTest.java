@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.metadata.Metadata;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the ActionSequence class.
+ */
+public class ActionSequenceTest {
+
+    /**
+     * An action counting the records processed by its instances at the same
+     * time.
+     */
+    private static class Counter implements Action {
+
+        final AtomicInteger busy;
+        final AtomicInteger most;
+        final AtomicInteger performed;
+
+        Counter(AtomicInteger busy, AtomicInteger most, AtomicInteger performed) {
+            this.busy = busy;
+            this.most = most;
+            this.performed = performed;
+        }
+
+        @Override
+        public boolean perform(List<Metadata> records) {
+            int now = busy.incrementAndGet();
+            most.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                return false;
+            } finally {
+                busy.decrementAndGet();
+            }
+            performed.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public Action clone() {
+            return new Counter(busy, most, performed);
+        }
+    }
+
+    private static Metadata record(int i) {
+        return new Metadata(Integer.toString(i), "prefix",
+                new ByteArrayInputStream(new byte[0]), null, false, false);
+    }
+
+    /**
+     * The instances of an action are returned to the pool once per record,
+     * so no more records are processed at the same time than the pool has
+     * instances.
+     */
+    @Test
+    public void testPoolSize() throws Exception {
+        final AtomicInteger most = new AtomicInteger();
+        final AtomicInteger performed = new AtomicInteger();
+        final ActionSequence sequence = new ActionSequence(
+                new MetadataFormat("prefix", "test"),
+                new Action[]{new Counter(new AtomicInteger(), most, performed)}, 2);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 6; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20; i++) {
+                        sequence.runActions(record(i));
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(120, performed.get());
+        assertTrue("at most " + most.get(), most.get() <= 2);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.metadata.Metadata;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static nl.mpi.oai.harvester.action.TransformTestHelper.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for keeping the documents stylesheets look up in memory.
+ */
+public class DocumentPoolTest {
+
+    private Path temp;
+    private Path cache;
+    private String lookup;
+
+    private Provider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        temp = Files.createTempDirectory("pool-");
+        cache = Files.createDirectory(temp.resolve("cache"));
+        Path table = temp.resolve("codes.xml");
+        Files.write(table, "<codes><code sil=\"nld\" iso=\"nl\"/></codes>"
+                .getBytes(StandardCharsets.UTF_8));
+        lookup = table.toUri().toURL().toString();
+
+        provider = provider("http://pool.test/oai");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        DocumentPool.setCapacity(DocumentPool.DEFAULT_CAPACITY);
+        delete(temp);
+    }
+
+    private TransformAction action(String name) throws Exception {
+        Path path = stylesheet(temp, name,
+                "<xsl:template match=\"/r\"><iso><xsl:value-of select=\""
+                + "document('" + lookup + "')//code[@sil=current()]/@iso\"/></iso>"
+                + "</xsl:template>");
+        return new TransformAction(path.toString(), cache, 0);
+    }
+
+    private String transform(TransformAction action, String id) throws IOException {
+        Metadata record = record(id, "<r>nld</r>", provider);
+        assertTrue(action.perform(Arrays.asList(record)));
+        return read(record.getStream());
+    }
+
+    /**
+     * A document looked up by several stylesheets, for several records, is
+     * parsed once, and cached on disk without partial files.
+     */
+    @Test
+    public void testParsedOnce() throws Exception {
+        TransformAction first = action("first.xsl");
+        TransformAction second = action("second.xsl");
+        long misses = DocumentPool.getMisses(lookup);
+        long hits = DocumentPool.getHits(lookup);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(transform(first, "a" + i).contains("<iso>nl</iso>"));
+            // copies in the resource pool share the document too
+            assertTrue(transform((TransformAction) second.clone(), "b" + i).contains("<iso>nl</iso>"));
+        }
+
+        assertEquals(misses + 1, DocumentPool.getMisses(lookup));
+        assertEquals(hits + 5, DocumentPool.getHits(lookup));
+        try (Stream<Path> files = Files.list(cache)) {
+            assertEquals(1, files.filter(p -> !p.toString().endsWith(".part")).count());
+        }
+        try (Stream<Path> files = Files.list(cache)) {
+            assertEquals(0, files.filter(p -> p.toString().endsWith(".part")).count());
+        }
+    }
+
+    /**
+     * A document the pool has no room for is parsed again, from the disk
+     * cache.
+     */
+    @Test
+    public void testNoRoom() throws Exception {
+        DocumentPool.setCapacity(0);
+        TransformAction action = action("small.xsl");
+        long misses = DocumentPool.getMisses(lookup);
+
+        assertTrue(transform(action, "c1").contains("<iso>nl</iso>"));
+        Files.delete(temp.resolve("codes.xml"));
+        assertTrue(transform(action, "c2").contains("<iso>nl</iso>"));
+
+        assertEquals(misses + 2, DocumentPool.getMisses(lookup));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.metadata.Metadata;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the SplitAction class.
+ */
+public class SplitActionTest {
+
+    private static final String ENVELOPE = "<OAI-PMH xmlns='http://www.openarchives.org/OAI/2.0/'>"
+            + "<ListRecords>"
+            + "<record><header><identifier>oai:1</identifier></header>"
+            + "<metadata><md xmlns='urn:md'>one</md></metadata></record>"
+            + "<record><header><identifier>oai:2</identifier></header>"
+            + "<metadata><md xmlns='urn:md'>two</md></metadata></record>"
+            + "<resumptionToken/>"
+            + "</ListRecords></OAI-PMH>";
+
+    private static List<Metadata> split(Metadata envelope) throws Exception {
+        List<Metadata> records = new ArrayList<>();
+        records.add(envelope);
+        assertTrue(new SplitAction().perform(records));
+        return records;
+    }
+
+    private static void check(List<Metadata> records) {
+        assertEquals(2, records.size());
+        assertEquals("oai:1", records.get(0).getId());
+        assertEquals("oai:2", records.get(1).getId());
+        for (Metadata record : records) {
+            assertTrue(record.hasStream());
+            Document doc = record.getDoc();
+            assertEquals("record", doc.getDocumentElement().getNodeName());
+        }
+        assertEquals("two", records.get(1).getDoc().getDocumentElement().getTextContent()
+                .replace("oai:2", ""));
+    }
+
+    /**
+     * An envelope read as a stream is split into its records.
+     */
+    @Test
+    public void testStream() throws Exception {
+        check(split(new Metadata("envelope", "prefix", new ByteArrayInputStream(
+                ENVELOPE.getBytes(StandardCharsets.UTF_8)), null, true, true)));
+    }
+
+    /**
+     * An envelope held as a tree is split in the same way.
+     */
+    @Test
+    public void testTree() throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document doc = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(
+                ENVELOPE.getBytes(StandardCharsets.UTF_8)));
+        check(split(new Metadata("envelope", "prefix", doc, null, true, true)));
+    }
+}
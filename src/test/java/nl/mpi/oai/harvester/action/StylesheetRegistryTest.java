@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static nl.mpi.oai.harvester.action.TransformTestHelper.delete;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the StylesheetRegistry class.
+ */
+public class StylesheetRegistryTest {
+
+    private Path temp;
+
+    @Before
+    public void setUp() throws IOException {
+        temp = Files.createTempDirectory("registry-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(temp);
+    }
+
+    private String stylesheet(String name) throws IOException {
+        return TransformTestHelper.stylesheet(temp, name,
+                "<xsl:template match=\"/\"><a/></xsl:template>").toString();
+    }
+
+    /**
+     * Actions using the same stylesheet, and their copies, share the
+     * compiled stylesheet.
+     */
+    @Test
+    public void testShared() throws Exception {
+        String xsl = stylesheet("shared.xsl");
+        int before = StylesheetRegistry.getCompilations();
+
+        TransformAction action = new TransformAction(xsl, null, 0);
+        TransformAction other = new TransformAction(xsl, null, 2);
+        TransformAction copy = (TransformAction) action.clone();
+        assertEquals(before + 1, StylesheetRegistry.getCompilations());
+
+        assertSame(StylesheetRegistry.get(xsl, null).templates,
+                StylesheetRegistry.get(xsl, null).templates);
+        assertSame(action.factory, other.factory);
+        assertSame(action.factory, copy.factory);
+        assertEquals(action, copy);
+
+        // resources cached elsewhere need a resolver of their own
+        new TransformAction(xsl, temp, 0);
+        assertEquals(before + 2, StylesheetRegistry.getCompilations());
+    }
+
+    /**
+     * A stylesheet changed on disk is compiled again.
+     */
+    @Test
+    public void testModified() throws Exception {
+        String xsl = stylesheet("modified.xsl");
+        StylesheetRegistry.Compiled compiled = StylesheetRegistry.get(xsl, null);
+        Files.setLastModifiedTime(temp.resolve("modified.xsl"),
+                FileTime.fromMillis(System.currentTimeMillis() + 60000));
+        assertNotSame(compiled.templates, StylesheetRegistry.get(xsl, null).templates);
+    }
+
+    /**
+     * Stylesheets compiled up front are not compiled again, and a missing
+     * stylesheet is still reported when an action asks for it.
+     */
+    @Test
+    public void testCompileAll() throws Exception {
+        List<Map.Entry<String, Path>> stylesheets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            stylesheets.add(new AbstractMap.SimpleImmutableEntry<>(stylesheet("s" + i + ".xsl"), (Path) null));
+        }
+        String missing = temp.resolve("missing.xsl").toString();
+        stylesheets.add(new AbstractMap.SimpleImmutableEntry<>(missing, (Path) null));
+
+        int before = StylesheetRegistry.getCompilations();
+        StylesheetRegistry.compileAll(stylesheets);
+        assertEquals(before + 4, StylesheetRegistry.getCompilations());
+
+        for (int i = 0; i < 4; i++) {
+            new TransformAction(stylesheets.get(i).getKey(), null, 0);
+        }
+        assertEquals(before + 4, StylesheetRegistry.getCompilations());
+
+        try {
+            new TransformAction(missing, null, 0);
+            fail("the stylesheet is missing");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+}
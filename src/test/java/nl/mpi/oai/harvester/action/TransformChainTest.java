@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.control.OutputDirectory;
+import nl.mpi.oai.harvester.metadata.Metadata;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static nl.mpi.oai.harvester.action.TransformTestHelper.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for applying runs of transformations in a single pass.
+ */
+public class TransformChainTest {
+
+    private Path temp;
+
+    private TransformAction wrap;
+    private TransformAction label;
+    private SaveAction save;
+
+    private Provider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        temp = Files.createTempDirectory("chain-");
+        wrap = new TransformAction(stylesheet(temp, "wrap.xsl",
+                "<xsl:template match=\"/\"><a><xsl:copy-of select=\"*\"/></a></xsl:template>")
+                .toString(), null, 2);
+        label = new TransformAction(stylesheet(temp, "label.xsl",
+                "<xsl:template match=\"/a\"><b provider=\"{$provider_name}\" "
+                        + "id=\"{$record_identifier}\"><xsl:copy-of select=\"node()\"/></b>"
+                        + "</xsl:template>").toString(), null, 1);
+        save = new SaveAction(new OutputDirectory(temp.resolve("out")), ".xml", false, false);
+
+        provider = provider("http://chain.test/oai");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(temp);
+    }
+
+    private Metadata record(String id) {
+        return TransformTestHelper.record(id, "<r>text</r>", provider);
+    }
+
+    /**
+     * Only runs of at least two actions are chained, and a save action only
+     * if it ends the sequence.
+     */
+    @Test
+    public void testFuse() {
+        List<Action> fused = TransformChain.fuse(new Action[]{wrap, label, save});
+        assertEquals(1, fused.size());
+        assertTrue(fused.get(0) instanceof TransformChain);
+        assertEquals(wrap + " --> " + label + " --> " + save, fused.get(0).toString());
+
+        fused = TransformChain.fuse(new Action[]{wrap, save, label});
+        assertEquals(Arrays.<Action>asList(wrap, save, label), fused);
+
+        fused = TransformChain.fuse(new Action[]{save, wrap, label});
+        assertEquals(2, fused.size());
+        assertSame(save, fused.get(0));
+        assertEquals(new TransformChain(new TransformAction[]{wrap, label}, null), fused.get(1));
+    }
+
+    /**
+     * Every semaphore has a number of its own, by which chains order taking
+     * them, and actions sharing a semaphore share its number.
+     */
+    @Test
+    public void testSemaphoreNumbers() throws Exception {
+        assertTrue(wrap.getSemaphoreNumber() != label.getSemaphoreNumber());
+        assertEquals(wrap.getSemaphoreNumber(),
+                ((TransformAction) wrap.clone()).getSemaphoreNumber());
+
+        TransformAction shared = new TransformAction(temp.resolve("wrap.xsl").toString(),
+                null, wrap.getSemaphore());
+        assertEquals(wrap.getSemaphoreNumber(), shared.getSemaphoreNumber());
+
+        TransformAction unlimited = new TransformAction(temp.resolve("wrap.xsl").toString(),
+                null, 0);
+        assertEquals(-1, unlimited.getSemaphoreNumber());
+    }
+
+    /**
+     * The chain saves what the actions one by one would have saved.
+     */
+    @Test
+    public void testSave() throws Exception {
+        Metadata record = record("rec1");
+        ActionSequence sequence = new ActionSequence(new MetadataFormat("prefix", "test"),
+                new Action[]{wrap, label, save}, 2);
+        sequence.runActions(record);
+        String chained = new String(Files.readAllBytes(temp.resolve("out").resolve("rec1.xml")),
+                StandardCharsets.UTF_8);
+
+        Metadata single = record("rec2");
+        for (Action action : new Action[]{wrap, label, save}) {
+            assertTrue(action.perform(Arrays.asList(single)));
+        }
+        String separate = new String(Files.readAllBytes(temp.resolve("out").resolve("rec2.xml")),
+                StandardCharsets.UTF_8);
+
+        assertTrue(chained, chained.contains("<b provider=\"P\" id=\"rec1\"><r>text</r></b>"));
+        assertEquals(separate.substring(separate.indexOf("<b")).trim()
+                        .replace("rec2", "rec1"),
+                chained.substring(chained.indexOf("<b")).trim());
+    }
+
+    /**
+     * Without a save action, the record holds the result.
+     */
+    @Test
+    public void testStream() throws Exception {
+        Metadata record = record("rec3");
+        TransformChain chain = new TransformChain(new TransformAction[]{wrap, label}, null);
+        assertTrue(chain.clone().perform(Arrays.asList(record)));
+        String result = read(record.getStream());
+        assertTrue(result, result.contains("<b provider=\"P\" id=\"rec3\"><r>text</r></b>"));
+    }
+
+    /**
+     * A failing transformation does not leave a file behind.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        TransformAction fail = new TransformAction(stylesheet(temp, "fail.xsl",
+                "<xsl:template match=\"/\"><c><xsl:message terminate=\"yes\">no</xsl:message>"
+                        + "</c></xsl:template>").toString(), null, 0);
+        TransformChain chain = new TransformChain(new TransformAction[]{wrap, fail}, save);
+        assertFalse(chain.perform(Arrays.asList(record("rec4"))));
+        assertFalse(Files.exists(temp.resolve("out").resolve("rec4.xml")));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.action;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.metadata.Metadata;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * <br> Help testing transformations <br><br>
+ *
+ * The tests of the transform actions write their stylesheets to a temporary
+ * directory, apply them to small records of a provider, and read the
+ * results. This helper supplies these steps.
+ */
+final class TransformTestHelper {
+
+    private TransformTestHelper() {
+    }
+
+    /**
+     * <br> Write a stylesheet taking the parameters a transform action
+     * passes to it
+     *
+     * @param dir the directory to write the stylesheet to
+     * @param name the name of the file
+     * @param templates the templates of the stylesheet
+     * @return the location of the stylesheet
+     * @throws IOException the stylesheet cannot be written
+     */
+    static Path stylesheet(Path dir, String name, String templates) throws IOException {
+        Path path = dir.resolve(name);
+        Files.write(path, ("<xsl:stylesheet version=\"2.0\" "
+                + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+                + "<xsl:param name=\"provider_name\"/>"
+                + "<xsl:param name=\"record_identifier\"/>"
+                + templates + "</xsl:stylesheet>").getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    /**
+     * @param url the endpoint of the provider
+     * @return a provider named P, that does not retry
+     * @throws ParserConfigurationException the provider cannot be created
+     */
+    static Provider provider(String url) throws ParserConfigurationException {
+        Provider provider = new Provider(url, 0, new int[]{0});
+        provider.setName("P");
+        return provider;
+    }
+
+    /**
+     * @param id the identifier of the record
+     * @param content the content of the record
+     * @param provider the provider of the record
+     * @return the record
+     */
+    static Metadata record(String id, String content, Provider provider) {
+        return new Metadata(id, "prefix", new ByteArrayInputStream(
+                content.getBytes(StandardCharsets.UTF_8)), provider, false, false);
+    }
+
+    /**
+     * <br> Read a stream to its end, and close it
+     *
+     * @param in the stream
+     * @return what was read, decoded as UTF-8
+     * @throws IOException the stream cannot be read
+     */
+    static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * <br> Delete a directory and everything in it
+     *
+     * @param dir the directory
+     * @throws IOException the directory cannot be listed
+     */
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.control;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the HarvestPlan class.
+ */
+public class HarvestPlanTest {
+
+    /**
+     * The longest jobs start first, and the slots are filled evenly.
+     */
+    @Test
+    public void testSchedule() {
+        HarvestPlan<String> plan = new HarvestPlan<>();
+        plan.add("short", "short", new long[]{10, 100}, 0);
+        plan.add("new", "new", null, 0);
+        plan.add("long", "long", new long[]{600, 1000}, 0);
+        plan.add("grown", "grown", new long[]{100, 100}, 300);
+        plan.add("medium", "medium", new long[]{200, 1000}, 0);
+
+        List<String> order = plan.schedule(2);
+
+        // grown: 300 records at one a second; new: 277, the average of the others
+        assertEquals(Arrays.asList("long", "grown", "new", "medium", "short"), order);
+        // long and short share a slot, grown, new and medium the other one
+        assertEquals(300 + 277 + 200, plan.getMakespan());
+    }
+
+    /**
+     * Without any history, the order of the configuration is kept.
+     */
+    @Test
+    public void testUnknown() {
+        HarvestPlan<String> plan = new HarvestPlan<>();
+        plan.add("a", "a", null, 0);
+        plan.add("b", "b", null, 0);
+        plan.add("c", "c", null, 0);
+
+        assertEquals(Arrays.asList("a", "b", "c"), plan.schedule(2));
+    }
+
+    /**
+     * The most recent harvest is taken from the history, file entries are
+     * skipped.
+     */
+    @Test
+    public void testReadHistory() throws Exception {
+        File file = File.createTempFile("plan-", "_history.xml");
+        try {
+            Files.write(file.toPath(), ("<harvest date=\"2015-01-01\" operationTime=\"100s\" "
+                    + "requestsToServer=\"3\" collectedRecords=\"50\" />\n"
+                    + "<harvest date=\"2015-02-01\" operationTime=\"120s\" "
+                    + "requestsToServer=\"4\" collectedRecords=\"60\">\n"
+                    + "  <list name=\"oai_dc\" pages=\"4\" records=\"60\" operationTime=\"110s\" />\n"
+                    + "</harvest>\n"
+                    + "<file harvestDate=\"2015-02-01\" name=\"a.xml\" operation=\"DELETE\" />\n")
+                    .getBytes(StandardCharsets.UTF_8));
+
+            long[] history = HarvestPlan.readHistory(file);
+            assertEquals(120, history[0]);
+            assertEquals(60, history[1]);
+        } finally {
+            file.delete();
+        }
+        assertNull(HarvestPlan.readHistory(file));
+    }
+}
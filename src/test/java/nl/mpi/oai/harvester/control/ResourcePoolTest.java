@@ -20,6 +20,9 @@ package nl.mpi.oai.harvester.control;
 
 import nl.mpi.oai.harvester.control.ResourcePool;
 import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
 /**
@@ -43,4 +46,39 @@ public class ResourcePoolTest {
 	pool.release(r);
 	assertEquals(pool.getNumAvailable(), 1);
     }    
+
+    /**
+     * Waiting for a resource is bounded by the timeout, and accounted for.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+	String[] t = {"string"};
+	final ResourcePool<String> pool = new ResourcePool<>(t);
+	final String r = pool.get(1, TimeUnit.SECONDS);
+	assertEquals(t[0], r);
+	assertEquals(0, pool.getWaits());
+
+	assertNull(pool.get(100, TimeUnit.MILLISECONDS));
+	assertEquals(1, pool.getTimeouts());
+
+	Thread releaser = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    Thread.sleep(200);
+		} catch (InterruptedException e) {
+		    return;
+		}
+		pool.release(r);
+	    }
+	});
+	releaser.start();
+	assertEquals(t[0], pool.get(5, TimeUnit.SECONDS));
+	releaser.join();
+
+	assertEquals(2, pool.getUses());
+	assertEquals(2, pool.getWaits());
+	assertTrue(pool.getMaxWait() >= 100);
+	assertTrue(pool.getWaitTime() >= pool.getMaxWait());
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.control;
+
+import nl.mpi.oai.harvester.Provider;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the RunSummary class.
+ */
+public class RunSummaryTest {
+
+    private static Provider provider(String url) throws Exception {
+        return new Provider(url, 0, new int[]{0});
+    }
+
+    /**
+     * The outcomes are waited for and grouped, and determine the exit code.
+     */
+    @Test
+    public void testCollect() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<Boolean> slow = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    Thread.sleep(200);
+                    return true;
+                }
+            });
+
+            RunSummary summary = new RunSummary();
+            summary.collect(provider("http://a.test/oai"), slow);
+            assertTrue(slow.isDone());
+            assertEquals(RunSummary.EXIT_OK, summary.getExitCode());
+
+            Provider named = provider("http://b.test/oai");
+            named.setName("B");
+            summary.collect(named, executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return false;
+                }
+            }));
+            summary.collect(provider("http://c.test/oai"), executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    throw new IllegalStateException("crash");
+                }
+            }));
+            summary.log();
+
+            assertEquals("http://a.test/oai", summary.getHarvested().get(0));
+            assertEquals("B", summary.getFailed().get(0));
+            assertEquals("http://c.test/oai", summary.getCrashed().get(0));
+            assertEquals(RunSummary.EXIT_INCOMPLETE, summary.getExitCode());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.control;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.utils.RequestGuard;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the Watchdog class.
+ */
+public class WatchdogTest {
+
+    @After
+    public void tearDown() {
+        Watchdog.setStallTimeoutMillis(0);
+    }
+
+    /**
+     * A harvest without progress is interrupted, and its endpoint refuses
+     * requests until the watch is closed.
+     */
+    @Test
+    public void testStall() throws Exception {
+        Watchdog.setStallTimeoutMillis(200);
+        Provider provider = new Provider("http://stalled.test/oai", 0, new int[]{0});
+
+        long start = System.currentTimeMillis();
+        Watchdog.Watch watch = Watchdog.watch(provider);
+        try {
+            Thread.sleep(10000);
+            fail("the harvest should be interrupted");
+        } catch (InterruptedException e) {
+            // cancelled
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(watch.isCancelled());
+
+        try {
+            RequestGuard.start("http://stalled.test/oai?verb=Identify");
+            fail("the request should be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+
+        watch.close();
+        assertFalse(Thread.currentThread().isInterrupted());
+        RequestGuard.start("http://stalled.test/oai?verb=Identify").finish();
+    }
+
+    /**
+     * Without a stall timeout, a harvest is left alone.
+     */
+    @Test
+    public void testDisabled() throws Exception {
+        Provider provider = new Provider("http://slow.test/oai", 0, new int[]{0});
+        Watchdog.Watch watch = Watchdog.watch(provider);
+        Thread.sleep(300);
+        watch.close();
+        assertFalse(watch.isCancelled());
+    }
+}
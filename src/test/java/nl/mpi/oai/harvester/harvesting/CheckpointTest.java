@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.action.Action;
+import nl.mpi.oai.harvester.action.ActionSequence;
+import nl.mpi.oai.harvester.action.SaveAction;
+import nl.mpi.oai.harvester.control.OutputDirectory;
+import nl.mpi.oai.harvester.metadata.MetadataFactory;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import nl.mpi.oai.harvester.utils.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static nl.mpi.oai.harvester.utils.LoopbackServer.oai;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for journaling the progress of harvesting, and resuming it. The
+ * responses are served from the loopback interface.
+ */
+public class CheckpointTest {
+
+    private LoopbackServer server;
+
+    private String endpoint;
+
+    private Path file;
+
+    // the ListRecords queries received
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+
+    // true if the second page cannot be served
+    private volatile boolean broken = false;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("checkpoint-", ".properties");
+        Files.delete(file);
+
+        server = new LoopbackServer(false);
+        endpoint = server.url("/oai");
+        server.serve("/oai", new LoopbackServer.Responder() {
+            @Override
+            public String respond(String query) {
+                if (broken && query.contains("resumptionToken=page-2")) {
+                    return null;
+                }
+                if (query.contains("verb=ListRecords")) {
+                    queries.add(query);
+                }
+
+                if (query.contains("verb=Identify")) {
+                    // the name of the provider
+                    return oai("<Identify><repositoryName>test</repositoryName></Identify>");
+                } else if (query.contains("resumptionToken=expired")) {
+                    return oai("<error code='badResumptionToken'>expired</error>");
+                } else if (query.contains("resumptionToken=page-2")) {
+                    return page("2", "");
+                } else {
+                    return page("1", "page-2");
+                }
+            }
+        }).start();
+    }
+
+    private static String page(String id, String token) {
+        return oai("<ListRecords><record><header><identifier>" + id
+                + "</identifier></header><metadata><md/></metadata></record>"
+                + "<resumptionToken>" + token + "</resumptionToken>"
+                + "</ListRecords>");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        Files.deleteIfExists(file);
+    }
+
+    private boolean harvest(Checkpoint checkpoint, Action... actions) throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        ActionSequence sequence = new ActionSequence(
+                new MetadataFormat("prefix", "oai_dc"), actions, 1);
+
+        OAIFactory factory = new OAIFactory();
+        RecordListHarvesting harvesting = new RecordListHarvesting(factory,
+                provider, Collections.singletonList("oai_dc"), new MetadataFactory(), null);
+        harvesting.setCheckpoint(checkpoint);
+        try {
+            return new Scenario(provider, sequence).listRecords(harvesting);
+        } finally {
+            factory.close();
+            provider.close();
+        }
+    }
+
+    /**
+     * Commits, windows and restarts survive reopening the journal.
+     */
+    @Test
+    public void testJournal() {
+        Checkpoint checkpoint = Checkpoint.open(file);
+        assertFalse(checkpoint.isResuming());
+
+        checkpoint.setWindows(Arrays.asList(new String[]{"2015-01-01", "2015-06-30"},
+                new String[]{"2015-07-01", "2015-12-31"}));
+        checkpoint.commit("oai_dc", "abc", 10);
+        checkpoint.commit("oai_dc", "def", 5);
+        checkpoint.commit("cmdi", "", 3);
+
+        checkpoint = Checkpoint.open(file);
+        assertTrue(checkpoint.isResuming());
+        assertEquals("def", checkpoint.getToken("oai_dc"));
+        assertEquals(15, checkpoint.getRecords("oai_dc"));
+        assertFalse(checkpoint.isDone("oai_dc"));
+        assertTrue(checkpoint.isDone("cmdi"));
+        assertNull(checkpoint.getToken("cmdi"));
+        assertEquals(2, checkpoint.getWindows().size());
+        assertEquals("2015-07-01", checkpoint.getWindows().get(1)[0]);
+        assertEquals("2015-12-31", checkpoint.getWindows().get(1)[1]);
+
+        checkpoint.restart("oai_dc");
+        assertNull(checkpoint.getToken("oai_dc"));
+        assertEquals(0, checkpoint.getRecords("oai_dc"));
+
+        checkpoint.clear();
+        assertFalse(Files.exists(file));
+    }
+
+    /**
+     * Every page is committed, and the list is marked done at the end.
+     */
+    @Test
+    public void testCommit() throws Exception {
+        Checkpoint checkpoint = Checkpoint.open(file);
+        assertTrue(harvest(checkpoint));
+
+        assertTrue(checkpoint.isDone("oai_dc"));
+        assertEquals(2, checkpoint.getRecords("oai_dc"));
+        assertEquals(2, queries.size());
+    }
+
+    /**
+     * A harvest continues from the token journaled.
+     */
+    @Test
+    public void testResume() throws Exception {
+        Checkpoint checkpoint = Checkpoint.open(file);
+        checkpoint.commit("oai_dc", "page-2", 1);
+
+        checkpoint = Checkpoint.open(file);
+        assertTrue(harvest(checkpoint));
+
+        assertEquals(1, queries.size());
+        assertTrue(queries.get(0).contains("resumptionToken=page-2"));
+        assertTrue(checkpoint.isDone("oai_dc"));
+        assertEquals(2, checkpoint.getRecords("oai_dc"));
+    }
+
+    /**
+     * A resumed harvest numbers its responses after the ones saved by the
+     * harvest it resumes, and leaves those in place.
+     */
+    @Test
+    public void testResumeKeepsResponses() throws Exception {
+        Path out = Files.createTempDirectory("checkpoint-out-");
+        try {
+            Action save = new SaveAction(new OutputDirectory(out), ".xml", false, false);
+
+            broken = true;
+            assertFalse(harvest(Checkpoint.open(file), save));
+            assertEquals(1, Files.list(out).count());
+            Path first = out.resolve("test_0000000.xml");
+            String saved = new String(Files.readAllBytes(first), StandardCharsets.UTF_8);
+            assertTrue(saved, saved.contains("<identifier>1</identifier>"));
+
+            broken = false;
+            Checkpoint checkpoint = Checkpoint.open(file);
+            assertTrue(checkpoint.isResuming());
+            assertEquals(1, checkpoint.getNextPage());
+            assertTrue(harvest(checkpoint, save));
+
+            assertEquals(saved, new String(Files.readAllBytes(first), StandardCharsets.UTF_8));
+            String resumed = new String(Files.readAllBytes(out.resolve("test_0000001.xml")),
+                    StandardCharsets.UTF_8);
+            assertTrue(resumed, resumed.contains("<identifier>2</identifier>"));
+            assertEquals(2, checkpoint.getNextPage());
+        } finally {
+            Files.walk(out).sorted((a, b) -> b.compareTo(a)).map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    /**
+     * If the endpoint does not accept the token journaled any more, the list
+     * is requested from the start.
+     */
+    @Test
+    public void testExpired() throws Exception {
+        Checkpoint checkpoint = Checkpoint.open(file);
+        checkpoint.commit("oai_dc", "expired", 1);
+
+        checkpoint = Checkpoint.open(file);
+        assertTrue(harvest(checkpoint));
+
+        assertEquals(3, queries.size());
+        assertTrue(queries.get(0).contains("resumptionToken=expired"));
+        assertTrue(queries.get(1).contains("verb=ListRecords&"));
+        assertFalse(queries.get(1).contains("resumptionToken"));
+        assertTrue(checkpoint.isDone("oai_dc"));
+        assertEquals(2, checkpoint.getRecords("oai_dc"));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.action.Action;
+import nl.mpi.oai.harvester.action.ActionSequence;
+import nl.mpi.oai.harvester.metadata.Metadata;
+import nl.mpi.oai.harvester.metadata.MetadataFactory;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import nl.mpi.oai.harvester.utils.ConnectionLimiter;
+import nl.mpi.oai.harvester.utils.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.mpi.oai.harvester.utils.LoopbackServer.OAI;
+import static nl.mpi.oai.harvester.utils.LoopbackServer.oai;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for harvesting the sets and prefixes of a provider at the same time.
+ * The responses are served from the loopback interface.
+ */
+public class ConcurrentSetsTest {
+
+    private LoopbackServer server;
+
+    private String endpoint;
+
+    // number of list requests being served, and the maximum reached
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    // the identifiers and prefixes of the records requested
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        // serve the requests at the same time
+        server = new LoopbackServer(true);
+        endpoint = server.url("/oai");
+        ConnectionLimiter.setHostLimit(endpoint, 2);
+
+        server.serve("/oai", new LoopbackServer.Responder() {
+            @Override
+            public String respond(String query) {
+                if (query.contains("verb=GetRecord")) {
+                    String id = query.replaceAll(".*identifier=([^&]*).*", "$1");
+                    requested.add(id + ":" + query.replaceAll(".*metadataPrefix=([^&]*).*", "$1"));
+                    return oai("<GetRecord><record><header><identifier>" + id
+                            + "</identifier></header><metadata><md/></metadata>"
+                            + "</record></GetRecord>");
+                }
+
+                int n = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), n));
+                }
+                try {
+                    // keep the request open, so that the other set can start
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+
+                if (query.contains("set=a")) {
+                    return list(Arrays.asList("1", "2"), "a-2");
+                } else if (query.contains("resumptionToken=a-2")) {
+                    return list(Collections.singletonList("3"), "");
+                } else {
+                    return list(Arrays.asList("2", "3", "4"), "");
+                }
+            }
+        }).start();
+    }
+
+    private static String list(List<String> identifiers, String token) {
+        StringBuilder sb = new StringBuilder(OAI).append("<ListIdentifiers>");
+        for (String identifier : identifiers) {
+            sb.append("<header><identifier>").append(identifier)
+                    .append("</identifier></header>");
+        }
+        return sb.append("<resumptionToken>").append(token)
+                .append("</resumptionToken></ListIdentifiers></OAI-PMH>").toString();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ConnectionLimiter.setHostLimit(endpoint, 1);
+    }
+
+    /**
+     * The sets are listed at the same time, and a record in both sets is
+     * requested and processed only once.
+     */
+    @Test
+    public void testListIdentifiers() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        provider.setSets(new String[]{"a", "b"});
+
+        final List<String> processed = new CopyOnWriteArrayList<>();
+        Action action = new Action() {
+            @Override
+            public boolean perform(List<Metadata> records) {
+                for (Metadata record : records) {
+                    processed.add(record.getId());
+                }
+                return true;
+            }
+
+            @Override
+            public Action clone() {
+                return this;
+            }
+        };
+        ActionSequence sequence = new ActionSequence(
+                new MetadataFormat("prefix", "oai_dc"), new Action[]{action}, 1);
+
+        List<ListHarvesting> chains = new ArrayList<>();
+        List<OAIFactory> factories = new ArrayList<>();
+        MetadataFactory metadataFactory = new MetadataFactory();
+        for (String set : provider.sets) {
+            OAIFactory factory = new OAIFactory();
+            factories.add(factory);
+            ListHarvesting harvesting = new IdentifierListHarvesting(factory,
+                    provider, Collections.singletonList("oai_dc"), metadataFactory, null);
+            harvesting.restrictToSet(set);
+            if (!chains.isEmpty()) {
+                harvesting.shareTargets(chains.get(0));
+            }
+            chains.add(harvesting);
+        }
+
+        Scenario scenario = new Scenario(provider, sequence);
+        assertTrue(scenario.listIdentifiers(chains, 2));
+
+        for (OAIFactory factory : factories) {
+            factory.close();
+        }
+        provider.close();
+
+        assertEquals(2, maxActive.get());
+
+        List<String> records = new ArrayList<>(requested);
+        Collections.sort(records);
+        assertEquals(Arrays.asList("1:oai_dc", "2:oai_dc", "3:oai_dc", "4:oai_dc"), records);
+
+        List<String> ids = new ArrayList<>(processed);
+        Collections.sort(ids);
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids);
+    }
+
+    /**
+     * The prefixes are listed at the same time, and every record is requested
+     * once in every prefix.
+     */
+    @Test
+    public void testPrefixes() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        List<String> prefixes = Arrays.asList("oai_dc", "cmdi");
+
+        ActionSequence sequence = new ActionSequence(
+                new MetadataFormat("prefix", "oai_dc"), new Action[0], 1);
+
+        List<ListHarvesting> chains = new ArrayList<>();
+        List<OAIFactory> factories = new ArrayList<>();
+        MetadataFactory metadataFactory = new MetadataFactory();
+        for (String prefix : prefixes) {
+            OAIFactory factory = new OAIFactory();
+            factories.add(factory);
+            ListHarvesting harvesting = new IdentifierListHarvesting(factory,
+                    provider, prefixes, metadataFactory, null);
+            harvesting.restrictToPrefix(prefix);
+            if (!chains.isEmpty()) {
+                harvesting.shareTargets(chains.get(0));
+            }
+            chains.add(harvesting);
+        }
+
+        Scenario scenario = new Scenario(provider, sequence);
+        assertTrue(scenario.listIdentifiers(chains, prefixes.size()));
+
+        for (OAIFactory factory : factories) {
+            factory.close();
+        }
+        provider.close();
+
+        assertEquals(2, maxActive.get());
+
+        List<String> records = new ArrayList<>(requested);
+        Collections.sort(records);
+        assertEquals(Arrays.asList("2:cmdi", "2:oai_dc", "3:cmdi", "3:oai_dc",
+                "4:cmdi", "4:oai_dc"), records);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for splitting datestamps into windows.
+ */
+public class DateWindowsTest {
+
+    /**
+     * Windows of days follow each other without a gap or an overlap.
+     */
+    @Test
+    public void testSplitDays() {
+        List<String[]> windows = DateWindows.split(DateWindows.parse("2000-01-01"),
+                DateWindows.parse("2000-01-10T12:00:00Z"), 3, false);
+
+        assertEquals(3, windows.size());
+        assertArrayEquals(new String[]{"2000-01-01", "2000-01-03"}, windows.get(0));
+        assertArrayEquals(new String[]{"2000-01-04", "2000-01-06"}, windows.get(1));
+        assertArrayEquals(new String[]{"2000-01-07", "2000-01-10"}, windows.get(2));
+    }
+
+    /**
+     * Windows of seconds, and never more windows than units.
+     */
+    @Test
+    public void testSplitSeconds() {
+        DateTime start = DateWindows.parse("2000-01-01T00:00:00Z");
+
+        List<String[]> windows = DateWindows.split(start, start.plusSeconds(3), 2, true);
+        assertEquals(2, windows.size());
+        assertArrayEquals(new String[]{"2000-01-01T00:00:00Z", "2000-01-01T00:00:01Z"}, windows.get(0));
+        assertArrayEquals(new String[]{"2000-01-01T00:00:02Z", "2000-01-01T00:00:03Z"}, windows.get(1));
+
+        windows = DateWindows.split(start, start, 4, true);
+        assertEquals(1, windows.size());
+    }
+
+    /**
+     * The number of windows follows from the probe.
+     */
+    @Test
+    public void testCount() {
+        // a single page
+        assertEquals(1, DateWindows.count(50, 100, "", 4));
+        assertEquals(1, DateWindows.count(-1, 100, null, 4));
+        // a few pages
+        assertEquals(3, DateWindows.count(250, 100, "token", 4));
+        // many pages, or an unknown number
+        assertEquals(16, DateWindows.count(100000, 100, "token", 4));
+        assertEquals(16, DateWindows.count(-1, 100, "token", 4));
+    }
+}
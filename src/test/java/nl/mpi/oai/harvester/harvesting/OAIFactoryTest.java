@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.utils.DocumentSource;
+import nl.mpi.oai.harvester.utils.LoopbackServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static nl.mpi.oai.harvester.utils.LoopbackServer.oai;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for requesting ListRecords pages ahead. The pages are served from the
+ * loopback interface.
+ */
+public class OAIFactoryTest {
+
+    // number of pages in the list
+    private static final int PAGES = 4;
+
+    private LoopbackServer server;
+
+    private String endpoint;
+
+    // the pages requested, in order
+    private final List<Integer> requested = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer(false);
+        endpoint = server.url("/oai");
+
+        server.serve("/oai", new LoopbackServer.Responder() {
+            @Override
+            public String respond(String query) {
+                int page = query.contains("resumptionToken=")
+                        ? Integer.parseInt(query.replaceAll(".*resumptionToken=page", "")) : 0;
+                requested.add(page);
+
+                String token = page + 1 < PAGES ? "page" + (page + 1) : "";
+                return oai("<ListRecords><record><header><identifier>" + page
+                        + "</identifier></header></record>"
+                        + "<resumptionToken>" + token + "</resumptionToken>"
+                        + "</ListRecords>");
+            }
+        }).start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Every page is delivered once and in order, while the next page is
+     * requested before the client asks for it.
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        OAIFactory factory = new OAIFactory();
+        factory.setPrefetchDepth(1);
+
+        DocumentSource response = factory.createListRecords(endpoint, null, null,
+                null, "oai_dc", 0, provider);
+        for (int page = 0; ; page++) {
+            assertTrue(IOUtils.toString(response.getStream(), "UTF-8")
+                    .contains("<identifier>" + page + "</identifier>"));
+
+            String token = factory.getResumptionToken();
+            if (token.isEmpty()) {
+                assertEquals(PAGES - 1, page);
+                break;
+            }
+
+            // the next page is requested without the client asking for it
+            for (int i = 0; i < 100 && requested.size() < page + 2; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(page + 2, requested.size());
+
+            response = factory.createListRecords(endpoint, token, 0, provider);
+        }
+        factory.close();
+        provider.close();
+
+        // no page was requested twice
+        assertEquals(PAGES, requested.size());
+        for (int page = 0; page < PAGES; page++) {
+            assertEquals(Integer.valueOf(page), requested.get(page));
+        }
+    }
+
+    /**
+     * Without a prefetch depth, pages are only requested by the client.
+     */
+    @Test
+    public void testNoPrefetch() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        OAIFactory factory = new OAIFactory();
+
+        factory.createListRecords(endpoint, null, null, null, "oai_dc", 0, provider);
+        Thread.sleep(200);
+        assertEquals(1, requested.size());
+
+        factory.createListRecords(endpoint, factory.getResumptionToken(), 0, provider);
+        assertEquals(2, requested.size());
+
+        factory.close();
+        provider.close();
+    }
+}
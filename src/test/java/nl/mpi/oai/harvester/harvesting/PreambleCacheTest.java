@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.cycle.Preamble;
+import nl.mpi.oai.harvester.utils.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static nl.mpi.oai.harvester.utils.LoopbackServer.oai;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for keeping the Identify and ListMetadataFormats facts. The responses
+ * are served from the loopback interface.
+ */
+public class PreambleCacheTest {
+
+    private LoopbackServer server;
+
+    private String endpoint;
+
+    // the requests, as verb and status
+    private final List<String> requested = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer(false);
+        endpoint = server.url("/oai");
+
+        server.serve("/oai", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String verb = exchange.getRequestURI().getQuery().replace("verb=", "");
+                String eTag = "\"" + verb + "-1\"";
+
+                if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    requested.add(verb + " " + HttpURLConnection.HTTP_NOT_MODIFIED);
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                    exchange.close();
+                    return;
+                }
+
+                String body;
+                if (verb.equals("Identify")) {
+                    body = oai("<Identify><repositoryName>Test archive</repositoryName>"
+                            + "<earliestDatestamp>2000-01-01</earliestDatestamp>"
+                            + "<deletedRecord>persistent</deletedRecord>"
+                            + "<granularity>YYYY-MM-DD</granularity>"
+                            + "</Identify>");
+                } else {
+                    body = oai("<ListMetadataFormats>"
+                            + "<metadataFormat><metadataPrefix>oai_dc</metadataPrefix>"
+                            + "<schema>http://www.openarchives.org/OAI/2.0/oai_dc.xsd</schema>"
+                            + "<metadataNamespace>http://www.openarchives.org/OAI/2.0/oai_dc/</metadataNamespace>"
+                            + "</metadataFormat>"
+                            + "<metadataFormat><metadataPrefix>cmdi</metadataPrefix></metadataFormat>"
+                            + "</ListMetadataFormats>");
+                }
+                requested.add(verb + " " + HttpURLConnection.HTTP_OK);
+                exchange.getResponseHeaders().set("ETag", eTag);
+                LoopbackServer.send(exchange, body);
+            }
+        }).start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Without a preamble, both verbs are requested.
+     */
+    @Test
+    public void testRefresh() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+
+        Preamble preamble = PreambleCache.refresh(provider, null, 3600000);
+        provider.close();
+
+        assertEquals(2, requested.size());
+        assertEquals("Identify 200", requested.get(0));
+        assertEquals("ListMetadataFormats 200", requested.get(1));
+
+        assertNotNull(preamble);
+        assertNotNull(preamble.getFetched());
+        assertEquals("Test archive", preamble.getName());
+        assertEquals("persistent", preamble.getDeletedRecord());
+        assertEquals("YYYY-MM-DD", preamble.getGranularity());
+        assertEquals("2000-01-01", preamble.getEarliestDatestamp());
+        assertEquals("\"Identify-1\"", preamble.getIdentifyETag());
+        assertEquals("\"ListMetadataFormats-1\"", preamble.getFormatsETag());
+
+        assertEquals(2, preamble.getFormats().size());
+        assertEquals("oai_dc", preamble.getFormats().get(0).getPrefix());
+        assertEquals("http://www.openarchives.org/OAI/2.0/oai_dc/",
+                preamble.getFormats().get(0).getNamespace());
+        assertEquals("cmdi", preamble.getFormats().get(1).getPrefix());
+        assertNull(preamble.getFormats().get(1).getSchema());
+    }
+
+    /**
+     * A preamble that is still valid is used without a request, an expired
+     * one is confirmed by conditional requests.
+     */
+    @Test
+    public void testRevalidate() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+
+        Preamble known = PreambleCache.refresh(provider, null, 3600000);
+        requested.clear();
+
+        assertSame(known, PreambleCache.refresh(provider, known, 3600000));
+        assertTrue(requested.isEmpty());
+
+        Preamble preamble = PreambleCache.refresh(provider, known, 0);
+        provider.close();
+
+        assertEquals(2, requested.size());
+        assertEquals("Identify 304", requested.get(0));
+        assertEquals("ListMetadataFormats 304", requested.get(1));
+
+        assertNotSame(known, preamble);
+        assertFalse(preamble.getFetched().isBefore(known.getFetched()));
+        assertEquals(known.getName(), preamble.getName());
+        assertEquals(known.getDeletedRecord(), preamble.getDeletedRecord());
+        assertEquals(known.getIdentifyETag(), preamble.getIdentifyETag());
+        assertEquals(2, preamble.getFormats().size());
+    }
+
+    /**
+     * The formats kept can stand in for a ListMetadataFormats response.
+     */
+    @Test
+    public void testToListMetadataFormats() throws Exception {
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+
+        Preamble preamble = PreambleCache.refresh(provider, null, 3600000);
+        Document document = PreambleCache.toListMetadataFormats(preamble);
+        provider.close();
+
+        assertEquals(2, document.getElementsByTagNameNS(
+                "http://www.openarchives.org/OAI/2.0/", "metadataFormat").getLength());
+        assertEquals("cmdi", document.getElementsByTagNameNS(
+                "http://www.openarchives.org/OAI/2.0/", "metadataPrefix").item(1).getTextContent());
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.action.Action;
+import nl.mpi.oai.harvester.action.ActionSequence;
+import nl.mpi.oai.harvester.metadata.Metadata;
+import nl.mpi.oai.harvester.metadata.MetadataFactory;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import nl.mpi.oai.harvester.utils.ConnectionLimiter;
+import nl.mpi.oai.harvester.utils.LoopbackServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nl.mpi.oai.harvester.utils.LoopbackServer.OAI;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for keeping several GetRecord requests in flight in the
+ * ListIdentifiers scenario. The responses are served from the loopback
+ * interface.
+ */
+public class RecordFanOutTest {
+
+    private static final List<String> IDENTIFIERS =
+            Arrays.asList("1", "2", "3", "4", "5", "6");
+
+    private LoopbackServer server;
+
+    private String endpoint;
+
+    // number of GetRecord requests being served, and the maximum reached
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    // the first requests wait for each other, so that they are in flight together
+    private final CountDownLatch overlap = new CountDownLatch(3);
+
+    // the first record is answered once this latch is released
+    private volatile CountDownLatch release;
+
+    // counts the records answered, other than the first one, or null
+    private volatile CountDownLatch answered;
+
+    // true if a latch was not released in time
+    private final AtomicBoolean stalled = new AtomicBoolean(false);
+
+    @Before
+    public void setUp() throws IOException {
+        // serve the requests at the same time
+        server = new LoopbackServer(true);
+        endpoint = server.url("/oai");
+        ConnectionLimiter.setHostLimit(endpoint, 3);
+
+        server.serve("/oai", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+
+                StringBuilder body = new StringBuilder(OAI);
+                if (query.contains("verb=GetRecord")) {
+                    int n = active.incrementAndGet();
+                    synchronized (maxActive) {
+                        maxActive.set(Math.max(maxActive.get(), n));
+                    }
+                    String id = query.replaceAll(".*identifier=([^&]*).*", "$1");
+                    try {
+                        overlap.countDown();
+                        if (!overlap.await(5, TimeUnit.SECONDS)) {
+                            stalled.set(true);
+                        }
+                        active.decrementAndGet();
+                        // hold the first record back, so that it arrives last
+                        if ("1".equals(id) && !release.await(5, TimeUnit.SECONDS)) {
+                            stalled.set(true);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    body.append("<GetRecord><record><header><identifier>").append(id)
+                            .append("</identifier></header><metadata><md/></metadata>")
+                            .append("</record></GetRecord>");
+                } else {
+                    body.append("<ListIdentifiers>");
+                    for (String identifier : IDENTIFIERS) {
+                        body.append("<header><identifier>").append(identifier)
+                                .append("</identifier></header>");
+                    }
+                    body.append("</ListIdentifiers>");
+                }
+
+                LoopbackServer.send(exchange, body.append("</OAI-PMH>").toString());
+                if (query.contains("verb=GetRecord") && answered != null
+                        && !"1".equals(query.replaceAll(".*identifier=([^&]*).*", "$1"))) {
+                    answered.countDown();
+                }
+            }
+        }).start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        ConnectionLimiter.setHostLimit(endpoint, 1);
+    }
+
+    /**
+     * <br> Harvest the records, holding the first record back until a number
+     * of the others were answered or processed
+     *
+     * @param ordered true if the records are processed in the order of the list
+     * @param others the number of other records that are answered or
+     *               processed before the first record is
+     * @param onProcessed true if the other records are counted when they are
+     *                    processed, false if when they are answered
+     */
+    private List<String> harvest(boolean ordered, int others, final boolean onProcessed)
+            throws Exception {
+        final CountDownLatch counted = new CountDownLatch(others);
+        release = counted;
+        answered = onProcessed ? null : counted;
+
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        provider.setMaxRecordJobs(3);
+        provider.setKeepRecordOrder(ordered);
+
+        final List<String> processed = new CopyOnWriteArrayList<>();
+        Action action = new Action() {
+            @Override
+            public boolean perform(List<Metadata> records) {
+                for (Metadata record : records) {
+                    processed.add(record.getId());
+                    if (onProcessed && !"1".equals(record.getId())) {
+                        counted.countDown();
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Action clone() {
+                return this;
+            }
+        };
+        ActionSequence sequence = new ActionSequence(
+                new MetadataFormat("prefix", "oai_dc"), new Action[]{action}, 1);
+
+        OAIFactory factory = new OAIFactory();
+        IdentifierListHarvesting harvesting = new IdentifierListHarvesting(factory,
+                provider, Collections.singletonList("oai_dc"), new MetadataFactory(), null);
+
+        Scenario scenario = new Scenario(provider, sequence);
+        assertTrue(scenario.listIdentifiers(harvesting));
+
+        factory.close();
+        provider.close();
+
+        assertFalse(stalled.get());
+        assertEquals(3, maxActive.get());
+        return processed;
+    }
+
+    /**
+     * The records are requested at the same time, and processed once in the
+     * order in which they arrive.
+     */
+    @Test
+    public void testUnordered() throws Exception {
+        // the first record is answered once all others were processed
+        List<String> processed = harvest(false, IDENTIFIERS.size() - 1, true);
+
+        assertEquals(IDENTIFIERS.size(), processed.size());
+        assertEquals("1", processed.get(processed.size() - 1));
+
+        List<String> ids = new ArrayList<>(processed);
+        Collections.sort(ids);
+        assertEquals(IDENTIFIERS, ids);
+    }
+
+    /**
+     * The records are requested at the same time, but processed in the order
+     * of the list.
+     */
+    @Test
+    public void testOrdered() throws Exception {
+        /* The first record keeps the others from being requested, so it is
+           answered once the two requests in flight with it were.
+         */
+        assertEquals(IDENTIFIERS, harvest(true, 2, false));
+    }
+
+    /**
+     * Over many records processed in the order of the list, the records
+     * processed are not kept.
+     */
+    @Test
+    public void testOrderedKeepsNoRecords() throws Exception {
+        final int count = 50;
+        server.serve("/many", new LoopbackServer.Responder() {
+            @Override
+            public String respond(String query) {
+                StringBuilder body = new StringBuilder();
+                if (query.contains("verb=GetRecord")) {
+                    String id = query.replaceAll(".*identifier=([^&]*).*", "$1");
+                    body.append("<GetRecord><record><header><identifier>").append(id)
+                            .append("</identifier></header><metadata><md/></metadata>")
+                            .append("</record></GetRecord>");
+                } else {
+                    body.append("<ListIdentifiers>");
+                    for (int i = 1; i <= count; i++) {
+                        body.append("<header><identifier>").append(i)
+                                .append("</identifier></header>");
+                    }
+                    body.append("</ListIdentifiers>");
+                }
+                return LoopbackServer.oai(body.toString());
+            }
+        });
+
+        Provider provider = new Provider(server.url("/many"), 1, new int[]{0});
+        provider.setMaxRecordJobs(3);
+        provider.setKeepRecordOrder(true);
+
+        final List<WeakReference<Metadata>> seen = new ArrayList<>();
+        final AtomicInteger kept = new AtomicInteger(-1);
+        Action action = new Action() {
+            @Override
+            public boolean perform(List<Metadata> records) {
+                for (Metadata record : records) {
+                    seen.add(new WeakReference<>(record));
+                }
+                if (seen.size() == count) {
+                    // count the records processed before that are still reachable
+                    int live = count;
+                    for (int attempt = 0; attempt < 10 && live > 3; attempt++) {
+                        System.gc();
+                        live = 0;
+                        for (WeakReference<Metadata> ref : seen.subList(0, count - 1)) {
+                            if (ref.get() != null) {
+                                live++;
+                            }
+                        }
+                    }
+                    kept.set(live);
+                }
+                return true;
+            }
+
+            @Override
+            public Action clone() {
+                return this;
+            }
+        };
+        ActionSequence sequence = new ActionSequence(
+                new MetadataFormat("prefix", "oai_dc"), new Action[]{action}, 1);
+
+        OAIFactory factory = new OAIFactory();
+        IdentifierListHarvesting harvesting = new IdentifierListHarvesting(factory,
+                provider, Collections.singletonList("oai_dc"), new MetadataFactory(), null);
+
+        Scenario scenario = new Scenario(provider, sequence);
+        assertTrue(scenario.listIdentifiers(harvesting));
+
+        factory.close();
+        provider.close();
+
+        assertEquals(count, seen.size());
+        // at most the records of the requests in flight are kept
+        assertTrue("records kept: " + kept.get(), kept.get() >= 0 && kept.get() <= 3);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for pulling records from a response.
+ */
+public class RecordStreamTest {
+
+    private static final String RESPONSE = "<?xml version='1.0' encoding='UTF-8'?>"
+            + "<OAI-PMH xmlns='http://www.openarchives.org/OAI/2.0/'"
+            + " xmlns:cmd='http://www.clarin.eu/cmd/'>"
+            + "<ListRecords>"
+            + "<record><header><identifier>oai:1</identifier>"
+            + "<datestamp>2015-01-01</datestamp></header>"
+            + "<metadata><cmd:CMD cmd:version='1.2'><cmd:Header>é</cmd:Header>"
+            + "<!-- note --><x xmlns=''>y</x></cmd:CMD></metadata></record>"
+            + "<record><header status='deleted'><identifier>oai:2</identifier>"
+            + "<datestamp>2015-01-02</datestamp></header></record>"
+            + "<record><header><identifier>oai:1</identifier></header>"
+            + "<metadata><md/></metadata></record>"
+            + "<record><header><identifier>oai:3</identifier>"
+            + "<identifierAlias>alias</identifierAlias></header>"
+            + "<metadata><md/></metadata></record>"
+            + "<resumptionToken>abc</resumptionToken>"
+            + "</ListRecords></OAI-PMH>";
+
+    private static Document parse(byte[] bytes) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        return dbf.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Every record is copied as a whole, and can be parsed on its own. The
+     * header fields are read.
+     */
+    @Test
+    public void testSplit() throws Exception {
+        RecordStream stream = new RecordStream(
+                new ByteArrayInputStream(RESPONSE.getBytes("UTF-8")));
+
+        RecordStream.Record record = stream.next();
+        assertEquals("oai:1", record.getIdentifier());
+        assertEquals("2015-01-01", record.datestamp);
+        assertFalse(record.isDeleted());
+        Element root = parse(record.getContent()).getDocumentElement();
+        assertEquals("record", root.getLocalName());
+        assertEquals("http://www.openarchives.org/OAI/2.0/", root.getNamespaceURI());
+        assertEquals("oai:1", root.getElementsByTagNameNS("*", "identifier").item(0).getTextContent());
+        Element cmd = (Element) root.getElementsByTagNameNS("http://www.clarin.eu/cmd/", "CMD").item(0);
+        assertEquals("1.2", cmd.getAttributeNS("http://www.clarin.eu/cmd/", "version"));
+        assertEquals("é", cmd.getFirstChild().getTextContent());
+        assertNull(cmd.getLastChild().getNamespaceURI());
+
+        record = stream.next();
+        assertEquals("oai:2", record.getIdentifier());
+        assertTrue(record.isDeleted());
+
+        assertEquals("oai:1", stream.next().getIdentifier());
+        // only the identifier element is taken as the identifier
+        assertEquals("oai:3", stream.next().getIdentifier());
+        assertNull(stream.next());
+        stream.close();
+    }
+}
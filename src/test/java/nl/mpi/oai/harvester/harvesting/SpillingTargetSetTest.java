@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.Provider;
+import nl.mpi.oai.harvester.action.Action;
+import nl.mpi.oai.harvester.action.ActionSequence;
+import nl.mpi.oai.harvester.harvesting.AbstractListHarvesting.IdPrefix;
+import nl.mpi.oai.harvester.metadata.MetadataFactory;
+import nl.mpi.oai.harvester.metadata.MetadataFormat;
+import nl.mpi.oai.harvester.utils.LoopbackServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static nl.mpi.oai.harvester.utils.LoopbackServer.oai;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the SpillingTargetSet class.
+ */
+public class SpillingTargetSetTest {
+
+    /**
+     * Below the threshold, the pairs stay in memory in the order in which
+     * they were added.
+     */
+    @Test
+    public void testMemory() {
+        TargetSet targets = new SpillingTargetSet(10);
+
+        targets.checkAndInsert(new IdPrefix("c", "oai_dc"));
+        targets.checkAndInsert(new IdPrefix("a", "oai_dc"));
+        assertFalse(targets.checkAndInsert(new IdPrefix("c", "oai_dc")));
+
+        assertEquals(2, targets.size());
+        assertEquals("c", targets.get(0).identifier);
+        assertEquals("a", targets.get(1).identifier);
+        assertEquals("c", targets.get(0).identifier);
+    }
+
+    /**
+     * Beyond the threshold, the runs are merged in sorted order, and a pair
+     * found in more than one run is returned only once.
+     */
+    @Test
+    public void testSpill() {
+        TargetSet targets = new SpillingTargetSet(3);
+
+        for (String identifier : Arrays.asList("e", "b", "a", "d", "b", "f", "a", "c")) {
+            targets.checkAndInsert(new IdPrefix(identifier, "oai_dc"));
+        }
+        targets.checkAndInsert(new IdPrefix("b", "cmdi"));
+
+        assertEquals(7, targets.size());
+        List<String> pairs = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            IdPrefix pair = targets.get(i);
+            pairs.add(pair.identifier + ":" + pair.prefix);
+        }
+        assertEquals(Arrays.asList("a:oai_dc", "b:cmdi", "b:oai_dc", "c:oai_dc",
+                "d:oai_dc", "e:oai_dc", "f:oai_dc"), pairs);
+    }
+
+    /**
+     * Once spilled, the pairs can only be read one after the other.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSequential() {
+        TargetSet targets = new SpillingTargetSet(1);
+        targets.checkAndInsert(new IdPrefix("a", "oai_dc"));
+        targets.checkAndInsert(new IdPrefix("b", "oai_dc"));
+
+        targets.get(1);
+    }
+
+    /**
+     * The temporary files are removed once the set is closed, also when
+     * not all pairs were read.
+     */
+    @Test
+    public void testClose() throws IOException {
+        Set<Path> before = runFiles();
+        SpillingTargetSet targets = new SpillingTargetSet(1);
+        targets.checkAndInsert(new IdPrefix("a", "oai_dc"));
+        targets.checkAndInsert(new IdPrefix("b", "oai_dc"));
+        assertEquals(2, targets.size());
+        targets.get(0);
+        assertFalse(before.containsAll(runFiles()));
+
+        targets.close();
+        assertTrue(before.containsAll(runFiles()));
+    }
+
+    /**
+     * When listing the identifiers fails half way, the runs written so far
+     * are removed.
+     */
+    @Test
+    public void testFailedListing() throws Exception {
+        LoopbackServer server = new LoopbackServer(false);
+        String endpoint = server.url("/oai");
+        server.serve("/oai", new LoopbackServer.Responder() {
+            @Override
+            public String respond(String query) {
+                if (query.contains("resumptionToken")) {
+                    // the second page cannot be served
+                    return null;
+                }
+                return oai("<ListIdentifiers><header><identifier>1</identifier></header>"
+                        + "<header><identifier>2</identifier></header>"
+                        + "<resumptionToken>page-2</resumptionToken></ListIdentifiers>");
+            }
+        }).start();
+
+        int threshold = IdentifierListHarvesting.getSpillThreshold();
+        Set<Path> before = runFiles();
+        Provider provider = new Provider(endpoint, 1, new int[]{0});
+        OAIFactory factory = new OAIFactory();
+        try {
+            IdentifierListHarvesting.setSpillThreshold(1);
+            IdentifierListHarvesting harvesting = new IdentifierListHarvesting(factory,
+                    provider, Collections.singletonList("oai_dc"), new MetadataFactory(), null);
+            Scenario scenario = new Scenario(provider, new ActionSequence(
+                    new MetadataFormat("prefix", "oai_dc"), new Action[0], 1));
+
+            assertFalse(scenario.listIdentifiers(harvesting));
+            assertTrue(before.containsAll(runFiles()));
+        } finally {
+            IdentifierListHarvesting.setSpillThreshold(threshold);
+            factory.close();
+            provider.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * @return the temporary files of spilling sets
+     */
+    private static Set<Path> runFiles() throws IOException {
+        Set<Path> files = new HashSet<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(
+                Paths.get(System.getProperty("java.io.tmpdir")), "oai-targets-*")) {
+            for (Path file : dir) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
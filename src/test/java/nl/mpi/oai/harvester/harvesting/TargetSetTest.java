@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.harvesting;
+
+import nl.mpi.oai.harvester.harvesting.AbstractListHarvesting.IdPrefix;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the TargetSet class.
+ */
+public class TargetSetTest {
+
+    /**
+     * A pair is added only once, and the pairs keep the order in which they
+     * were added.
+     */
+    @Test
+    public void testCheckAndInsert() {
+        TargetSet targets = new TargetSet();
+
+        assertTrue(targets.checkAndInsert(new IdPrefix("oai:b", "oai_dc")));
+        assertTrue(targets.checkAndInsert(new IdPrefix("oai:a", "oai_dc")));
+        assertTrue(targets.checkAndInsert(new IdPrefix("oai:a", "cmdi")));
+        assertFalse(targets.checkAndInsert(new IdPrefix("oai:b", "oai_dc")));
+        assertFalse(targets.checkAndInsert(new IdPrefix("oai:a", "cmdi")));
+
+        assertEquals(3, targets.size());
+        assertEquals(new IdPrefix("oai:b", "oai_dc"), targets.get(0));
+        assertEquals(new IdPrefix("oai:a", "oai_dc"), targets.get(1));
+        assertEquals(new IdPrefix("oai:a", "cmdi"), targets.get(2));
+    }
+
+    /**
+     * The set keeps working while it grows, and identifiers outside of ASCII
+     * survive the encoding.
+     */
+    @Test
+    public void testGrow() {
+        TargetSet targets = new TargetSet();
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(targets.checkAndInsert(new IdPrefix("oai:é" + i, "oai_dc")));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(targets.checkAndInsert(new IdPrefix("oai:é" + i, "oai_dc")));
+        }
+
+        assertEquals(10000, targets.size());
+        assertEquals("oai:é9999", targets.get(9999).identifier);
+        assertEquals("oai_dc", targets.get(9999).prefix);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        new TargetSet().get(0);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the ConnectionLimiter class. No network connections are made.
+ */
+public class ConnectionLimiterTest {
+
+    /**
+     * Acquire a permit in a separate thread, and signal the latch once the
+     * permit has been obtained.
+     */
+    private Thread acquireLater(final String url, final CountDownLatch latch) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ConnectionLimiter.Permit permit = ConnectionLimiter.acquire(url);
+                    latch.countDown();
+                    permit.release();
+                } catch (Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * Requests to the same host wait for each other, requests to another host
+     * do not.
+     */
+    @Test
+    public void testHostLimit() throws Exception {
+        ConnectionLimiter.setDefaultHostLimit(1);
+
+        ConnectionLimiter.Permit permit = ConnectionLimiter.acquire(
+                "http://a.example.org/oai?verb=Identify");
+
+        CountDownLatch other = new CountDownLatch(1);
+        acquireLater("http://b.example.org/oai?verb=Identify", other);
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch same = new CountDownLatch(1);
+        acquireLater("http://A.example.org/other?verb=Identify", same);
+        assertFalse(same.await(200, TimeUnit.MILLISECONDS));
+
+        permit.release();
+        assertTrue(same.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * An endpoint limit applies on top of the host limit, and releasing a
+     * permit twice does not hand out an extra one.
+     */
+    @Test
+    public void testEndpointLimit() throws Exception {
+        ConnectionLimiter.setHostLimit("http://c.example.org/", 0);
+        ConnectionLimiter.setEndpointLimit("http://c.example.org/oai", 1);
+
+        ConnectionLimiter.Permit permit = ConnectionLimiter.acquire(
+                "http://c.example.org/oai?verb=ListRecords");
+        permit.release();
+        permit.release();
+
+        permit = ConnectionLimiter.acquire(
+                "http://c.example.org/oai?verb=ListRecords");
+
+        CountDownLatch otherEndpoint = new CountDownLatch(1);
+        acquireLater("http://c.example.org/static.xml", otherEndpoint);
+        assertTrue(otherEndpoint.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch sameEndpoint = new CountDownLatch(1);
+        acquireLater("http://c.example.org/oai?verb=Identify", sameEndpoint);
+        assertFalse(sameEndpoint.await(200, TimeUnit.MILLISECONDS));
+
+        permit.release();
+        assertTrue(sameEndpoint.await(5, TimeUnit.SECONDS));
+    }
+}
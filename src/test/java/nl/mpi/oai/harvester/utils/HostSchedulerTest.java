@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the HostScheduler class.
+ */
+public class HostSchedulerTest {
+
+    /**
+     * An exclusive claim waits for the inclusive claims on its host, and
+     * inclusive claims arriving later wait for it. Claims on another host do
+     * not wait at all.
+     */
+    @Test
+    public void testExclusive() throws Exception {
+        HostScheduler.Claim first = HostScheduler.acquire("http://a.test/oai", false);
+
+        final CountDownLatch exclusive = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HostScheduler.Claim claim = HostScheduler.acquire("http://a.test/other", true);
+                exclusive.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    // release anyway
+                }
+                claim.release();
+            }
+        });
+        worker.start();
+        assertFalse(exclusive.await(300, TimeUnit.MILLISECONDS));
+
+        // another host is available
+        HostScheduler.acquire("http://b.test/oai", false).release();
+
+        // a claim arriving after the exclusive one waits for it
+        final CountDownLatch second = new CountDownLatch(1);
+        Thread late = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HostScheduler.acquire("http://a.test/oai", false).release();
+                second.countDown();
+            }
+        });
+        late.start();
+
+        first.release();
+        first.release();
+        assertTrue(exclusive.await(1, TimeUnit.SECONDS));
+        assertFalse(second.await(300, TimeUnit.MILLISECONDS));
+
+        done.countDown();
+        assertTrue(second.await(1, TimeUnit.SECONDS));
+        worker.join();
+        late.join();
+    }
+
+    /**
+     * A worker waiting for its host gives its slot to others.
+     */
+    @Test
+    public void testSlotReleased() throws Exception {
+        final Semaphore pool = new Semaphore(1);
+        HostScheduler.Claim claim = HostScheduler.acquire("http://c.test/oai", true);
+
+        pool.acquire();
+        final CountDownLatch claimed = new CountDownLatch(1);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RetryScheduler.enter(pool);
+                try {
+                    HostScheduler.acquire("http://c.test/oai", false).release();
+                    claimed.countDown();
+                } finally {
+                    RetryScheduler.leave();
+                    pool.release();
+                }
+            }
+        });
+        worker.start();
+
+        assertTrue(pool.tryAcquire(1, TimeUnit.SECONDS));
+        assertFalse(claimed.await(200, TimeUnit.MILLISECONDS));
+        claim.release();
+
+        // the worker needs its slot back before it continues
+        assertFalse(claimed.await(200, TimeUnit.MILLISECONDS));
+        pool.release();
+        assertTrue(claimed.await(1, TimeUnit.SECONDS));
+        worker.join();
+    }
+
+    /**
+     * A worker interrupted while waiting for its host gives up without
+     * claiming it, and keeps its interrupt status. Inclusive workers that
+     * queued behind it no longer wait.
+     */
+    @Test
+    public void testInterrupted() throws Exception {
+        HostScheduler.Claim first = HostScheduler.acquire("http://d.test/oai", false);
+
+        final AtomicBoolean gaveUp = new AtomicBoolean(false);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HostScheduler.Claim claim = HostScheduler.acquire("http://d.test/oai", true);
+                gaveUp.set(claim == null);
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        worker.start();
+
+        final CountDownLatch late = new CountDownLatch(1);
+        Thread inclusive = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HostScheduler.acquire("http://d.test/oai", false).release();
+                late.countDown();
+            }
+        });
+        // the exclusive worker is queued once the inclusive one waits
+        while (worker.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        inclusive.start();
+        assertFalse(late.await(200, TimeUnit.MILLISECONDS));
+
+        worker.interrupt();
+        worker.join();
+        assertTrue(gaveUp.get());
+        assertTrue(interrupted.get());
+        assertTrue(late.await(1, TimeUnit.SECONDS));
+        inclusive.join();
+
+        // the host was not left claimed
+        first.release();
+        HostScheduler.acquire("http://d.test/oai", true).release();
+    }
+
+    /**
+     * Mix exclusive and inclusive jobs on a few hosts, and check that an
+     * exclusive job never shares its host, while all inclusive jobs on the
+     * other hosts run at the same time.
+     */
+    @Test
+    public void testMixed() throws Exception {
+        final int hostCount = 4;
+        final int jobsPerHost = 8;
+        final AtomicInteger[] running = new AtomicInteger[hostCount];
+        final AtomicInteger[] exclusiveRunning = new AtomicInteger[hostCount];
+        final CountDownLatch[] together = new CountDownLatch[hostCount];
+        for (int h = 0; h < hostCount; h++) {
+            running[h] = new AtomicInteger();
+            exclusiveRunning[h] = new AtomicInteger();
+            together[h] = new CountDownLatch(jobsPerHost);
+        }
+        final AtomicBoolean violated = new AtomicBoolean(false);
+        final AtomicBoolean apart = new AtomicBoolean(false);
+        long waits = HostScheduler.getWaits();
+        long waited = HostScheduler.getWaited();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int h = 0; h < hostCount; h++) {
+            for (int j = 0; j < jobsPerHost; j++) {
+                final int host = h;
+                // only the first host has exclusive jobs
+                final boolean exclusive = h == 0 && j % 4 == 0;
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        HostScheduler.Claim claim = HostScheduler.acquire(
+                                "http://mixed" + host + ".test/oai", exclusive);
+                        try {
+                            int others = running[host].incrementAndGet() - 1;
+                            if (exclusive) {
+                                exclusiveRunning[host].incrementAndGet();
+                            }
+                            if ((exclusive && others > 0)
+                                    || exclusiveRunning[host].get() > (exclusive ? 1 : 0)) {
+                                violated.set(true);
+                            }
+                            if (host == 0) {
+                                // give the other jobs on the host a chance to interfere
+                                Thread.sleep(50);
+                            } else {
+                                // every job on the host waits for all the others
+                                together[host].countDown();
+                                if (!together[host].await(5, TimeUnit.SECONDS)) {
+                                    apart.set(true);
+                                }
+                            }
+                            if (exclusive) {
+                                exclusiveRunning[host].decrementAndGet();
+                            }
+                            running[host].decrementAndGet();
+                        } catch (InterruptedException e) {
+                            // the job is over
+                        } finally {
+                            claim.release();
+                        }
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertFalse(violated.get());
+        // inclusive jobs on a host do run side by side
+        assertFalse(apart.get());
+        // the jobs on the first host had to wait for the exclusive ones
+        assertTrue(HostScheduler.getWaits() > waits);
+        assertTrue(HostScheduler.getWaited() > waited);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import ORG.oclc.oai.harvester2.verb.Identify;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the KeepAliveTransport class. The tests run against a server on
+ * the loopback interface.
+ */
+public class KeepAliveTransportTest {
+
+    private LoopbackServer server;
+
+    private String base;
+
+    // number of requests that reached the old location
+    private final AtomicInteger oldRequests = new AtomicInteger();
+
+    // number of requests for the missing location
+    private final AtomicInteger missingRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer(false);
+        base = server.url("");
+
+        server.serve("/old", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                oldRequests.incrementAndGet();
+                exchange.getResponseHeaders().add("Location",
+                        base + "/new?" + exchange.getRequestURI().getRawQuery());
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_MOVED_PERM, -1);
+                exchange.close();
+            }
+        });
+        server.serve("/new", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                LoopbackServer.send(exchange, "<response query='"
+                        + exchange.getRequestURI().getRawQuery() + "'/>");
+            }
+        });
+        server.serve("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // ask for a retry first, then report the request as missing
+                if (missingRequests.incrementAndGet() == 1) {
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+                } else {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        TransportFactory.setTransport(new KeepAliveTransport());
+    }
+
+    /**
+     * A permanent redirect that keeps the request parameters applies to every
+     * later request to the endpoint.
+     */
+    @Test
+    public void testPermanentRedirect() throws Exception {
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        HttpURLConnection con = transport.open(base + "/old?verb=Identify", 0, null);
+        assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+        assertEquals(base + "/new?verb=Identify", con.getURL().toString());
+        transport.release(con, null);
+
+        con = transport.open(base + "/old?verb=ListSets", 0, null);
+        InputStream in = con.getInputStream();
+        assertEquals(base + "/new?verb=ListSets", con.getURL().toString());
+        transport.release(con, in);
+
+        assertEquals(1, oldRequests.get());
+        assertEquals(Long.valueOf(3), transport.getStatistics().get("requests"));
+        assertEquals(Long.valueOf(1), transport.getStatistics().get("redirects"));
+        assertEquals(Long.valueOf(1), transport.getStatistics().get("redirects-remembered"));
+        assertEquals(Long.valueOf(3), transport.getStatistics().get("released"));
+        assertEquals(Long.valueOf(0), transport.getStatistics().get("active"));
+    }
+
+    /**
+     * A redirect changing the request parameters only applies to the URL
+     * that was redirected.
+     */
+    @Test
+    public void testRememberURL() {
+        KeepAliveTransport transport = new KeepAliveTransport();
+
+        transport.remember("http://a.org/oai?verb=Identify",
+                "http://b.org/oai/identify.xml");
+
+        assertEquals("http://b.org/oai/identify.xml",
+                transport.resolve("http://a.org/oai?verb=Identify"));
+        assertEquals("http://a.org/oai?verb=ListSets",
+                transport.resolve("http://a.org/oai?verb=ListSets"));
+    }
+
+    /**
+     * A request the endpoint does not know fails, also after a retry, and
+     * every connection is released once.
+     */
+    @Test
+    public void testMissing() throws Exception {
+        KeepAliveTransport transport = new KeepAliveTransport();
+        TransportFactory.setTransport(transport);
+
+        try {
+            new Identify(base + "/missing");
+            fail("a missing request should fail");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+
+        assertEquals(2, missingRequests.get());
+        assertEquals(Long.valueOf(2), transport.getStatistics().get("requests"));
+        assertEquals(Long.valueOf(0), transport.getStatistics().get("active"));
+    }
+}
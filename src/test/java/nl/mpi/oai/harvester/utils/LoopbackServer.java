@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <br> Serve responses from the loopback interface <br><br>
+ *
+ * A test that needs an endpoint creates a server, adds a handler for every
+ * path it requests, and stops the server afterwards. A handler that only
+ * needs the query of a request to answer it can be given as a responder.
+ * <br><br>
+ *
+ * The OAI constant and the oai method help building responses the harvester
+ * accepts.
+ */
+public final class LoopbackServer {
+
+    /** The start tag of an OAI-PMH response, including its schema location. */
+    public static final String OAI = "<OAI-PMH xmlns='http://www.openarchives.org/OAI/2.0/'"
+            + " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'"
+            + " xsi:schemaLocation='http://www.openarchives.org/OAI/2.0/"
+            + " http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd'>";
+
+    /**
+     * <br> Answer a request by its query
+     */
+    public interface Responder {
+
+        /**
+         * @param query the query of the request
+         * @return the body of the response, or null to answer with a server
+         *         error
+         * @throws IOException the response cannot be created
+         */
+        String respond(String query) throws IOException;
+    }
+
+    private final HttpServer server;
+
+    // the threads serving the requests, or null if served one at a time
+    private final ExecutorService executor;
+
+    /**
+     * <br> Create a server on a free port
+     *
+     * @param concurrent true if requests are served at the same time
+     * @throws IOException the server cannot be created
+     */
+    public LoopbackServer(boolean concurrent) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        if (concurrent) {
+            executor = Executors.newCachedThreadPool();
+            server.setExecutor(executor);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * @param path the path on the server, starting with a slash
+     * @return the URL of the path
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * <br> Handle the requests for a path
+     *
+     * @param path the path
+     * @param handler the handler
+     * @return the server
+     */
+    public LoopbackServer serve(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+        return this;
+    }
+
+    /**
+     * <br> Answer the requests for a path by their query
+     *
+     * @param path the path
+     * @param responder the responder
+     * @return the server
+     */
+    public LoopbackServer serve(String path, final Responder responder) {
+        return serve(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = responder.respond(exchange.getRequestURI().getQuery());
+                if (body == null) {
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+                    exchange.close();
+                } else {
+                    send(exchange, body);
+                }
+            }
+        });
+    }
+
+    /**
+     * <br> Start serving requests
+     *
+     * @return the server
+     */
+    public LoopbackServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * <br> Stop serving requests, without waiting for those in progress
+     */
+    public void stop() {
+        server.stop(0);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param content the content of a response
+     * @return the response, in an OAI-PMH envelope
+     */
+    public static String oai(String content) {
+        return OAI + content + "</OAI-PMH>";
+    }
+
+    /**
+     * <br> Answer a request with a body
+     *
+     * @param exchange the request
+     * @param body the body, encoded as UTF-8
+     * @throws IOException the response cannot be sent
+     */
+    public static void send(HttpExchange exchange, String body) throws IOException {
+        send(exchange, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * <br> Answer a request with a body
+     *
+     * @param exchange the request
+     * @param body the body
+     * @throws IOException the response cannot be sent
+     */
+    public static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the RequestGuard class. The tests run against a server on the
+ * loopback interface.
+ */
+public class RequestGuardTest {
+
+    private LoopbackServer server;
+
+    private String base;
+
+    /**
+     * A handler sending a chunk of bytes at an interval, for a long time.
+     */
+    private static HttpHandler sender(final int chunk, final long millis) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    for (int i = 0; i < 10000 / millis; i++) {
+                        out.write(new byte[chunk]);
+                        out.flush();
+                        Thread.sleep(millis);
+                    }
+                    out.close();
+                } catch (IOException | InterruptedException e) {
+                    // the client gave up
+                } finally {
+                    exchange.close();
+                }
+            }
+        };
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer(true);
+        base = server.url("");
+
+        // a byte every 50 ms
+        server.serve("/trickle", sender(1, 50));
+        // 10 kB every 10 ms
+        server.serve("/endless", sender(10240, 10));
+        server.serve("/quick", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                LoopbackServer.send(exchange, new byte[4096]);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        RequestGuard.setDeadlineMillis(0);
+        RequestGuard.setMinimumRate(0, 30000);
+        server.stop();
+    }
+
+    /**
+     * Read a response under the guard.
+     *
+     * @return the number of bytes read
+     */
+    private long read(String url) throws IOException {
+        KeepAliveTransport transport = new KeepAliveTransport();
+        RequestGuard.Request request = RequestGuard.start(url);
+        HttpURLConnection con = null;
+        InputStream in = null;
+        try {
+            con = transport.open(url, 10, null);
+            request.attach(con);
+            in = request.wrap(con.getInputStream());
+            long total = 0;
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+            }
+            return total;
+        } finally {
+            request.finish();
+            if (con != null) {
+                transport.release(con, in);
+            }
+        }
+    }
+
+    /**
+     * A response below the minimum rate is given up on, although the read
+     * timeout never passes.
+     */
+    @Test
+    public void testMinimumRate() throws Exception {
+        RequestGuard.setMinimumRate(1000, 300);
+        long slow = RequestGuard.getSlow();
+        long start = System.currentTimeMillis();
+        try {
+            read(base + "/trickle");
+            fail("the request should time out");
+        } catch (SocketTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("transfer rate"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(slow + 1, RequestGuard.getSlow());
+
+        // a response arriving fast enough is not affected
+        assertEquals(4096, read(base + "/quick"));
+    }
+
+    /**
+     * A response is given up on after the deadline, however fast it arrives.
+     */
+    @Test
+    public void testDeadline() throws Exception {
+        RequestGuard.setDeadlineMillis(500);
+        RequestGuard.setMinimumRate(1000, 300);
+        long expired = RequestGuard.getExpired();
+        long received = RequestGuard.getReceived(base + "/endless");
+        long start = System.currentTimeMillis();
+        try {
+            read(base + "/endless?verb=ListRecords");
+            fail("the request should time out");
+        } catch (SocketTimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("deadline"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(expired + 1, RequestGuard.getExpired());
+        assertTrue(RequestGuard.getReceived(base + "/endless") > received);
+    }
+
+    /**
+     * Cancelling an endpoint aborts its requests, and refuses new ones until
+     * it is resumed.
+     */
+    @Test
+    public void testCancel() throws Exception {
+        final String url = base + "/trickle?verb=Identify";
+        final IOException[] failure = new IOException[1];
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read(url);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        client.start();
+        Thread.sleep(300);
+
+        RequestGuard.cancel(base + "/trickle");
+        client.join(5000);
+        assertFalse(client.isAlive());
+        assertTrue(failure[0] instanceof SocketTimeoutException);
+
+        try {
+            RequestGuard.start(url);
+            fail("the request should be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("cancelled"));
+        }
+
+        RequestGuard.resume(url);
+        RequestGuard.start(url).finish();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the ResponseSpool class.
+ */
+public class ResponseSpoolTest {
+
+    private Path file;
+
+    private long threshold;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("oai-", null);
+        threshold = ResponseSpool.getThreshold();
+        ResponseSpool.setThreshold(100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ResponseSpool.setThreshold(threshold);
+        Files.deleteIfExists(file);
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    /**
+     * A response below the threshold stays in memory.
+     */
+    @Test
+    public void testMemory() throws Exception {
+        byte[] response = bytes(100);
+        ResponseSpool spool = new ResponseSpool(file);
+        spool.write(response, 0, 60);
+        spool.write(response, 60, 40);
+
+        InputStream in = spool.getInputStream();
+        assertFalse(spool.isOnDisk());
+        assertEquals(0, Files.size(file));
+        assertArrayEquals(response, IOUtils.toByteArray(in));
+        in.reset();
+        assertArrayEquals(response, IOUtils.toByteArray(in));
+    }
+
+    /**
+     * A response above the threshold moves to the file, and can be read
+     * again after a reset.
+     */
+    @Test
+    public void testDisk() throws Exception {
+        byte[] response = bytes(1000);
+        ResponseSpool spool = new ResponseSpool(file);
+        spool.write(response, 0, 60);
+        spool.write(response[60]);
+        spool.write(response, 61, 939);
+
+        InputStream in = spool.getInputStream();
+        assertTrue(spool.isOnDisk());
+        assertEquals(1000, spool.size());
+        assertEquals(1000, Files.size(file));
+        assertTrue(in.markSupported());
+
+        assertArrayEquals(response, IOUtils.toByteArray(in));
+        assertEquals(-1, in.read());
+        in.reset();
+        assertEquals(10, in.skip(10));
+        in.mark(0);
+        assertEquals(10, in.read());
+        in.reset();
+        assertEquals(10, in.read());
+        in.reset();
+        in.skip(Long.MAX_VALUE);
+        assertEquals(0, in.available());
+    }
+
+    /**
+     * Without a file, the response stays in memory regardless of its size.
+     */
+    @Test
+    public void testNoFile() throws Exception {
+        byte[] response = bytes(1000);
+        ResponseSpool spool = new ResponseSpool(null);
+        spool.write(response);
+
+        assertArrayEquals(response, IOUtils.toByteArray(spool.getInputStream()));
+        assertFalse(spool.isOnDisk());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import ORG.oclc.oai.harvester2.verb.HarvesterVerb;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the ResponseSummary class.
+ */
+public class ResponseSummaryTest {
+
+    private static final String LIST_RECORDS =
+            "<?xml version='1.0' encoding='UTF-8'?>\n" +
+            "<OAI-PMH xmlns='http://www.openarchives.org/OAI/2.0/'" +
+            " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'" +
+            " xsi:schemaLocation='http://www.openarchives.org/OAI/2.0/\n" +
+            "   http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd'>" +
+            "<responseDate>2016-01-01T00:00:00Z</responseDate>" +
+            "<request verb='ListRecords'>http://a.org/oai</request>" +
+            "<ListRecords>" +
+            "<record><header><identifier>1</identifier></header>" +
+            "<metadata><record xmlns='http://www.openarchives.org/OAI/2.0/'/></metadata></record>" +
+            "<record><header status='deleted'><identifier>2</identifier></header></record>" +
+            "<resumptionToken cursor='0' completeListSize='120'> token-1 </resumptionToken>" +
+            "</ListRecords></OAI-PMH>";
+
+    /**
+     * The summary of a ListRecords page, and an exact copy of the response.
+     */
+    @Test
+    public void testListRecords() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseSummary summary = ResponseSummary.scan(
+                new ByteArrayInputStream(LIST_RECORDS.getBytes("UTF-8")), out);
+
+        assertEquals(LIST_RECORDS, out.toString("UTF-8"));
+        assertTrue(summary.isComplete());
+        assertEquals(HarvesterVerb.SCHEMA_LOCATION_V2_0, summary.getSchemaLocation());
+        assertEquals("token-1", summary.getResumptionToken());
+        assertEquals(0, summary.getCursor());
+        assertEquals(120, summary.getCompleteListSize());
+        assertEquals(2, summary.getRecordCount());
+        assertTrue(summary.getErrorCodes().isEmpty());
+    }
+
+    /**
+     * The summary of a ListIdentifiers response without a token.
+     */
+    @Test
+    public void testListIdentifiers() throws Exception {
+        byte[] response = IOUtils.toByteArray(
+                getClass().getResourceAsStream("/response-ListIdentifiers.xml"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseSummary summary = ResponseSummary.scan(
+                new ByteArrayInputStream(response), out);
+
+        assertArrayEquals(response, out.toByteArray());
+        assertTrue(summary.isComplete());
+        assertNull(summary.getResumptionToken());
+        assertEquals(-1, summary.getCompleteListSize());
+        assertEquals(3, summary.getRecordCount());
+    }
+
+    /**
+     * Errors reported by the endpoint.
+     */
+    @Test
+    public void testErrors() throws Exception {
+        String response = "<OAI-PMH xmlns='http://www.openarchives.org/OAI/2.0/'>" +
+                "<error code='noRecordsMatch'>nothing\n</error>" +
+                "<error code='badArgument'/></OAI-PMH>";
+        ResponseSummary summary = ResponseSummary.scan(
+                new ByteArrayInputStream(response.getBytes("UTF-8")),
+                new ByteArrayOutputStream());
+
+        assertTrue(summary.isComplete());
+        assertEquals(Arrays.asList("noRecordsMatch", "badArgument"), summary.getErrorCodes());
+        assertEquals(Arrays.asList("nothing", ""), summary.getErrorMessages());
+    }
+
+    /**
+     * A response that is not well formed is copied completely, but the
+     * summary is marked incomplete.
+     */
+    @Test
+    public void testMalformed() throws Exception {
+        String response = "<OAI-PMH><ListRecords></OAI-PMH> trailing garbage";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseSummary summary = ResponseSummary.scan(
+                new ByteArrayInputStream(response.getBytes("UTF-8")), out);
+
+        assertEquals(response, out.toString("UTF-8"));
+        assertFalse(summary.isComplete());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the RetryScheduler class.
+ */
+public class RetrySchedulerTest {
+
+    /**
+     * A waiting worker gives its slot to others, and gets it back afterwards.
+     */
+    @Test
+    public void testSlotReleased() throws Exception {
+        final Semaphore pool = new Semaphore(1);
+        final CountDownLatch parked = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+
+        pool.acquire();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RetryScheduler.enter(pool);
+                try {
+                    parked.countDown();
+                    RetryScheduler.await(500);
+                    // the slot is held again
+                    resume.countDown();
+                } finally {
+                    RetryScheduler.leave();
+                    pool.release();
+                }
+            }
+        });
+        worker.start();
+        parked.await();
+
+        // while the worker waits, its slot is available
+        assertTrue(pool.tryAcquire(400, TimeUnit.MILLISECONDS));
+        assertEquals(1, RetryScheduler.getParked());
+
+        // the worker cannot resume before it gets a slot
+        assertFalse(resume.await(300, TimeUnit.MILLISECONDS));
+        pool.release();
+        assertTrue(resume.await(1, TimeUnit.SECONDS));
+
+        worker.join();
+        assertEquals(1, pool.availablePermits());
+        assertEquals(0, RetryScheduler.getParked());
+    }
+
+    /**
+     * The delay is spread out, but never shortened.
+     */
+    @Test
+    public void testJitter() {
+        for (int i = 0; i < 100; i++) {
+            long delay = RetryScheduler.jitter(1000);
+            assertTrue(delay >= 1000);
+            assertTrue(delay <= 1500);
+        }
+        assertEquals(0, RetryScheduler.jitter(0));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015, The Max Planck Institute for
+ * Psycholinguistics.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License is included in the file
+ * LICENSE-gpl-3.0.txt. If that file is missing, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package nl.mpi.oai.harvester.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the progress kept by the Statistic class.
+ */
+public class StatisticTest {
+
+    /**
+     * Throughput and ETA follow from the records received and the complete
+     * list size.
+     */
+    @Test
+    public void testProgress() {
+        Statistic statistic = new Statistic();
+
+        Statistic.Progress progress = statistic.addPage("oai_dc", true, 100, 0, 1000, 0, 1000);
+        assertEquals(100, progress.getDone());
+        assertEquals(1000, progress.getExpected());
+        assertEquals(100.0, progress.getThroughput(), 0.001);
+        assertEquals(9, progress.getETA());
+
+        progress = statistic.addPage("oai_dc", false, 100, 100, 1000, 1000, 4000);
+        assertEquals(200, progress.getDone());
+        assertEquals(2, progress.getPages());
+        assertEquals(50.0, progress.getThroughput(), 0.001);
+        assertEquals(16, progress.getETA());
+    }
+
+    /**
+     * Without a complete list size, there is no ETA. A cursor ahead of the
+     * records counted is taken into account.
+     */
+    @Test
+    public void testUnknownSize() {
+        Statistic statistic = new Statistic();
+
+        Statistic.Progress progress = statistic.addPage("cmdi", true, 10, -1, -1, 0, 0);
+        assertEquals(-1, progress.getExpected());
+        assertEquals(-1, progress.getETA());
+        assertEquals(-1, progress.getThroughput(), 0.001);
+
+        progress = statistic.addPage("cmdi", false, 10, 50, -1, 0, 1000);
+        assertEquals(60, progress.getDone());
+        assertEquals(-1, progress.getETA());
+    }
+
+    /**
+     * Lists are kept apart, and requesting a list again starts over.
+     */
+    @Test
+    public void testLists() {
+        Statistic statistic = new Statistic();
+
+        statistic.addPage("oai_dc", true, 10, -1, 20, 0, 100);
+        statistic.addPage("cmdi", true, 5, -1, 5, 0, 100);
+        statistic.addPage("oai_dc", false, 10, -1, 20, 100, 200);
+        assertEquals(2, statistic.getProgress().size());
+        assertEquals("oai_dc", statistic.getProgress().get(0).getName());
+        assertEquals(20, statistic.getProgress().get(0).getDone());
+        assertEquals(0, statistic.getProgress().get(0).getETA());
+
+        statistic.addPage("oai_dc", true, 10, -1, 20, 300, 400);
+        assertEquals(10, statistic.getProgress().get(0).getDone());
+        assertEquals(1, statistic.getProgress().get(0).getPages());
+    }
+
+    /**
+     * Counts from several threads are not lost.
+     */
+    @Test
+    public void testConcurrentCounts() throws InterruptedException {
+        final Statistic statistic = new Statistic();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        statistic.incRecordCount();
+                        statistic.incRequestCount();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, statistic.getHarvestedRecords());
+        assertEquals(40000, statistic.getRequests());
+    }
+}